@@ -0,0 +1,111 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ManifestBuilder;
+import com.dynamo.bob.test.util.Benchmark;
+
+import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+
+/**
+ * Benchmark of ArchiveBuilder.write with many entries of which a large part
+ * is excluded from the archive (as with LiveUpdate). Not run as part of the
+ * unit tests. Run with:
+ *
+ *   java -cp bob.jar:bob-tests.jar com.dynamo.bob.archive.test.ArchiveBuilderBenchmark [entries] [excluded-percent]
+ *
+ * Defaults to 50000 entries with 50% excluded.
+ */
+public class ArchiveBuilderBenchmark {
+
+    private Path contentRoot;
+    private List<String> files = new ArrayList<>();
+    private List<String> excludedResources = new ArrayList<>();
+
+    private ArchiveBuilder archiveBuilder;
+    private File index;
+    private File data;
+    private Path resourcePackDirectory;
+
+    private void setUp(int entryCount, int excludedPercent) throws IOException {
+        contentRoot = Files.createTempDirectory("defold.archivebenchmark_");
+        for (int i = 0; i < entryCount; ++i) {
+            String relativePath = String.format("dir%d/entry%d.bin", i % 100, i);
+            File file = contentRoot.resolve(relativePath).toFile();
+            file.getParentFile().mkdirs();
+            FileUtils.writeByteArrayToFile(file, String.format("content of entry %d", i).getBytes());
+            files.add(file.getAbsolutePath());
+            if ((i % 100) < excludedPercent) {
+                excludedResources.add("/" + relativePath);
+            }
+        }
+    }
+
+    // Create an archive builder with all entries and the output files, not measured
+    private void prepare() throws IOException, CompileExceptionError {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        archiveBuilder = new ArchiveBuilder(contentRoot.toString(), manifestBuilder, 4);
+        for (String file : files) {
+            archiveBuilder.add(file, true, false);
+        }
+        index = Files.createTempFile("defold.benchmark", ".arci").toFile();
+        data = Files.createTempFile("defold.benchmark", ".arcd").toFile();
+        resourcePackDirectory = Files.createTempDirectory("defold.benchmark.resourcepack_");
+    }
+
+    private void run() throws IOException, CompileExceptionError {
+        try (RandomAccessFile archiveIndex = new RandomAccessFile(index, "rw");
+             RandomAccessFile archiveData = new RandomAccessFile(data, "rw")) {
+            archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
+        }
+    }
+
+    private void cleanUp() throws IOException {
+        FileUtils.deleteQuietly(index);
+        FileUtils.deleteQuietly(data);
+        FileUtils.deleteDirectory(resourcePackDirectory.toFile());
+    }
+
+    private void tearDown() throws IOException {
+        FileUtils.deleteDirectory(contentRoot.toFile());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int excludedPercent = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        ArchiveBuilderBenchmark benchmark = new ArchiveBuilderBenchmark();
+        benchmark.setUp(entryCount, excludedPercent);
+        try {
+            System.out.printf("%d entries, %d excluded:%n", entryCount, benchmark.excludedResources.size());
+            Benchmark.measure("write", benchmark::prepare, benchmark::run, benchmark::cleanUp);
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+}
@@ -21,11 +21,26 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import org.junit.After;
 import org.junit.Before;
@@ -49,6 +64,56 @@ public class ResourceCacheTest {
 
 	private ResourceCache resourceCache = null;
 
+	private Server httpServer = null;
+
+	// in-memory stand-in for a remote cache
+	private Map<String, byte[]> remoteResources = new ConcurrentHashMap<>();
+
+	private AtomicInteger remoteRequestCount = new AtomicInteger();
+
+	private class RemoteCacheHandler extends AbstractHandler {
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+			remoteRequestCount.incrementAndGet();
+			String method = request.getMethod();
+			byte[] data = remoteResources.get(target);
+			if (method.equals("PUT")) {
+				remoteResources.put(target, IOUtils.toByteArray(request.getInputStream()));
+				response.setStatus(HttpServletResponse.SC_CREATED);
+			}
+			else if (data == null) {
+				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			}
+			else {
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setContentLength(data.length);
+				if (method.equals("GET")) {
+					response.getOutputStream().write(data);
+				}
+			}
+			baseRequest.setHandled(true);
+		}
+	}
+
+	private String startRemoteCache() throws Exception {
+		httpServer = new Server();
+		SocketConnector connector = new SocketConnector();
+		connector.setPort(0);
+		httpServer.addConnector(connector);
+		httpServer.setHandler(new RemoteCacheHandler());
+		httpServer.start();
+		return "http://localhost:" + connector.getLocalPort();
+	}
+
+	// create a cache entry the same way as it is stored in the local cache
+	private byte[] createEntry(String key, byte[] data) throws IOException {
+		Path dir = Files.createTempDirectory(null);
+		ResourceCache cache = new ResourceCache();
+		cache.init(dir.toString(), null);
+		cache.put(key, data);
+		return Files.readAllBytes(dir.resolve(key.substring(0, 2)).resolve(key));
+	}
+
 	@Before
 	public void setUp() throws Exception {
 		cacheDir = Files.createTempDirectory(null);
@@ -56,7 +121,10 @@ public class ResourceCacheTest {
 	}
 
 	@After
-	public void tearDown() throws IOException {
+	public void tearDown() throws Exception {
+		if (httpServer != null) {
+			httpServer.stop();
+		}
 	}
 
 	// nothing should happen if the resource cache is disabled
@@ -81,4 +149,195 @@ public class ResourceCacheTest {
 		assertArrayEquals(data, resourceCache.get(key));
 	}
 
+	// resources found when prefetching should be downloaded without any further requests
+	@Test
+	public void testPrefetchFromRemote() throws Exception {
+		resourceCache.init(cacheDir.toString(), startRemoteCache());
+		final byte[] data = "somedata".getBytes();
+		remoteResources.put("/hit", createEntry("hit", data));
+
+		resourceCache.prefetch(Arrays.asList("hit", "miss"));
+		assertTrue(resourceCache.contains("hit"));
+		assertFalse(resourceCache.contains("miss"));
+		assertArrayEquals(data, resourceCache.get("hit"));
+		assertTrue(resourceCache.get("miss") == null);
+		// HEAD + GET for the hit and HEAD for the miss
+		assertEquals(3, remoteRequestCount.get());
+		assertTrue(cacheDir.resolve("hi").resolve("hit").toFile().exists());
+	}
+
+	// resources put in the cache should be uploaded to the remote when flushed
+	@Test
+	public void testPutUploadsToRemote() throws Exception {
+		resourceCache.init(cacheDir.toString(), startRemoteCache());
+		final byte[] data = "somedata".getBytes();
+
+		assertFalse(resourceCache.contains("somekey"));
+		resourceCache.put("somekey", data);
+		resourceCache.flush();
+		assertArrayEquals(createEntry("somekey", data), remoteResources.get("/somekey"));
+		// HEAD for contains() and PUT for the upload
+		assertEquals(2, remoteRequestCount.get());
+	}
+
+	// resources should be stored in subdirectories and found through the index after a restart
+	@Test
+	public void testShardedAndIndexed() throws Exception {
+		resourceCache.init(cacheDir.toString(), null);
+		final byte[] data = "somedata".getBytes();
+		resourceCache.put("abcdef", data);
+		resourceCache.flush();
+		assertTrue(cacheDir.resolve("ab").resolve("abcdef").toFile().exists());
+		assertTrue(cacheDir.resolve("index").toFile().exists());
+
+		ResourceCache otherCache = new ResourceCache();
+		otherCache.init(cacheDir.toString(), null);
+		assertTrue(otherCache.contains("abcdef"));
+		assertArrayEquals(data, otherCache.get("abcdef"));
+
+		// the index should be rebuilt from the cached files if it is missing
+		Files.delete(cacheDir.resolve("index"));
+		otherCache = new ResourceCache();
+		otherCache.init(cacheDir.toString(), null);
+		assertTrue(otherCache.contains("abcdef"));
+
+		// resources removed from the cache directory are removed from the index
+		Files.delete(cacheDir.resolve("ab").resolve("abcdef"));
+		assertTrue(otherCache.get("abcdef") == null);
+		assertFalse(otherCache.contains("abcdef"));
+	}
+
+	// only files named like cache keys in shard directories should be indexed when
+	// rebuilding the index, and nothing but old cache entries should be removed
+	@Test
+	public void testRebuildIndexIgnoresOtherFiles() throws Exception {
+		resourceCache.init(cacheDir.toString(), null);
+		final byte[] data = "somedata".getBytes();
+		resourceCache.put("abcdef", data);
+		resourceCache.flush();
+		Files.delete(cacheDir.resolve("index"));
+
+		Path flatEntry = Files.write(cacheDir.resolve("123456"), data);
+		Path otherFile = Files.write(cacheDir.resolve("README.txt"), data);
+		Files.createDirectories(cacheDir.resolve("other"));
+		Path otherDirFile = Files.write(cacheDir.resolve("other").resolve("fedcba"), data);
+		Path misplacedEntry = Files.write(cacheDir.resolve("ab").resolve("fedcba"), data);
+		Path otherShardFile = Files.write(cacheDir.resolve("ab").resolve("notes.txt"), data);
+
+		ResourceCache otherCache = new ResourceCache();
+		otherCache.init(cacheDir.toString(), null);
+		otherCache.setMaxLocalCacheSize(1);
+		otherCache.put("12", data);
+		otherCache.flush();
+
+		assertFalse(flatEntry.toFile().exists());
+		assertTrue(otherFile.toFile().exists());
+		assertTrue(otherDirFile.toFile().exists());
+		assertTrue(misplacedEntry.toFile().exists());
+		assertTrue(otherShardFile.toFile().exists());
+		// evicting everything only removes the indexed entries
+		assertFalse(cacheDir.resolve("ab").resolve("abcdef").toFile().exists());
+		assertFalse(cacheDir.resolve("12").resolve("12").toFile().exists());
+	}
+
+	// the least recently used resources should be evicted when the cache is too large
+	@Test
+	public void testEviction() throws Exception {
+		resourceCache.init(cacheDir.toString(), null);
+		resourceCache.setMaxLocalCacheSize(250);
+		// random data to get entries of about the same size as the data
+		final byte[] data = new byte[100];
+		new java.util.Random(1234).nextBytes(data);
+		resourceCache.put("key1", data);
+		Thread.sleep(5);
+		resourceCache.put("key2", data);
+		Thread.sleep(5);
+		resourceCache.put("key3", data);
+		Thread.sleep(5);
+		// key1 is now the most recently used
+		resourceCache.get("key1");
+		resourceCache.flush();
+
+		assertTrue(resourceCache.contains("key1"));
+		assertFalse(resourceCache.contains("key2"));
+		assertTrue(resourceCache.contains("key3"));
+		assertFalse(cacheDir.resolve("ke").resolve("key2").toFile().exists());
+
+		// size is below the limit, nothing more is evicted
+		resourceCache.flush();
+		assertTrue(resourceCache.contains("key1"));
+		assertTrue(resourceCache.contains("key3"));
+	}
+
+	// caches of several processes sharing a directory should see each others resources
+	// and keep the shared cache below the max size
+	@Test
+	public void testSharedCacheDirectory() throws Exception {
+		ResourceCache cache1 = new ResourceCache();
+		ResourceCache cache2 = new ResourceCache();
+		cache1.init(cacheDir.toString(), null);
+		cache2.init(cacheDir.toString(), null);
+		final byte[] data = new byte[100];
+		new java.util.Random(1234).nextBytes(data);
+		cache1.put("key1", data);
+		Thread.sleep(5);
+		cache2.put("key2", data);
+		Thread.sleep(5);
+		cache1.put("key3", data);
+
+		// not in the index of the other cache but found in the directory
+		assertTrue(cache1.contains("key2"));
+		assertTrue(cache2.contains("key3"));
+
+		cache1.flush();
+		cache2.setMaxLocalCacheSize(250);
+		cache2.flush();
+		// the entries of both caches count towards the max size
+		assertFalse(cacheDir.resolve("ke").resolve("key1").toFile().exists());
+		assertTrue(cacheDir.resolve("ke").resolve("key2").toFile().exists());
+
+		// the saved index contains the entries of both caches
+		Files.delete(cacheDir.resolve("ke").resolve("key2"));
+		ResourceCache otherCache = new ResourceCache();
+		otherCache.init(cacheDir.toString(), null);
+		assertFalse(otherCache.contains("key1"));
+		assertTrue(otherCache.contains("key3"));
+		assertTrue(otherCache.get("key2") == null);
+	}
+
+	// compressible resources should be stored compressed and others as is
+	@Test
+	public void testCompression() throws Exception {
+		resourceCache.init(cacheDir.toString(), null);
+		final byte[] compressible = new byte[100000];
+		final byte[] incompressible = new byte[100000];
+		new java.util.Random(1234).nextBytes(incompressible);
+		resourceCache.put("compressible", compressible);
+		resourceCache.put("incompressible", incompressible);
+
+		assertTrue(cacheDir.resolve("co").resolve("compressible").toFile().length() < compressible.length / 10);
+		assertTrue(cacheDir.resolve("in").resolve("incompressible").toFile().length() > incompressible.length);
+		assertArrayEquals(compressible, resourceCache.get("compressible"));
+		assertArrayEquals(incompressible, resourceCache.get("incompressible"));
+
+		// uncompressed entries are returned as a file stream positioned at the resource
+		try (InputStream is = resourceCache.getStream("incompressible")) {
+			assertTrue(is instanceof FileInputStream);
+			assertEquals(8, ((FileInputStream) is).getChannel().position());
+		}
+	}
+
+	// entries in an unknown format should be treated as missing
+	@Test
+	public void testUnknownEntryFormat() throws Exception {
+		resourceCache.init(cacheDir.toString(), null);
+		resourceCache.put("somekey", "somedata".getBytes());
+		Path entry = cacheDir.resolve("so").resolve("somekey");
+		Files.write(entry, "somedata".getBytes());
+
+		assertTrue(resourceCache.get("somekey") == null);
+		assertFalse(resourceCache.contains("somekey"));
+		assertFalse(entry.toFile().exists());
+	}
+
 }
@@ -0,0 +1,157 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.font;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.PathIterator;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dynamo.bob.test.util.Benchmark;
+
+/**
+ * Benchmark of the distance field generation for font glyphs: the grid
+ * accelerated DistanceFieldGenerator.render compared to testing every line
+ * segment for every pixel (distSqr), as render did before. Also checks that
+ * both produce the same distances. Not run as part of the unit tests. Run with:
+ *
+ *   java -cp bob.jar:bob-tests.jar com.dynamo.bob.font.DistanceFieldGeneratorBenchmark font-file [size] [first-code-point] [glyph-count]
+ *
+ * Defaults to size 64 and the 94 printable ASCII characters. Use e.g. 0x4E00
+ * as first code point to benchmark CJK glyphs.
+ */
+public class DistanceFieldGeneratorBenchmark {
+
+    private static final int PADDING = 8;
+
+    private static class GlyphField {
+        DistanceFieldGenerator generator;
+        double x0;
+        double y0;
+        int width;
+        int height;
+    }
+
+    private static GlyphField createGlyphField(Shape outline) {
+        GlyphField glyph = new GlyphField();
+        glyph.generator = new DistanceFieldGenerator();
+        PathIterator pi = new FlatteningPathIterator(outline.getPathIterator(new AffineTransform()), Fontc.sdf_flatness);
+        double x = 0, y = 0, moveX = 0, moveY = 0;
+        double[] c = new double[6];
+        while (!pi.isDone()) {
+            switch (pi.currentSegment(c)) {
+                case PathIterator.SEG_MOVETO:
+                    x = moveX = c[0];
+                    y = moveY = c[1];
+                    break;
+                case PathIterator.SEG_LINETO:
+                    glyph.generator.addLine(x, y, c[0], c[1]);
+                    x = c[0];
+                    y = c[1];
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    glyph.generator.addLine(x, y, moveX, moveY);
+                    x = moveX;
+                    y = moveY;
+                    break;
+                default:
+                    break;
+            }
+            pi.next();
+        }
+        Rectangle bounds = outline.getBounds();
+        glyph.x0 = bounds.x - PADDING;
+        glyph.y0 = bounds.y - PADDING;
+        glyph.width = bounds.width + PADDING * 2;
+        glyph.height = bounds.height + PADDING * 2;
+        return glyph;
+    }
+
+    // What render did before, the closest of all line segments for every pixel
+    private static double[] bruteForce(GlyphField glyph) {
+        double[] output = new double[glyph.width * glyph.height];
+        int ofs = 0;
+        for (int y = 0; y < glyph.height; ++y) {
+            double py = glyph.y0 + y;
+            double px = glyph.x0;
+            for (int x = 0; x < glyph.width; ++x) {
+                output[ofs++] = Math.sqrt(glyph.generator.distSqr(px, py));
+                px += 1.0;
+            }
+        }
+        return output;
+    }
+
+    private static double[] render(GlyphField glyph) {
+        double[] output = new double[glyph.width * glyph.height];
+        glyph.generator.render(output, glyph.x0, glyph.y0, glyph.x0 + glyph.width, glyph.y0 + glyph.height, glyph.width, glyph.height);
+        return output;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 0) {
+            System.err.println("Usage: DistanceFieldGeneratorBenchmark font-file [size] [first-code-point] [glyph-count]");
+            System.exit(1);
+        }
+        float size = args.length > 1 ? Float.parseFloat(args[1]) : 64;
+        int first = args.length > 2 ? Integer.decode(args[2]) : 33;
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : 94;
+
+        Font font = Font.createFont(Font.TRUETYPE_FONT, new File(args[0])).deriveFont(Font.PLAIN, size);
+        FontRenderContext fontRendererContext = new FontRenderContext(new AffineTransform(), true, true);
+        List<GlyphField> glyphs = new ArrayList<>();
+        int pixels = 0;
+        for (int codePoint = first; codePoint < first + count; ++codePoint) {
+            if (!font.canDisplay(codePoint)) {
+                continue;
+            }
+            GlyphVector vector = font.createGlyphVector(fontRendererContext, new String(Character.toChars(codePoint)));
+            GlyphField glyph = createGlyphField(vector.getGlyphOutline(0));
+            glyphs.add(glyph);
+            pixels += glyph.width * glyph.height;
+        }
+
+        int mismatches = 0;
+        for (GlyphField glyph : glyphs) {
+            double[] expected = bruteForce(glyph);
+            double[] actual = render(glyph);
+            for (int i = 0; i < expected.length; ++i) {
+                if (expected[i] != actual[i]) {
+                    ++mismatches;
+                }
+            }
+        }
+
+        System.out.printf("%s, size %.0f: %d glyphs, %d pixels, %d mismatching distances%n", args[0], size, glyphs.size(), pixels, mismatches);
+        Benchmark.measure("brute force", () -> {
+            for (GlyphField glyph : glyphs) {
+                bruteForce(glyph);
+            }
+        });
+        Benchmark.measure("render", () -> {
+            for (GlyphField glyph : glyphs) {
+                render(glyph);
+            }
+        });
+    }
+}
@@ -0,0 +1,106 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.font;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.PathIterator;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class DistanceFieldGeneratorTest {
+
+    private static DistanceFieldGenerator createGenerator(Shape outline) {
+        DistanceFieldGenerator generator = new DistanceFieldGenerator();
+        PathIterator pi = new FlatteningPathIterator(outline.getPathIterator(new AffineTransform()), 0.1);
+        double x = 0, y = 0, moveX = 0, moveY = 0;
+        double[] c = new double[6];
+        while (!pi.isDone()) {
+            int segment = pi.currentSegment(c);
+            if (segment == PathIterator.SEG_MOVETO) {
+                x = moveX = c[0];
+                y = moveY = c[1];
+            } else if (segment == PathIterator.SEG_LINETO) {
+                generator.addLine(x, y, c[0], c[1]);
+                x = c[0];
+                y = c[1];
+            } else if (segment == PathIterator.SEG_CLOSE) {
+                generator.addLine(x, y, moveX, moveY);
+                x = moveX;
+                y = moveY;
+            }
+            pi.next();
+        }
+        return generator;
+    }
+
+    // render() must give exactly the distances of testing every segment
+    private void assertRenderMatchesDistSqr(DistanceFieldGenerator generator, double x0, double y0, int width, int height) {
+        double[] output = new double[width * height];
+        generator.render(output, x0, y0, x0 + width, y0 + height, width, height);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                assertEquals(Math.sqrt(generator.distSqr(x0 + x, y0 + y)), output[y * width + x], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testLines() throws Exception {
+        DistanceFieldGenerator generator = new DistanceFieldGenerator();
+        generator.addLine(0, 0, 10, 0);
+        generator.addLine(10, 0, 10, 10);
+        generator.addLine(10, 10, 0, 0);
+        assertRenderMatchesDistSqr(generator, -20, -20, 50, 50);
+
+        double[] output = new double[1];
+        generator.render(output, 5, -3, 6, -2, 1, 1);
+        assertEquals(3.0, output[0], 0.0);
+    }
+
+    @Test
+    public void testGlyphs() throws Exception {
+        Font font;
+        try (InputStream is = getClass().getResourceAsStream("/com/dynamo/bob/test/util/Tuffy.ttf")) {
+            font = Font.createFont(Font.TRUETYPE_FONT, is).deriveFont(Font.PLAIN, 48);
+        }
+        FontRenderContext fontRendererContext = new FontRenderContext(new AffineTransform(), true, true);
+        for (char c : "AgQ@&%".toCharArray()) {
+            Shape outline = font.createGlyphVector(fontRendererContext, String.valueOf(c)).getGlyphOutline(0);
+            Rectangle bounds = outline.getBounds();
+            assertRenderMatchesDistSqr(createGenerator(outline), bounds.x - 8, bounds.y - 8, bounds.width + 16, bounds.height + 16);
+        }
+    }
+
+    @Test
+    public void testManySegments() throws Exception {
+        // More segments than fit in the initial segment array
+        DistanceFieldGenerator generator = new DistanceFieldGenerator();
+        for (int i = 0; i < 10000; ++i) {
+            double a0 = 2 * Math.PI * i / 10000;
+            double a1 = 2 * Math.PI * (i + 1) / 10000;
+            double r = 20 + 5 * Math.sin(a0 * 30);
+            generator.addLine(32 + r * Math.cos(a0), 32 + r * Math.sin(a0), 32 + r * Math.cos(a1), 32 + r * Math.sin(a1));
+        }
+        assertRenderMatchesDistSqr(generator, 0, 0, 64, 64);
+    }
+}
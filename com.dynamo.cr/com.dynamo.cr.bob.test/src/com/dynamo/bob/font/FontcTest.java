@@ -0,0 +1,285 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.font;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.awt.RenderingHints;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import org.junit.Test;
+
+import com.dynamo.bob.Project;
+import com.dynamo.render.proto.Font.FontDesc;
+import com.dynamo.render.proto.Font.FontTextureFormat;
+import com.dynamo.render.proto.Font.GlyphBank;
+
+public class FontcTest {
+
+    private static final String CHARACTERS = "AgQ@&%ij";
+
+    private static float edgeLimit(float width, float spread) {
+        return (width / spread) * (1.0f - Fontc.sdf_edge) + Fontc.sdf_edge;
+    }
+
+    // The distance field of a glyph computed with Shape.contains for every
+    // pixel and written with setRGB, like Fontc did before classifying the
+    // pixels per scanline and writing the raster directly
+    private static BufferedImage makeReferenceDistanceField(Fontc.Glyph glyph, FontDesc fontDesc, GlyphBank glyphBank) {
+        int padding = fontDesc.getShadowBlur() + (int)fontDesc.getOutlineWidth() + 1;
+        float sdfSpread = 1.4142f + fontDesc.getOutlineWidth();
+        float sdfShadowSpread = 1.4142f + (float)fontDesc.getShadowBlur();
+        float sdfOutline = glyphBank.getSdfOutline();
+
+        int width = glyph.width + padding * 2;
+        int height = glyph.ascent + glyph.descent + padding * 2;
+
+        Shape sh = glyph.vector.getGlyphOutline(0);
+        PathIterator pi = new FlatteningPathIterator(sh.getPathIterator(new AffineTransform()), Fontc.sdf_flatness);
+        DistanceFieldGenerator df = new DistanceFieldGenerator();
+        double x = 0, y = 0, moveX = 0, moveY = 0;
+        double[] c = new double[6];
+        while (!pi.isDone()) {
+            int segment = pi.currentSegment(c);
+            if (segment == PathIterator.SEG_MOVETO) {
+                x = moveX = c[0];
+                y = moveY = c[1];
+            } else if (segment == PathIterator.SEG_LINETO) {
+                df.addLine(x, y, c[0], c[1]);
+                x = c[0];
+                y = c[1];
+            } else if (segment == PathIterator.SEG_CLOSE) {
+                df.addLine(x, y, moveX, moveY);
+                x = moveX;
+                y = moveY;
+            }
+            pi.next();
+        }
+
+        double u0 = glyph.leftBearing - padding;
+        double v0 = -(glyph.ascent + padding);
+        double u1 = u0 + width;
+        double v1 = v0 + height;
+        double[] distanceData = new double[width * height];
+        df.render(distanceData, u0, v0, u1, v1, width, height);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int v = 0; v < height; v++) {
+            for (int u = 0; u < width; u++) {
+                double gx = u0 + (1 / (double)width) * u * (u1 - u0);
+                double gy = v0 + (1 / (double)height) * v * (v1 - v0);
+                double distanceToEdge = distanceData[v * width + u];
+                double distanceToBorder = -(distanceToEdge - fontDesc.getOutlineWidth());
+                if (!sh.contains(gx, gy)) {
+                    distanceToEdge = -distanceToEdge;
+                }
+                float distanceToEdgeNormalized = edgeLimit((float)distanceToEdge, sdfSpread);
+                int outlineChannel = Math.max(0, Math.min(255, (int)(255.0f * distanceToEdgeNormalized)));
+                if (distanceToEdgeNormalized > sdfOutline) {
+                    distanceToBorder = Fontc.sdf_edge;
+                }
+                float distanceToBorderNormalized = edgeLimit((float)distanceToBorder, sdfShadowSpread);
+                int shadowChannel = Math.max(0, Math.min(255, (int)(255.0f * distanceToBorderNormalized)));
+                image.setRGB(u, v, 0x010000 * outlineChannel | 0x000001 * shadowChannel);
+            }
+        }
+
+        if (fontDesc.getShadowAlpha() > 0.0f && fontDesc.getShadowBlur() > 0) {
+            float[] kernelData = {
+                    0.0625f, 0.1250f, 0.0625f,
+                    0.1250f, 0.2500f, 0.1250f,
+                    0.0625f, 0.1250f, 0.0625f
+            };
+            RenderingHints hints = new RenderingHints(null);
+            hints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+            hints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
+            ConvolveOp shadowConvolve = new ConvolveOp(new Kernel(3, 3, kernelData), ConvolveOp.EDGE_NO_OP, hints);
+
+            BufferedImage blurredShadowImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            blurredShadowImage.getRaster().setRect(image.getRaster());
+            BufferedImage tmp = blurredShadowImage.getSubimage(0, 0, width, height);
+            shadowConvolve.filter(tmp, blurredShadowImage);
+            for (int v = 0; v < height; v++) {
+                for (int u = 0; u < width; u++) {
+                    image.setRGB(u, v, image.getRGB(u, v) & 0xFFFF00 | blurredShadowImage.getRGB(u, v) & 0xFF);
+                }
+            }
+        }
+        return image;
+    }
+
+    private void assertDistanceFieldGlyphs(FontDesc fontDesc) throws Exception {
+        Fontc fontc = new Fontc();
+        try (InputStream is = getClass().getResourceAsStream("/com/dynamo/bob/test/util/Tuffy.ttf")) {
+            fontc.compile(is, fontDesc, true, new Fontc.FontResourceResolver() {
+                @Override
+                public InputStream getResource(String resourceName) throws FileNotFoundException {
+                    throw new FileNotFoundException(resourceName);
+                }
+            });
+        }
+        GlyphBank glyphBank = fontc.getGlyphBank();
+
+        int checked = 0;
+        for (Fontc.Glyph glyph : fontc.getGlyphs()) {
+            if (CHARACTERS.indexOf(glyph.c) < 0) {
+                continue;
+            }
+            BufferedImage expected = makeReferenceDistanceField(glyph, fontDesc, glyphBank);
+            assertEquals(expected.getWidth(), glyph.image.getWidth());
+            assertEquals(expected.getHeight(), glyph.image.getHeight());
+            for (int y = 0; y < expected.getHeight(); ++y) {
+                for (int x = 0; x < expected.getWidth(); ++x) {
+                    assertEquals(String.format("'%c' at %d,%d", glyph.c, x, y), expected.getRGB(x, y), glyph.image.getRGB(x, y));
+                }
+            }
+            ++checked;
+        }
+        assertEquals(CHARACTERS.length(), checked);
+    }
+
+    private GlyphBank compileGlyphBank(FontDesc fontDesc) throws Exception {
+        Fontc fontc = new Fontc();
+        try (InputStream is = getClass().getResourceAsStream("/com/dynamo/bob/test/util/" + fontDesc.getFont())) {
+            fontc.compile(is, fontDesc, false, new Fontc.FontResourceResolver() {
+                @Override
+                public InputStream getResource(String resourceName) throws FileNotFoundException {
+                    InputStream resource = FontcTest.class.getResourceAsStream("/com/dynamo/bob/test/util/" + resourceName);
+                    if (resource == null) {
+                        throw new FileNotFoundException(resourceName);
+                    }
+                    return resource;
+                }
+            });
+        }
+        return fontc.getGlyphBank();
+    }
+
+    // Compile the font with one and with several glyph rendering threads and
+    // compare the glyph bank, i.e. the glyph data and the offset and size of
+    // each glyph in it, with a digest recorded before glyphs were rendered in
+    // parallel
+    private void assertGlyphBank(FontDesc fontDesc, int channels, int glyphDataSize, String digest) throws Exception {
+        try {
+            for (int maxThreads : new int[] { 1, 4 }) {
+                Fontc.setMaxThreads(maxThreads);
+                GlyphBank glyphBank = compileGlyphBank(fontDesc);
+                assertEquals(channels, glyphBank.getGlyphChannels());
+                assertEquals(glyphDataSize, glyphBank.getGlyphData().size());
+                byte[] sha1 = MessageDigest.getInstance("SHA1").digest(glyphBank.toByteArray());
+                assertEquals(digest, String.format("%040x", new BigInteger(1, sha1)));
+            }
+        } finally {
+            Fontc.setMaxThreads(Project.getDefaultMaxCpuThreads());
+        }
+    }
+
+    @Test
+    public void testGlyphBankBitmap() throws Exception {
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutputFormat(FontTextureFormat.TYPE_BITMAP)
+            .build();
+        assertGlyphBank(fontDesc, 1, 12409, "b55393822c3c4855645a0b90d8c00730bdb6ce93");
+    }
+
+    @Test
+    public void testGlyphBankBitmapWithOutline() throws Exception {
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutlineWidth(2)
+            .setOutlineAlpha(1.0f)
+            .setOutputFormat(FontTextureFormat.TYPE_BITMAP)
+            .build();
+        assertGlyphBank(fontDesc, 3, 36792, "1185314ed9fae643f8cadf230d68fc859e970315");
+    }
+
+    @Test
+    public void testGlyphBankBMFont() throws Exception {
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("bmfont.fnt")
+            .setMaterial("font.material")
+            .setSize(32)
+            .setOutputFormat(FontTextureFormat.TYPE_BITMAP)
+            .build();
+        assertGlyphBank(fontDesc, 4, 362679, "99e9ef7c2e2070e427022b5e564c7ea86d9f2fef");
+    }
+
+    @Test
+    public void testGlyphBankDistanceField() throws Exception {
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutlineWidth(2)
+            .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+            .build();
+        assertGlyphBank(fontDesc, 1, 27379, "058853602665c48f8f7945ecdeb5ff656212bf97");
+    }
+
+    @Test
+    public void testGlyphBankDistanceFieldWithShadow() throws Exception {
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutlineWidth(1)
+            .setShadowAlpha(1.0f)
+            .setShadowBlur(2)
+            .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+            .build();
+        assertGlyphBank(fontDesc, 3, 116516, "0a10010ff399ab55b893cbbddebdc612cee6e222");
+    }
+
+    @Test
+    public void testDistanceField() throws Exception {
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(48)
+            .setOutlineWidth(2)
+            .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+            .build();
+        assertDistanceFieldGlyphs(fontDesc);
+    }
+
+    @Test
+    public void testDistanceFieldWithShadow() throws Exception {
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(32)
+            .setOutlineWidth(1)
+            .setShadowAlpha(1.0f)
+            .setShadowBlur(3)
+            .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+            .build();
+        assertDistanceFieldGlyphs(fontDesc);
+    }
+}
@@ -14,13 +14,27 @@
 
 package com.dynamo.bob.fs.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -29,8 +43,10 @@ import org.junit.Test;
 
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.fs.FileSystemWalker;
+import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.IFileSystem.IWalker;
 import com.dynamo.bob.test.TestLibrariesRule;
+import com.dynamo.bob.test.util.MockFileSystem;
 
 public class FileSystemTest {
 
@@ -62,6 +78,203 @@ public class FileSystemTest {
         assertTrue(results.contains("test_lib4.zip"));
     }
 
+    @Test
+    public void testSha1DigestCache() throws Exception {
+        File root = Files.createTempDirectory("defold_").toFile();
+        try {
+            DefaultFileSystem fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+            new File(root, "build").mkdirs();
+
+            // larger than the read buffer to cover reading in chunks
+            byte[] content = new byte[1024 * 1024 + 17];
+            new Random(0).nextBytes(content);
+            IResource resource = fs.get("data.bin");
+            resource.setContent(content);
+            byte[] expected = MessageDigest.getInstance("SHA1").digest(content);
+            assertArrayEquals(expected, resource.sha1());
+            fs.saveCache();
+
+            DefaultFileSystem fs2 = new DefaultFileSystem();
+            fs2.setRootDirectory(root.getAbsolutePath());
+            fs2.setBuildDirectory("build");
+            fs2.loadCache();
+            assertArrayEquals(expected, fs2.get("data.bin").sha1());
+
+            // changing the size invalidates the cached digest even if the modification time is kept
+            long lastModified = new File(resource.getAbsPath()).lastModified();
+            byte[] changed = new byte[] { 1, 2, 3 };
+            fs2.get("data.bin").setContent(changed);
+            new File(resource.getAbsPath()).setLastModified(lastModified);
+            assertArrayEquals(MessageDigest.getInstance("SHA1").digest(changed), fs2.get("data.bin").sha1());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    // write a body, then go back and fill in a header with the body size,
+    // the way the archive index is written
+    private void writeWithHeader(IResource resource, byte[] body) throws Exception {
+        try (SeekableByteChannel channel = resource.openOutputChannel()) {
+            channel.write(ByteBuffer.allocate(4));
+            channel.write(ByteBuffer.wrap(body));
+            channel.position(0);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            assertEquals(4, channel.read(header));
+            assertEquals(0, header.getInt(0));
+            channel.position(0);
+            header.clear();
+            header.putInt(0, body.length);
+            channel.write(header);
+            assertEquals(4 + body.length, channel.size());
+        }
+    }
+
+    private static byte[] withHeader(byte[] body) {
+        return ByteBuffer.allocate(4 + body.length).putInt(body.length).put(body).array();
+    }
+
+    @Test
+    public void testOpenOutputChannel() throws Exception {
+        File root = Files.createTempDirectory("defold_").toFile();
+        try {
+            DefaultFileSystem fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+
+            byte[] body = new byte[64 * 1024 + 3];
+            new Random(0).nextBytes(body);
+            IResource resource = fs.get("build/data.bin");
+            resource.setContent(new byte[1024 * 1024]);
+            // existing content is discarded
+            writeWithHeader(resource, body);
+            assertArrayEquals(withHeader(body), resource.getContent());
+
+            MockFileSystem mockFs = new MockFileSystem();
+            IResource mockResource = mockFs.get("build/data.bin");
+            writeWithHeader(mockResource, body);
+            assertArrayEquals(withHeader(body), mockResource.getContent());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testSetContentFromFileStream() throws Exception {
+        File root = Files.createTempDirectory("defold_").toFile();
+        try {
+            DefaultFileSystem fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+
+            byte[] content = new byte[1024 * 1024 + 17];
+            new Random(0).nextBytes(content);
+            File source = new File(root, "source.bin");
+            FileUtils.writeByteArrayToFile(source, content);
+
+            // only the rest of a partially read file stream is copied
+            FileInputStream is = new FileInputStream(source);
+            is.skip(17);
+            IResource resource = fs.get("build/data.bin");
+            resource.setContent(is);
+            assertArrayEquals(Arrays.copyOfRange(content, 17, content.length), resource.getContent());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testInternedResources() throws Exception {
+        File root = Files.createTempDirectory("defold_").toFile();
+        try {
+            DefaultFileSystem fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+
+            IResource resource = fs.get("main/main.script");
+            assertSame(resource, fs.get("/main/main.script"));
+            assertFalse(resource.isOutput());
+
+            IResource output = resource.output();
+            assertEquals("build/main/main.script", output.getPath());
+            assertTrue(output.isOutput());
+            assertSame(output, fs.get("build/main/main.script"));
+            assertSame(output, resource.output());
+            assertSame(output, output.output());
+
+            IResource changed = resource.changeExt(".scriptc");
+            assertEquals("build/main/main.scriptc", changed.getPath());
+            assertSame(changed, resource.changeExt(".scriptc"));
+            assertEquals("build/main/main.luac", resource.changeExt(".luac").getPath());
+            assertFalse(fs.get("buildx/main.script").isOutput());
+
+            // changing the directories creates new resources
+            fs.setBuildDirectory("build2");
+            assertNotSame(resource, fs.get("main/main.script"));
+            assertEquals("build2/main/main.script", fs.get("main/main.script").output().getPath());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testWalkDirectories() throws Exception {
+        File root = Files.createTempDirectory("defold_").toFile();
+        try {
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < 10; ++i) {
+                for (int j = 0; j < 10; ++j) {
+                    String path = String.format("dir%d/sub%d/file.txt", i, j);
+                    FileUtils.writeStringToFile(new File(root, path), path, "UTF-8");
+                    expected.add(path);
+                    FileUtils.writeStringToFile(new File(root, "skip/" + path), path, "UTF-8");
+                }
+            }
+
+            DefaultFileSystem fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            IWalker walker = new FileSystemWalker() {
+                @Override
+                public boolean handleDirectory(String path, Collection<String> results) {
+                    return !FilenameUtils.separatorsToUnix(path).equals("skip");
+                }
+
+                @Override
+                public void handleFile(String path, Collection<String> results) {
+                    results.add(FilenameUtils.separatorsToUnix(path));
+                }
+            };
+            List<String> results = new ArrayList<String>();
+            fs.walk("", walker, results);
+            List<String> sorted = new ArrayList<String>(results);
+            Collections.sort(sorted);
+            assertEquals(expected, sorted);
+
+            // the files of a directory are listed together
+            for (int i = 0; i < results.size(); i += 10) {
+                String dir = results.get(i).substring(0, results.get(i).indexOf('/'));
+                for (int j = 1; j < 10; ++j) {
+                    assertTrue(results.get(i + j).startsWith(dir + "/"));
+                }
+            }
+
+            List<String> subResults = new ArrayList<String>();
+            fs.walk("dir3", walker, subResults);
+            assertEquals(10, subResults.size());
+            assertTrue(subResults.contains("dir3/sub7/file.txt"));
+
+            // same result walking with a single thread
+            fs.setMaxWalkThreads(1);
+            List<String> singleThreadResults = new ArrayList<String>();
+            fs.walk("", walker, singleThreadResults);
+            assertEquals(results, singleThreadResults);
+            fs.close();
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
     private static class ZipWalker extends FileSystemWalker {
         @Override
         public void handleFile(String path, Collection<String> results) {
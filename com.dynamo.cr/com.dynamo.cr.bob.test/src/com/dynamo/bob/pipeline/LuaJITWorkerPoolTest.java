@@ -0,0 +1,172 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
+
+public class LuaJITWorkerPoolTest {
+
+    private static final String[] SCRIPTS = {
+        "function foo() print('foo') end",
+        "local M = {}\n\nfunction M.add(a, b)\n    return a + b\nend\n\nreturn M\n",
+        "go.property(\"speed\", 10)\n\nfunction init(self)\n    self.t = { 1, 2.5, \"three\", x = vmath.vector3() }\nend\n\nfunction update(self, dt)\n    for i, v in ipairs(self.t) do\n        if v == 2.5 then break end\n    end\nend\n",
+        "",
+    };
+
+    private String exe;
+    private Map<String, String> env;
+
+    @Before
+    public void setUp() throws IOException {
+        Bob.initLua();
+        exe = Bob.getExe(Platform.getHostPlatform(), "luajit-64");
+        env = new HashMap<String, String>();
+        env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+        LuaJITWorkerPool.shutdownAll();
+    }
+
+    @After
+    public void tearDown() {
+        LuaJITWorkerPool.shutdownAll();
+    }
+
+    private static class ProcessResult {
+        byte[] bytecode;
+        String output;
+    }
+
+    // Compile the same way as LuaBuilder does without a worker, running
+    // luajit once for the script
+    private ProcessResult compileWithProcess(String chunkName, String source) throws Exception {
+        File inputFile = File.createTempFile("script", ".lua");
+        File outputFile = File.createTempFile("script", ".raw");
+        try {
+            Files.write(inputFile.toPath(), source.getBytes());
+            List<String> options = new ArrayList<String>();
+            options.add(exe);
+            options.add("-b");
+            options.add("-g");
+            options.add("-F"); options.add(chunkName);
+            options.add(inputFile.getAbsolutePath());
+            options.add(outputFile.getAbsolutePath());
+
+            ProcessBuilder pb = new ProcessBuilder(options).redirectErrorStream(true);
+            pb.environment().putAll(env);
+            Process p = pb.start();
+            ProcessResult result = new ProcessResult();
+            result.output = new String(IOUtils.toByteArray(p.getInputStream()));
+            if (p.waitFor() == 0) {
+                result.bytecode = Files.readAllBytes(outputFile.toPath());
+            }
+            return result;
+        } finally {
+            inputFile.delete();
+            outputFile.delete();
+        }
+    }
+
+    // "luajit: <chunk name>:<line>: <message>" -> "<line>: <message>", as
+    // LuaBuilder reports it
+    private static String lineAndMessage(String output) {
+        int execSep = output.indexOf(':');
+        int lineBegin = output.indexOf(':', execSep + 1);
+        assertTrue(execSep > 0 && lineBegin > 0);
+        return output.substring(lineBegin + 1).trim();
+    }
+
+    @Test
+    public void testSameBytecodeAsProcess() throws Exception {
+        LuaJITWorkerPool pool = LuaJITWorkerPool.get(exe, env, 2);
+        for (int i = 0; i < SCRIPTS.length; ++i) {
+            String chunkName = "/main/test" + i + ".script";
+            ProcessResult expected = compileWithProcess(chunkName, SCRIPTS[i]);
+            assertNotNull(expected.output, expected.bytecode);
+
+            LuaJITWorkerPool.Result result = pool.compile(chunkName, SCRIPTS[i].getBytes());
+            assertNull(result.error);
+            assertArrayEquals(expected.bytecode, result.bytecode);
+        }
+    }
+
+    @Test
+    public void testSameErrorAsProcess() throws Exception {
+        LuaJITWorkerPool pool = LuaJITWorkerPool.get(exe, env, 1);
+        String chunkName = "/main/broken.script";
+        String source = "function init(self)\n    local x = \nend\n";
+        ProcessResult expected = compileWithProcess(chunkName, source);
+        assertNull(expected.bytecode);
+
+        LuaJITWorkerPool.Result result = pool.compile(chunkName, source.getBytes());
+        assertNull(result.bytecode);
+        assertNotNull(result.error);
+        assertEquals(lineAndMessage(expected.output), lineAndMessage(result.error));
+        assertTrue(lineAndMessage(result.error).startsWith("3:"));
+
+        // the worker is still usable after a compile error
+        result = pool.compile("/main/test.script", SCRIPTS[0].getBytes());
+        assertArrayEquals(compileWithProcess("/main/test.script", SCRIPTS[0]).bytecode, result.bytecode);
+    }
+
+    @Test
+    public void testDeadWorker() throws Exception {
+        LuaJITWorkerPool pool = LuaJITWorkerPool.get(exe, env, 1);
+        byte[] expected = pool.compile("/main/test.script", SCRIPTS[1].getBytes()).bytecode;
+
+        pool.killWorkers();
+        try {
+            pool.compile("/main/test.script", SCRIPTS[1].getBytes());
+            fail("Expected the dead worker to fail");
+        } catch (IOException e) {
+        }
+
+        // the dead worker is replaced by a new one
+        assertFalse(pool.isDisabled());
+        assertArrayEquals(expected, pool.compile("/main/test.script", SCRIPTS[1].getBytes()).bytecode);
+    }
+
+    @Test
+    public void testWorkerFailsToStart() throws Exception {
+        LuaJITWorkerPool pool = LuaJITWorkerPool.get(new File(exe).getParent() + "/missing-luajit", env, 1);
+        try {
+            pool.compile("/main/test.script", SCRIPTS[0].getBytes());
+            fail("Expected the worker to fail");
+        } catch (IOException e) {
+        }
+        // LuaBuilder runs luajit once per script when the pool is disabled
+        assertTrue(pool.isDisabled());
+    }
+}
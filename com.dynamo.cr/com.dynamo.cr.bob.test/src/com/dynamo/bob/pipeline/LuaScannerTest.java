@@ -15,20 +15,28 @@
 package com.dynamo.bob.pipeline;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.List;
 
 import javax.vecmath.Quat4d;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4d;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import com.dynamo.bob.archive.EngineVersion;
 import com.dynamo.bob.pipeline.LuaScanner.Property;
 import com.dynamo.bob.pipeline.LuaScanner.Property.Status;
 
@@ -507,4 +515,91 @@ public class LuaScannerTest {
         expected = "  ";
         assertEquals(expected, scanner.getParsedLua());
     }
+
+    private void assertSameResult(LuaScanner expected, LuaScanner actual) {
+        assertEquals(expected.getParsedLua(), actual.getParsedLua());
+        assertEquals(expected.getModules(), actual.getModules());
+        assertEquals(expected.getProperties().size(), actual.getProperties().size());
+        for (int i = 0; i < expected.getProperties().size(); ++i) {
+            Property e = expected.getProperties().get(i);
+            Property a = actual.getProperties().get(i);
+            assertEquals(e.name, a.name);
+            assertEquals(e.type, a.type);
+            assertEquals(e.value, a.value);
+            assertEquals(e.line, a.line);
+            assertEquals(e.status, a.status);
+            assertEquals(e.isResource, a.isResource);
+        }
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        String[] files = { "test_scanner.lua", "test_props.lua", "test_props_number.lua", "test_props_hash.lua",
+            "test_props_url.lua", "test_props_vec3.lua", "test_props_vec4.lua", "test_props_quat.lua",
+            "test_props_bool.lua", "test_props_material.lua" };
+        for (String file : files) {
+            LuaScanner scanner = new LuaScanner();
+            scanner.parse(getFile(file));
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            scanner.write(new DataOutputStream(output));
+            LuaScanner restored = LuaScanner.read(new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+            assertSameResult(scanner, restored);
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        File cacheDir = Files.createTempDirectory(null).toFile();
+        try {
+            String source = getFile("test_props_vec3.lua");
+            LuaScannerCache cache = new LuaScannerCache(cacheDir);
+            LuaScanner parsed = cache.get(source);
+
+            String key = LuaScannerCache.calculateKey(source);
+            File entry = new File(new File(new File(cacheDir, EngineVersion.sha1), key.substring(0, 2)), key);
+            assertTrue(entry.exists());
+
+            // read from the cache directory by a new cache instance
+            LuaScanner cached = new LuaScannerCache(cacheDir).get(source);
+            assertSameResult(parsed, cached);
+
+            // invalid entries are parsed again and replaced
+            FileUtils.writeByteArrayToFile(entry, new byte[] { 1, 2, 3 });
+            assertSameResult(parsed, new LuaScannerCache(cacheDir).get(source));
+            assertTrue(entry.length() > 3);
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testCachePrune() throws Exception {
+        File cacheDir = Files.createTempDirectory(null).toFile();
+        try {
+            File otherVersion = new File(cacheDir, "0123456789abcdef/ab/abcd");
+            FileUtils.writeByteArrayToFile(otherVersion, new byte[] { 1, 2, 3 });
+
+            LuaScannerCache cache = new LuaScannerCache(cacheDir);
+            String[] sources = new String[] { "local a = 1", "local b = 2", "local c = 3" };
+            File[] entries = new File[sources.length];
+            for (int i = 0; i < sources.length; ++i) {
+                cache.get(sources[i]);
+                String key = LuaScannerCache.calculateKey(sources[i]);
+                entries[i] = new File(new File(new File(cacheDir, EngineVersion.sha1), key.substring(0, 2)), key);
+                entries[i].setLastModified(1000000000000L + i * 1000);
+            }
+            // a hit is the latest use
+            cache.get(sources[0]);
+
+            long size = entries[0].length() + entries[1].length() + entries[2].length();
+            LuaScannerCache.prune(cacheDir, size - 1, size - entries[1].length());
+            assertFalse(otherVersion.getParentFile().getParentFile().exists());
+            assertTrue(entries[0].exists());
+            assertFalse(entries[1].exists());
+            assertTrue(entries[2].exists());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
 }
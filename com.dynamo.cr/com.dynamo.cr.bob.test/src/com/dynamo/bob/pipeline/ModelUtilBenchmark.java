@@ -0,0 +1,97 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import com.dynamo.bob.test.util.Benchmark;
+import com.dynamo.rig.proto.Rig;
+
+/**
+ * Benchmark of converting a large mesh from the model importer to a Rig.Mesh:
+ * adding boxed lists of the vertex attributes to the mesh builder, as
+ * ModelUtil.loadMesh did before, compared to ModelUtil.loadMesh. Reports time
+ * and allocated bytes per mesh. Not run as part of the unit tests. Run with:
+ *
+ *   java -cp bob.jar:bob-tests.jar com.dynamo.bob.pipeline.ModelUtilBenchmark [vertex-count]
+ *
+ * Defaults to 1000000 vertices.
+ */
+public class ModelUtilBenchmark {
+
+    private static List<Float> toList(float[] array) {
+        return Arrays.asList(ArrayUtils.toObject(array));
+    }
+
+    // What ModelUtil.loadMesh did before, apart from the indices and material
+    private static Rig.Mesh boxed(ModelImporter.Mesh mesh) {
+        Rig.Mesh.Builder meshBuilder = Rig.Mesh.newBuilder();
+        meshBuilder.addAllPositions(toList(mesh.positions));
+        meshBuilder.addAllNormals(toList(mesh.normals));
+        meshBuilder.addAllTangents(toList(mesh.tangents));
+        meshBuilder.addAllColors(toList(mesh.colors));
+        List<Float> weights_list = new ArrayList<Float>(mesh.weights.length);
+        for (int i = 0; i < mesh.weights.length; ++i) {
+            weights_list.add(mesh.weights[i]);
+        }
+        meshBuilder.addAllWeights(weights_list);
+        meshBuilder.addAllBoneIndices(()->Arrays.stream(mesh.bones).iterator());
+        meshBuilder.addAllTexcoord0(toList(mesh.texCoords0));
+        return meshBuilder.buildPartial();
+    }
+
+    private static float[] createFloats(int count) {
+        float[] values = new float[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = (float)Math.sin(i * 0.01);
+        }
+        return values;
+    }
+
+    private static ModelImporter.Mesh createMesh(int vertexCount) {
+        ModelImporter.Mesh mesh = new ModelImporter.Mesh();
+        mesh.aabb = new ModelImporter.Aabb();
+        mesh.positions = createFloats(vertexCount * 3);
+        mesh.normals = createFloats(vertexCount * 3);
+        mesh.tangents = createFloats(vertexCount * 3);
+        mesh.colors = createFloats(vertexCount * 4);
+        mesh.weights = createFloats(vertexCount * 4);
+        mesh.bones = new int[vertexCount * 4];
+        for (int i = 0; i < mesh.bones.length; ++i) {
+            mesh.bones[i] = i % 64;
+        }
+        mesh.texCoords0 = createFloats(vertexCount * 2);
+        mesh.texCoords0NumComponents = 2;
+        mesh.indices = new int[vertexCount];
+        for (int i = 0; i < vertexCount; ++i) {
+            mesh.indices[i] = i;
+        }
+        mesh.vertexCount = vertexCount;
+        mesh.indexCount = vertexCount;
+        return mesh;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int vertexCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        ModelImporter.Mesh mesh = createMesh(vertexCount);
+        System.out.printf("%d vertices:%n", vertexCount);
+        Benchmark.measure("boxed", () -> boxed(mesh));
+        Benchmark.measure("loadMesh", () -> ModelUtil.loadMesh(mesh));
+    }
+}
@@ -16,6 +16,8 @@ package com.dynamo.bob.pipeline;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -39,6 +41,7 @@ import javax.vecmath.Tuple4i;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4f;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import com.dynamo.bob.util.MathUtil;
@@ -491,4 +494,87 @@ public class ModelUtilTest {
         ModelImporter.Scene scene = loadBuiltScene("broken.gltf", meshSetBuilder, animSetBuilder, skeletonBuilder);
         assertTrue(scene == null);
     }
+
+    /*
+     * Tests that a model file is imported once while its scene is in use or cached
+     */
+    @Test
+    public void testSharedScene() throws Exception {
+        String path = "bend2bones.gltf";
+        byte[] content = IOUtils.toByteArray(getClass().getResourceAsStream(path));
+        ModelImporter.DataResolver dataResolver = new ModelImporter.FileDataResolver(new File("."));
+
+        ModelImporter.Scene scene1 = ModelUtil.loadSharedScene(content, path, dataResolver);
+        ModelImporter.Scene scene2 = ModelUtil.loadSharedScene(content, path, dataResolver);
+        assertSame(scene1, scene2);
+        ModelUtil.unloadScene(scene1);
+        ModelUtil.unloadScene(scene2);
+
+        // Kept for later builders until the cache is cleared
+        ModelImporter.Scene scene3 = ModelUtil.loadSharedScene(content, path, dataResolver);
+        assertSame(scene1, scene3);
+        ModelUtil.unloadScene(scene3);
+
+        ModelSceneCache.clear();
+        ModelImporter.Scene scene4 = ModelUtil.loadSharedScene(content, path, dataResolver);
+        assertNotSame(scene1, scene4);
+        ModelUtil.unloadScene(scene4);
+        ModelSceneCache.clear();
+    }
+
+    private static float[] createFloats(int count, int seed) {
+        float[] values = new float[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = (float)Math.sin(seed + i * 0.1);
+        }
+        return values;
+    }
+
+    /*
+     * Tests that the vertex streams of a mesh are converted as when adding them one value at a time
+     */
+    @Test
+    public void testLoadMeshVertexStreams() throws Exception {
+        int vertexCount = 1000;
+        ModelImporter.Mesh mesh = new ModelImporter.Mesh();
+        mesh.aabb = new ModelImporter.Aabb();
+        mesh.positions = createFloats(vertexCount * 3, 1);
+        mesh.normals = createFloats(vertexCount * 3, 2);
+        mesh.tangents = createFloats(vertexCount * 3, 3);
+        mesh.colors = createFloats(vertexCount * 4, 4);
+        mesh.weights = createFloats(vertexCount * 4, 5);
+        mesh.bones = new int[vertexCount * 4];
+        for (int i = 0; i < mesh.bones.length; ++i) {
+            mesh.bones[i] = i % 300;
+        }
+        mesh.texCoords0 = createFloats(vertexCount * 2, 6);
+        mesh.texCoords0NumComponents = 2;
+        mesh.indices = new int[vertexCount];
+        for (int i = 0; i < vertexCount; ++i) {
+            mesh.indices[i] = i;
+        }
+        mesh.vertexCount = vertexCount;
+        mesh.indexCount = vertexCount;
+
+        Rig.Mesh.Builder expected = Rig.Mesh.newBuilder();
+        for (float v : mesh.positions) expected.addPositions(v);
+        for (float v : mesh.normals) expected.addNormals(v);
+        for (float v : mesh.tangents) expected.addTangents(v);
+        for (float v : mesh.colors) expected.addColors(v);
+        for (float v : mesh.weights) expected.addWeights(v);
+        for (int v : mesh.bones) expected.addBoneIndices(v);
+        for (float v : mesh.texCoords0) expected.addTexcoord0(v);
+
+        Rig.Mesh actual = ModelUtil.loadMesh(mesh);
+        assertEquals(expected.getPositionsList(), actual.getPositionsList());
+        assertEquals(expected.getNormalsList(), actual.getNormalsList());
+        assertEquals(expected.getTangentsList(), actual.getTangentsList());
+        assertEquals(expected.getColorsList(), actual.getColorsList());
+        assertEquals(expected.getWeightsList(), actual.getWeightsList());
+        assertEquals(expected.getBoneIndicesList(), actual.getBoneIndicesList());
+        assertEquals(expected.getTexcoord0List(), actual.getTexcoord0List());
+        assertEquals(0, actual.getTexcoord1Count());
+        assertEquals(2, actual.getNumTexcoord0Components());
+        assertEquals(vertexCount * 2, actual.getIndices().size());
+    }
 }
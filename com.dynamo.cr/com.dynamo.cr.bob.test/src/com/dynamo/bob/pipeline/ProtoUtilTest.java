@@ -0,0 +1,86 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+import com.dynamo.proto.DdfMath.Point3;
+
+public class ProtoUtilTest {
+
+    private MockFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new MockFileSystem();
+        ProtoUtil.clearCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ProtoUtil.clearCache();
+    }
+
+    private Point3 merge(IResource resource, Point3.Builder builder) throws Exception {
+        ProtoUtil.merge(resource, builder);
+        return builder.build();
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        IResource resource = fileSystem.addFile("/point.txt", "x: 1.0 y: 2.0".getBytes());
+        assertEquals(Point3.newBuilder().setX(1.0f).setY(2.0f).build(), merge(resource, Point3.newBuilder()));
+        // parsed once, merged again
+        assertEquals(Point3.newBuilder().setX(1.0f).setY(2.0f).build(), merge(resource, Point3.newBuilder()));
+        // into a builder with fields set
+        assertEquals(Point3.newBuilder().setX(1.0f).setY(2.0f).setZ(3.0f).build(), merge(resource, Point3.newBuilder().setX(5.0f).setZ(3.0f)));
+
+        // changed content is parsed again
+        resource.setContent("x: 4.0".getBytes());
+        assertEquals(Point3.newBuilder().setX(4.0f).build(), merge(resource, Point3.newBuilder()));
+    }
+
+    @Test
+    public void testMissingResource() throws Exception {
+        IResource resource = fileSystem.get("/missing.txt");
+        try {
+            ProtoUtil.merge(resource, Point3.newBuilder());
+            fail("Expected a compile error");
+        } catch (CompileExceptionError e) {
+            assertEquals("Resource does not exist", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testParseError() throws Exception {
+        IResource resource = fileSystem.addFile("/point.txt", "x: 1.0\ny: \"2.0".getBytes());
+        for (int i = 0; i < 2; ++i) {
+            try {
+                ProtoUtil.merge(resource, Point3.newBuilder());
+                fail("Expected a parse error");
+            } catch (CompileExceptionError e) {
+                assertEquals(2, e.getLineNumber());
+            }
+        }
+    }
+}
@@ -470,6 +470,47 @@ public class TextureGeneratorTest {
     }
 
 
+    @Test
+    public void testTextureProfilesConcurrentAlternatives() throws TextureGeneratorException, IOException {
+
+        // Several platforms, some sharing the same format, generated with a small encode budget
+        TextureProfile.Builder textureProfile = TextureProfile.newBuilder();
+        TextureFormat[] formats = new TextureFormat[] { TextureFormat.TEXTURE_FORMAT_RGBA, TextureFormat.TEXTURE_FORMAT_RGB, TextureFormat.TEXTURE_FORMAT_RGBA, TextureFormat.TEXTURE_FORMAT_LUMINANCE };
+        for (TextureFormat format : formats) {
+            PlatformProfile.Builder platformProfile = PlatformProfile.newBuilder();
+            platformProfile.setOs(PlatformProfile.OS.OS_ID_GENERIC);
+            platformProfile.addFormats(TextureFormatAlternative.newBuilder().setFormat(format).setCompressionLevel(CompressionLevel.FAST));
+            platformProfile.setMipmaps(true);
+            platformProfile.setMaxTextureSize(0);
+            textureProfile.addPlatforms(platformProfile);
+        }
+        textureProfile.setName("Test Profile");
+
+        int maxThreads = TextureGenerator.getMaxThreads();
+        TextureImage texture;
+        try {
+            TextureGenerator.setMaxThreads(2);
+            texture = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), textureProfile.build(), false);
+        } finally {
+            TextureGenerator.setMaxThreads(maxThreads);
+        }
+
+        // alternatives are in profile order
+        assertEquals(formats.length, texture.getAlternativesCount());
+        for (int i = 0; i < formats.length; ++i) {
+            assertEquals(formats[i], texture.getAlternatives(i).getFormat());
+            assertEquals(128, texture.getAlternatives(i).getWidth());
+            assertEquals(64, texture.getAlternatives(i).getHeight());
+        }
+        assertEquals(texture.getAlternatives(0), texture.getAlternatives(2));
+
+        // same result as generating the alternative on its own
+        TextureProfile.Builder singleProfile = TextureProfile.newBuilder().setName("Single");
+        singleProfile.addPlatforms(textureProfile.getPlatforms(1));
+        TextureImage single = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), singleProfile.build(), false);
+        assertEquals(single.getAlternatives(0), texture.getAlternatives(1));
+    }
+
     @Test
     public void testTextureProfilesPVRSquare() throws TextureGeneratorException, IOException {
 
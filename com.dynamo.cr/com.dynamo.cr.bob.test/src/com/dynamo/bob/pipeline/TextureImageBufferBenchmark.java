@@ -0,0 +1,108 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import com.dynamo.bob.test.util.Benchmark;
+
+/**
+ * Benchmark of the image ingestion done before a texture is handed to texc:
+ * converting the image to ABGR and copying the pixels to a buffer, compared to
+ * TextureImageBuffer.fromImage. Reports time and allocated bytes per image.
+ * Not run as part of the unit tests. Run with:
+ *
+ *   java -cp bob.jar:bob-tests.jar com.dynamo.bob.pipeline.TextureImageBufferBenchmark [size|image-file ...]
+ *
+ * A size generates RGBA, RGB, ARGB and gray images of size x size pixels.
+ * Defaults to 4096.
+ */
+public class TextureImageBufferBenchmark {
+
+    // What TextureGenerator did before: draw into a new ABGR image and copy to a heap buffer
+    private static long convertAndCopy(BufferedImage image) {
+        BufferedImage converted = image;
+        if (image.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
+            converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+            Graphics2D g2d = converted.createGraphics();
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+        }
+        byte[] data = ((DataBufferByte) converted.getRaster().getDataBuffer()).getData();
+        // JNA copies heap arrays to native memory
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        return buffer.capacity();
+    }
+
+    private static long fromImage(BufferedImage image) {
+        try (TextureImageBuffer imageBuffer = TextureImageBuffer.fromImage(image)) {
+            return imageBuffer.getBuffer().limit();
+        }
+    }
+
+    private static BufferedImage createImage(int size, int type) {
+        BufferedImage image = new BufferedImage(size, size, type);
+        Random random = new Random(size);
+        int[] row = new int[size];
+        for (int y = 0; y < size; ++y) {
+            for (int x = 0; x < size; ++x) {
+                row[x] = random.nextInt();
+            }
+            image.setRGB(0, y, size, 1, row, 0, size);
+        }
+        return image;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 0) {
+            args = new String[] { "4096" };
+        }
+
+        List<String> names = new ArrayList<>();
+        List<BufferedImage> images = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.matches("\\d+")) {
+                int size = Integer.parseInt(arg);
+                String[] typeNames = new String[] { "rgba", "rgb", "argb", "gray" };
+                int[] types = new int[] { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_GRAY };
+                for (int i = 0; i < types.length; ++i) {
+                    names.add(String.format("%dx%d %s", size, size, typeNames[i]));
+                    images.add(createImage(size, types[i]));
+                }
+            } else {
+                names.add(arg);
+                images.add(ImageIO.read(new File(arg)));
+            }
+        }
+
+        for (int i = 0; i < images.size(); ++i) {
+            System.out.printf("%s:%n", names.get(i));
+            BufferedImage image = images.get(i);
+            Benchmark.measure("convert and copy", () -> convertAndCopy(image));
+            Benchmark.measure("fromImage", () -> fromImage(image));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class TextureImageBufferTest {
+
+    // The pixel data texc got before, TYPE_4BYTE_ABGR images were used as is
+    private static byte[] convertImage(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+            byte[] data = new byte[image.getWidth() * image.getHeight() * 4];
+            int i = 0;
+            for (int y = 0; y < image.getHeight(); ++y) {
+                for (int x = 0; x < image.getWidth(); ++x) {
+                    int pixel = image.getRGB(x, y);
+                    data[i++] = (byte) (pixel >> 24);
+                    data[i++] = (byte) pixel;
+                    data[i++] = (byte) (pixel >> 8);
+                    data[i++] = (byte) (pixel >> 16);
+                }
+            }
+            return data;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g2d = converted.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return ((DataBufferByte) converted.getRaster().getDataBuffer()).getData();
+    }
+
+    private static byte[] getData(TextureImageBuffer imageBuffer) {
+        ByteBuffer buffer = imageBuffer.getBuffer().duplicate();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private static void assertSameAsConverted(BufferedImage image) {
+        try (TextureImageBuffer imageBuffer = TextureImageBuffer.fromImage(image)) {
+            assertEquals(image.getWidth(), imageBuffer.getWidth());
+            assertEquals(image.getHeight(), imageBuffer.getHeight());
+            assertArrayEquals(convertImage(image), getData(imageBuffer));
+        }
+    }
+
+    @Test
+    public void testImageTypes() throws Exception {
+        int[] types = new int[] {
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_4BYTE_ABGR_PRE,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_ARGB_PRE,
+            BufferedImage.TYPE_INT_BGR,
+            BufferedImage.TYPE_USHORT_565_RGB,
+            BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_USHORT_GRAY,
+            BufferedImage.TYPE_BYTE_INDEXED,
+        };
+        Random random = new Random(4711);
+        for (int type : types) {
+            BufferedImage image = new BufferedImage(67, 1031, type);
+            for (int y = 0; y < image.getHeight(); ++y) {
+                for (int x = 0; x < image.getWidth(); ++x) {
+                    image.setRGB(x, y, random.nextInt());
+                }
+            }
+            assertSameAsConverted(image);
+            // a sub image shares the raster of its parent
+            assertSameAsConverted(image.getSubimage(3, 5, 31, 17));
+        }
+    }
+
+    @Test
+    public void testPNG() throws IOException {
+        String[] names = new String[] { "128_64_rgba.png", "128_64_rgb.png", "128_64_lum.png", "128_64_luma.png", "128_64_idx.png", "16_bit_texture.png" };
+        for (String name : names) {
+            assertSameAsConverted(ImageIO.read(getClass().getResourceAsStream(name)));
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        BufferedImage large = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        large.setRGB(1, 1, 0xff112233);
+        BufferedImage smaller = new BufferedImage(48, 48, BufferedImage.TYPE_INT_RGB);
+        smaller.setRGB(0, 0, 0xff445566);
+        BufferedImage small = new BufferedImage(16, 8, BufferedImage.TYPE_INT_RGB);
+        small.setRGB(0, 0, 0xff778899);
+
+        TextureImageBuffer.clearPool();
+        ByteBuffer buffer;
+        try (TextureImageBuffer imageBuffer = TextureImageBuffer.fromImage(large)) {
+            buffer = imageBuffer.getBuffer();
+        }
+        // the released buffer isn't reused for a much smaller image
+        try (TextureImageBuffer imageBuffer = TextureImageBuffer.fromImage(small)) {
+            assertNotSame(buffer, imageBuffer.getBuffer());
+            assertArrayEquals(convertImage(small), getData(imageBuffer));
+        }
+        // but for a slightly smaller one
+        try (TextureImageBuffer imageBuffer = TextureImageBuffer.fromImage(smaller)) {
+            assertSame(buffer, imageBuffer.getBuffer());
+            assertEquals(0, imageBuffer.getBuffer().position());
+            assertEquals(48 * 48 * 4, imageBuffer.getBuffer().limit());
+            assertArrayEquals(convertImage(smaller), getData(imageBuffer));
+        }
+        TextureImageBuffer.clearPool();
+    }
+}
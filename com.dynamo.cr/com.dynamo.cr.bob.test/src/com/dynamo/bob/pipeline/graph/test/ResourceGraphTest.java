@@ -25,21 +25,32 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.apache.commons.io.FileUtils;
+
 import com.dynamo.bob.Project;
+import com.dynamo.bob.ProtoBuilder;
 import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.pipeline.graph.ResourceNode;
 import com.dynamo.bob.pipeline.graph.ResourceGraph;
+import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.ComponentDesc;
+import com.dynamo.gameobject.proto.GameObject.InstanceDesc;
+import com.dynamo.gameobject.proto.GameObject.PrototypeDesc;
+import com.dynamo.gamesys.proto.GameSystem.CollectionProxyDesc;
 
 public class ResourceGraphTest {
 
 
     private ResourceGraph resourceGraph;
+    private File contentRoot;
 
 
     private ResourceGraph createResourceGraph() {
@@ -97,7 +108,72 @@ public class ResourceGraphTest {
 
     @After
     public void tearDown() throws IOException {
+        if (contentRoot != null) {
+            FileUtils.deleteDirectory(contentRoot);
+        }
+    }
 
+    private static CollectionDesc collection(String... prototypes) {
+        CollectionDesc.Builder builder = CollectionDesc.newBuilder().setName("default");
+        for (String prototype : prototypes) {
+            builder.addInstances(InstanceDesc.newBuilder().setId(prototype).setPrototype(prototype));
+        }
+        return builder.build();
+    }
+
+    private static PrototypeDesc gameObject(String... components) {
+        PrototypeDesc.Builder builder = PrototypeDesc.newBuilder();
+        for (String component : components) {
+            builder.addComponents(ComponentDesc.newBuilder().setId(component).setComponent(component));
+        }
+        return builder.build();
+    }
+
+    private Project createBuiltProject(int maxThreads) throws IOException {
+        Project project = new Project(new DefaultFileSystem(), contentRoot.getAbsolutePath(), "build");
+        project.setOption("max-cpu-threads", Integer.toString(maxThreads));
+
+        // references recorded by the builders
+        project.setResourceReferences(project.getResource("/main/main.collectionc").output(), collection("/main/main.goc", "/main/shared_go.goc"));
+        project.setResourceReferences(project.getResource("/main/main.goc").output(), gameObject("/main/main.scriptc", "/main/level1.collectionproxyc", "/main/level2.collectionproxyc"));
+        project.setResourceReferences(project.getResource("/main/shared_go.goc").output(), gameObject("/main/shared.scriptc"));
+        project.setResourceReferences(project.getResource("/main/level1.collectionc").output(), collection("/main/level1.goc", "/main/shared_go.goc"));
+        project.setResourceReferences(project.getResource("/main/level1.goc").output(), gameObject("/main/level1.scriptc", "/main/shared.scriptc"));
+        project.setResourceReferences(project.getResource("/main/level2.collectionc").output(), collection("/main/level2.goc", "/main/shared_go.goc"));
+        project.setResourceReferences(project.getResource("/main/level2.goc").output(), gameObject("/main/level2.scriptc"));
+
+        // collection proxies are decoded from the outputs
+        IResource level1 = project.getResource("/main/level1.collectionproxyc").output();
+        level1.setContent(CollectionProxyDesc.newBuilder().setCollection("/main/level1.collectionc").setExclude(true).build().toByteArray());
+        IResource level2 = project.getResource("/main/level2.collectionproxyc").output();
+        level2.setContent(CollectionProxyDesc.newBuilder().setCollection("/main/level2.collectionc").setExclude(false).build().toByteArray());
+        return project;
+    }
+
+    @Test
+    public void testConcurrentGraphMatchesSingleThreaded() throws Exception {
+        contentRoot = Files.createTempDirectory(null).toFile();
+        ProtoBuilder.addMessageClass(".collectionc", CollectionDesc.class);
+        ProtoBuilder.addMessageClass(".goc", PrototypeDesc.class);
+        ProtoBuilder.addMessageClass(".collectionproxyc", CollectionProxyDesc.class);
+
+        Project singleThreadedProject = createBuiltProject(1);
+        ResourceGraph expected = new ResourceGraph(singleThreadedProject);
+        expected.add(singleThreadedProject.getResource("/main/main.collectionc"));
+
+        Project concurrentProject = createBuiltProject(4);
+        ResourceGraph actual = new ResourceGraph(concurrentProject);
+        actual.add(concurrentProject.getResource("/main/main.collectionc"));
+
+        assertEquals(expected.toJSON(), actual.toJSON());
+        assertEquals(expected.getResources(), actual.getResources());
+        assertEquals(expected.createExcludedResourcesList(), actual.createExcludedResourcesList());
+        assertTrue(actual.getResourceNodeFromPath("/main/level1.collectionproxyc").checkType(ResourceNode.Type.ExcludedCollectionProxy));
+        assertEquals(Arrays.asList("/main/level1.collectionc", "/main/level1.goc", "/main/level1.scriptc"), actual.createExcludedResourcesList());
+
+        // adding a resource already in the graph only adds it to the root
+        actual.add(concurrentProject.getResource("/main/level2.goc"));
+        assertEquals(2, actual.getRootNode().getChildren().size());
     }
 
 
@@ -0,0 +1,70 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline.graph.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.dynamo.bob.pipeline.graph.ResourceReferences;
+import com.dynamo.gameobject.proto.GameObject.ComponentDesc;
+import com.dynamo.gameobject.proto.GameObject.PrototypeDesc;
+import com.dynamo.gamesys.proto.GameSystem.CollectionProxyDesc;
+import com.dynamo.graphics.proto.Graphics.TextureImage;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+public class ResourceReferencesTest {
+
+    @Test
+    public void testSingleResource() throws Exception {
+        CollectionProxyDesc desc = CollectionProxyDesc.newBuilder()
+            .setCollection("/main/level1.collectionc")
+            .setExclude(true)
+            .build();
+        ResourceReferences references = ResourceReferences.create(desc);
+        assertEquals(CollectionProxyDesc.getDescriptor(), references.getDescriptor());
+        assertEquals(Arrays.asList("/main/level1.collectionc"), references.getResources());
+    }
+
+    @Test
+    public void testNestedResourcesInFieldOrder() throws Exception {
+        PrototypeDesc desc = PrototypeDesc.newBuilder()
+            .addComponents(ComponentDesc.newBuilder().setId("script").setComponent("/main/main.scriptc"))
+            .addComponents(ComponentDesc.newBuilder().setId("sprite").setComponent("/main/main.spritec"))
+            .addPropertyResources("/main/main.atlasc")
+            .build();
+        List<String> resources = ResourceReferences.create(desc).getResources();
+        assertEquals(Arrays.asList("/main/main.scriptc", "/main/main.spritec", "/main/main.atlasc"), resources);
+    }
+
+    @Test
+    public void testResourceFieldsAreCached() throws Exception {
+        List<FieldDescriptor> fields = ResourceReferences.getResourceFields(ComponentDesc.getDescriptor());
+        assertEquals(1, fields.size());
+        assertEquals("component", fields.get(0).getName());
+        assertTrue(fields == ResourceReferences.getResourceFields(ComponentDesc.getDescriptor()));
+    }
+
+    @Test
+    public void testNoResourceFields() throws Exception {
+        assertTrue(ResourceReferences.getResourceFields(TextureImage.getDescriptor()).isEmpty());
+        assertTrue(ResourceReferences.create(TextureImage.newBuilder().build()).getResources().isEmpty());
+    }
+}
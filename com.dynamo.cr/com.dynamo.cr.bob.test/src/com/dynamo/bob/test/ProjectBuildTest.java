@@ -26,6 +26,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 
 import javax.imageio.ImageIO;
@@ -112,6 +113,24 @@ public class ProjectBuildTest {
         build();
     }
 
+    @Test
+    public void testLocalResourceCacheMaxSize() throws IOException, CompileExceptionError {
+        Project project = new Project(new DefaultFileSystem(), contentRoot, "build");
+        assertEquals(0, project.getLocalResourceCacheMaxSize());
+        project.setOption("resource-cache-local-size", "512");
+        assertEquals(512L * 1024 * 1024, project.getLocalResourceCacheMaxSize());
+
+        for (String value : new String[] {"-1", "512MB", "", "9223372036854775807"}) {
+            project.setOption("resource-cache-local-size", value);
+            try {
+                project.getLocalResourceCacheMaxSize();
+                fail("Expected an error for " + value);
+            } catch (CompileExceptionError e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("resource-cache-local-size"));
+            }
+        }
+    }
+
     static private void checkProjectSetting(BobProjectProperties properties, String category, String key, String expectedValue)
     {
         assertEquals(expectedValue, properties.getStringValue(category, key));
@@ -0,0 +1,200 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.State;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class StateTest {
+
+    private String rootDirectory;
+    private DefaultFileSystem fileSystem;
+    private IResource stateResource;
+
+    @Before
+    public void setUp() throws Exception {
+        rootDirectory = Files.createTempDirectory("defold_").toFile().getAbsolutePath().replace('\\', '/');
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(rootDirectory);
+        fileSystem.setBuildDirectory("build");
+        stateResource = fileSystem.get("build/_BobBuildState_");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(rootDirectory));
+    }
+
+    private static byte[] sig(int value) {
+        byte[] s = new byte[20];
+        s[0] = (byte) value;
+        s[19] = (byte) (value >> 8);
+        return s;
+    }
+
+    private String path(String name) {
+        return rootDirectory + "/build/" + name;
+    }
+
+    private State reload() throws IOException {
+        return State.load(stateResource, rootDirectory);
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        State state = reload();
+        assertNull(state.getSignature(path("a.goc")));
+        state.putSignature(path("a.goc"), sig(1));
+        state.putSignature(path("b.goc"), sig(2));
+        state.putSignature(path("failed.goc"), new byte[0]);
+        state.putSignature("/outside/root.goc", sig(3));
+        state.save(stateResource);
+
+        state = reload();
+        assertArrayEquals(sig(1), state.getSignature(path("a.goc")));
+        assertArrayEquals(sig(2), state.getSignature(path("b.goc")));
+        assertArrayEquals(new byte[0], state.getSignature(path("failed.goc")));
+        assertArrayEquals(sig(3), state.getSignature("/outside/root.goc"));
+        assertEquals(4, state.getPaths().size());
+        assertTrue(state.getPaths().contains(path("a.goc")));
+    }
+
+    @Test
+    public void testIncrementalSave() throws Exception {
+        State state = reload();
+        state.putSignature(path("a.goc"), sig(1));
+        state.putSignature(path("b.goc"), sig(2));
+        state.save(stateResource);
+
+        // update, append and remove records
+        state = reload();
+        state.putSignature(path("a.goc"), sig(10));
+        state.putSignature(path("c.goc"), sig(3));
+        state.removeSignature(path("b.goc"));
+        state.save(stateResource);
+        // read back before reloading
+        assertArrayEquals(sig(10), state.getSignature(path("a.goc")));
+        assertArrayEquals(sig(3), state.getSignature(path("c.goc")));
+        assertNull(state.getSignature(path("b.goc")));
+
+        state = reload();
+        assertArrayEquals(sig(10), state.getSignature(path("a.goc")));
+        assertArrayEquals(sig(3), state.getSignature(path("c.goc")));
+        assertNull(state.getSignature(path("b.goc")));
+        List<String> paths = state.getPaths();
+        assertEquals(2, paths.size());
+
+        // add back a removed path
+        state.putSignature(path("b.goc"), sig(4));
+        state.save(stateResource);
+        state = reload();
+        assertArrayEquals(sig(4), state.getSignature(path("b.goc")));
+        assertEquals(3, state.getPaths().size());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        State state = reload();
+        for (int i = 0; i < 3000; ++i) {
+            state.putSignature(path(i + ".goc"), sig(i));
+        }
+        state.save(stateResource);
+        long size = new File(stateResource.getAbsPath()).length();
+
+        state = reload();
+        for (int i = 0; i < 2500; ++i) {
+            state.removeSignature(path(i + ".goc"));
+        }
+        state.save(stateResource);
+
+        state = reload();
+        assertEquals(500, state.getPaths().size());
+        for (int i = 2500; i < 3000; ++i) {
+            assertArrayEquals(sig(i), state.getSignature(path(i + ".goc")));
+        }
+        assertTrue(new File(stateResource.getAbsPath()).length() < size);
+    }
+
+    @Test
+    public void testRemoveAndPutAgain() throws Exception {
+        State state = reload();
+        for (int i = 0; i < 3000; ++i) {
+            state.putSignature(path(i + ".goc"), sig(i));
+        }
+        state.save(stateResource);
+        state = reload();
+        for (int i = 0; i < 200; ++i) {
+            state.removeSignature(path(i + ".goc"));
+        }
+        state.save(stateResource);
+        File file = new File(stateResource.getAbsPath());
+        long size = file.length();
+
+        // removing and adding back the same paths must not count as more removed records
+        state = reload();
+        for (int round = 0; round < 3; ++round) {
+            for (int i = 1000; i < 2000; ++i) {
+                state.removeSignature(path(i + ".goc"));
+            }
+            state.save(stateResource);
+            for (int i = 1000; i < 2000; ++i) {
+                state.putSignature(path(i + ".goc"), sig(i + round));
+            }
+            state.save(stateResource);
+        }
+        // updated in place, a compaction would have dropped the removed records
+        assertEquals(size, file.length());
+
+        state = reload();
+        assertEquals(2800, state.getPaths().size());
+        assertArrayEquals(sig(1002), state.getSignature(path("1000.goc")));
+
+        // the loaded state doesn't keep the file open or mapped
+        assertTrue(file.delete());
+        state.putSignature(path("a.goc"), sig(1));
+        state.save(stateResource);
+        state = reload();
+        assertEquals(2801, state.getPaths().size());
+    }
+
+    @Test
+    public void testUnknownFormat() throws Exception {
+        stateResource.setContent("not a state file".getBytes());
+        State state = reload();
+        assertEquals(0, state.getPaths().size());
+        state.putSignature(path("a.goc"), sig(1));
+        state.save(stateResource);
+
+        state = reload();
+        assertArrayEquals(sig(1), state.getSignature(path("a.goc")));
+        assertEquals(1, state.getPaths().size());
+    }
+}
@@ -0,0 +1,165 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.NullProgress;
+import com.dynamo.bob.Task;
+import com.dynamo.bob.TaskResult;
+import com.dynamo.bob.TaskScheduler;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+
+public class TaskSchedulerTest {
+
+    private MockFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new MockFileSystem();
+        fileSystem.setBuildDirectory("build");
+    }
+
+    private Task<?> createTask(String name, String input, String output) {
+        return Task.newBuilder(null)
+                .setName(name)
+                .addInput(fileSystem.get(input))
+                .addOutput(fileSystem.get(output))
+                .build();
+    }
+
+    @Test
+    public void testDependencyOrder() throws Exception {
+        // a -> b -> c, d is independent
+        List<Task<?>> tasks = new ArrayList<>();
+        tasks.add(createTask("c", "build/b.out", "build/c.out"));
+        tasks.add(createTask("b", "build/a.out", "build/b.out"));
+        tasks.add(createTask("a", "a.in", "build/a.out"));
+        tasks.add(createTask("d", "d.in", "build/d.out"));
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final Set<IResource> completedOutputs = ConcurrentHashMap.newKeySet();
+        TaskScheduler scheduler = new TaskScheduler(4);
+        List<TaskResult> results = scheduler.run(tasks, task -> {
+            for (IResource input : task.getInputs()) {
+                if (input.isOutput()) {
+                    assertTrue(completedOutputs.contains(input));
+                }
+            }
+            order.add(task.getName());
+            completedOutputs.addAll(task.getOutputs());
+            return new TaskResult(task);
+        }, new NullProgress());
+
+        assertEquals(4, results.size());
+        // results are ordered as the task list
+        assertEquals("c", results.get(0).getTask().getName());
+        assertEquals("d", results.get(3).getTask().getName());
+        assertTrue(order.indexOf("a") < order.indexOf("b"));
+        assertTrue(order.indexOf("b") < order.indexOf("c"));
+    }
+
+    @Test
+    public void testFailureSkipsDependents() throws Exception {
+        // a -> b -> c, d is independent and a fails
+        List<Task<?>> tasks = new ArrayList<>();
+        tasks.add(createTask("a", "a.in", "build/a.out"));
+        tasks.add(createTask("b", "build/a.out", "build/b.out"));
+        tasks.add(createTask("c", "build/b.out", "build/c.out"));
+        tasks.add(createTask("d", "d.in", "build/d.out"));
+
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        TaskScheduler scheduler = new TaskScheduler(2);
+        List<TaskResult> results = scheduler.run(tasks, task -> {
+            ran.add(task.getName());
+            TaskResult result = new TaskResult(task);
+            if (task.getName().equals("a")) {
+                result.setOk(false);
+            }
+            return result;
+        }, new NullProgress());
+
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).isOk());
+        assertTrue(results.get(1).isOk());
+        assertTrue(ran.containsAll(Arrays.asList("a", "d")));
+        assertFalse(ran.contains("b"));
+        assertFalse(ran.contains("c"));
+    }
+
+    @Test
+    public void testUpToDateTasksHaveNoResult() throws Exception {
+        List<Task<?>> tasks = new ArrayList<>();
+        tasks.add(createTask("a", "a.in", "build/a.out"));
+        tasks.add(createTask("b", "build/a.out", "build/b.out"));
+
+        TaskScheduler scheduler = new TaskScheduler(1);
+        List<TaskResult> results = scheduler.run(tasks, task -> task.getName().equals("a") ? null : new TaskResult(task), new NullProgress());
+
+        assertEquals(1, results.size());
+        assertEquals("b", results.get(0).getTask().getName());
+    }
+
+    @Test
+    public void testLongChain() throws Exception {
+        // every task depends on the previous one and the first task fails
+        final int count = 20000;
+        List<Task<?>> tasks = new ArrayList<>();
+        tasks.add(createTask("t0", "t.in", "build/t0.out"));
+        for (int i = 1; i < count; ++i) {
+            tasks.add(createTask("t" + i, "build/t" + (i - 1) + ".out", "build/t" + i + ".out"));
+        }
+
+        TaskScheduler scheduler = new TaskScheduler(4);
+        List<TaskResult> results = scheduler.run(tasks, task -> {
+            TaskResult result = new TaskResult(task);
+            result.setOk(!task.getName().equals("t0"));
+            return result;
+        }, new NullProgress());
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isOk());
+
+        results = scheduler.run(tasks, task -> new TaskResult(task), new NullProgress());
+        assertEquals(count, results.size());
+    }
+
+    @Test
+    public void testCircularDependency() throws Exception {
+        List<Task<?>> tasks = new ArrayList<>();
+        tasks.add(createTask("a", "build/b.out", "build/a.out"));
+        tasks.add(createTask("b", "build/a.out", "build/b.out"));
+        tasks.add(createTask("c", "c.in", "build/c.out"));
+
+        TaskScheduler scheduler = new TaskScheduler(2);
+        List<TaskResult> results = scheduler.run(tasks, task -> new TaskResult(task), new NullProgress());
+        assertEquals(3, results.size());
+        assertFalse(results.get(0).isOk());
+        assertFalse(results.get(1).isOk());
+        assertTrue(results.get(2).isOk());
+    }
+}
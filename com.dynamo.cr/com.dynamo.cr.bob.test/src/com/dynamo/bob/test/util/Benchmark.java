@@ -0,0 +1,85 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measurement loop shared by the benchmarks in the bob tests. A task is run
+ * a few times to warm up and then timed over a number of iterations. Reports
+ * the average and min time and the heap allocated by the calling thread per
+ * iteration.
+ */
+public class Benchmark {
+
+    public static final int WARMUP_ITERATIONS = 2;
+    public static final int ITERATIONS = 5;
+
+    private static com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private static final Task NOTHING = () -> {};
+
+    /**
+     * Measure a task and print the result
+     * @param name name printed with the result
+     * @param task the task to measure
+     */
+    public static void measure(String name, Task task) throws Exception {
+        measure(name, NOTHING, task, NOTHING);
+    }
+
+    /**
+     * Measure a task and print the result. The set up and tear down of each
+     * iteration aren't measured.
+     * @param name name printed with the result
+     * @param setUp run before each iteration
+     * @param task the task to measure
+     * @param tearDown run after each iteration
+     */
+    public static void measure(String name, Task setUp, Task task, Task tearDown) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            setUp.run();
+            try {
+                task.run();
+            } finally {
+                tearDown.run();
+            }
+        }
+        long threadId = Thread.currentThread().getId();
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long allocated = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            setUp.run();
+            try {
+                long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                task.run();
+                long time = System.nanoTime() - start;
+                allocated += threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+                total += time;
+                min = Math.min(min, time);
+            } finally {
+                tearDown.run();
+            }
+        }
+        System.out.printf("  %-16s avg %8.1f ms, min %8.1f ms, heap allocated %8.1f MB%n",
+                name, total / (double) ITERATIONS / 1e6, min / 1e6, allocated / (double) ITERATIONS / (1024 * 1024));
+    }
+}
@@ -18,6 +18,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 
+import org.apache.commons.io.IOUtils;
+
 import com.dynamo.bob.fs.AbstractResource;
 
 public class MockResource extends AbstractResource<MockFileSystem> {
@@ -61,7 +63,11 @@ public class MockResource extends AbstractResource<MockFileSystem> {
 
     @Override
     public void setContent(InputStream stream) throws IOException {
-        throw new RuntimeException("Not implemented");
+        try {
+            this.content = IOUtils.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
     }
 
     @Override
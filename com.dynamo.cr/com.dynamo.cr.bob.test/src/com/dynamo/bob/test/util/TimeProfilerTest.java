@@ -0,0 +1,71 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.dynamo.bob.util.TimeProfiler;
+
+public class TimeProfilerTest {
+
+    @Test
+    public void testScopesFromSeveralThreads() throws Exception {
+        File dir = Files.createTempDirectory("defold_").toFile();
+        try {
+            TimeProfiler.init(Arrays.asList(new File(dir, "report.json")), true);
+            TimeProfiler.start("Build tasks");
+
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < 4; ++i) {
+                final String name = "task" + i;
+                Thread thread = new Thread(() -> {
+                    TimeProfiler.start(name);
+                    TimeProfiler.addData("type", "buildTask");
+                    TimeProfiler.start(name + "_inner");
+                    TimeProfiler.stop();
+                    TimeProfiler.stop();
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            TimeProfiler.stop();
+            TimeProfiler.createReport(true);
+
+            String report = FileUtils.readFileToString(new File(dir, "report_time.json"), "UTF-8");
+            assertTrue(report.contains("Build tasks"));
+            for (int i = 0; i < 4; ++i) {
+                assertTrue(report.contains("\"task" + i + "\""));
+                assertTrue(report.contains("\"task" + i + "_inner\""));
+            }
+            // all scopes were stopped
+            assertFalse(report.contains("forceFinishedScope"));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
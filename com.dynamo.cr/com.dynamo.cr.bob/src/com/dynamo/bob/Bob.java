@@ -111,7 +111,7 @@ public class Bob {
         }));
       }
 
-    public static void init() {
+    public static synchronized void init() {
         if (rootFolder != null) {
             return;
         }
@@ -138,7 +138,7 @@ public class Bob {
         TimeProfiler.stop();
     }
 
-    public static void initLua() {
+    public static synchronized void initLua() {
         if (luaInitialized) {
             return;
         }
@@ -538,6 +538,7 @@ public class Bob {
         addOption(options, null, "ne-output-name", true, "Specify a library target name", false);
 
         addOption(options, null, "resource-cache-local", true, "Path to local resource cache.", false);
+        addOption(options, null, "resource-cache-local-size", true, "Max size in megabytes of the local resource cache. The least recently used resources are removed when the cache grows larger. Default is no limit.", false);
         addOption(options, null, "resource-cache-remote", true, "URL to remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-user", true, "Username to authenticate access to the remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-pass", true, "Password/token to authenticate access to the remote resource cache.", false);
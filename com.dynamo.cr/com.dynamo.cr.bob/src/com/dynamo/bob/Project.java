@@ -49,6 +49,7 @@ import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ExecutionException;
 import java.util.jar.Attributes;
@@ -84,10 +85,17 @@ import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
+import com.dynamo.bob.font.Fontc;
 import com.dynamo.bob.pipeline.ExtenderUtil;
 import com.dynamo.bob.pipeline.IShaderCompiler;
+import com.dynamo.bob.pipeline.LuaJITWorkerPool;
+import com.dynamo.bob.pipeline.LuaScannerCache;
+import com.dynamo.bob.pipeline.ModelSceneCache;
+import com.dynamo.bob.pipeline.ProtoUtil;
+import com.dynamo.bob.pipeline.ShaderCompilerHelpers;
 import com.dynamo.bob.pipeline.ShaderCompilers;
 import com.dynamo.bob.pipeline.TextureGenerator;
+import com.dynamo.bob.pipeline.TextureImageBuffer;
 import com.dynamo.bob.logging.Logger;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.LibraryUtil;
@@ -96,9 +104,11 @@ import com.dynamo.bob.util.HttpUtil;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.bob.util.StringUtil;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
+import com.google.protobuf.Message;
 
 import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.cache.ResourceCacheKey;
+import com.dynamo.bob.pipeline.graph.ResourceReferences;
 
 /**
  * Project abstraction. Contains input files, builder, tasks, etc
@@ -142,6 +152,8 @@ public class Project {
     private BobProjectProperties projectProperties;
     private Publisher publisher;
     private Map<String, Map<Long, IResource>> hashToResource = new HashMap<>();
+    // output abs path -> resources referenced from the output, recorded by the builders
+    private Map<String, ResourceReferences> resourceReferences = new ConcurrentHashMap<>();
 
     private TextureProfiles textureProfiles;
     private List<Class<? extends IBundler>> bundlerClasses = new ArrayList<>();
@@ -216,6 +228,28 @@ public class Project {
         return option("resource-cache-local", null);
     }
 
+    /**
+     * Get the max size of the local resource cache
+     * @return max size in bytes or 0 if unbounded
+     * @throws CompileExceptionError if the option isn't a valid size in megabytes
+     */
+    public long getLocalResourceCacheMaxSize() throws CompileExceptionError {
+        String maxSizeOpt = option("resource-cache-local-size", null);
+        if (maxSizeOpt == null) {
+            return 0;
+        }
+        long maxSize = -1;
+        try {
+            maxSize = Long.parseLong(maxSizeOpt.trim());
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        if (maxSize < 0 || maxSize > Long.MAX_VALUE / (1024 * 1024)) {
+            throw new CompileExceptionError(String.format("Invalid value '%s' for option 'resource-cache-local-size'. Expected the max size in megabytes, a non-negative integer.", maxSizeOpt));
+        }
+        return maxSize * 1024 * 1024;
+    }
+
     public String getRemoteResourceCacheDirectory() {
         return option("resource-cache-remote", null);
     }
@@ -463,7 +497,7 @@ public class Project {
      * @return task
      * @throws CompileExceptionError
      */
-    public Task<?> createTask(IResource inputResource, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
+    public synchronized Task<?> createTask(IResource inputResource, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
         // It's possible to build the same resource using different builders
         String key = inputResource.getPath()+" "+builderClass;
         Task<?> task = tasks.get(key);
@@ -740,10 +774,24 @@ public class Project {
         } catch (Throwable e) {
             throw new CompileExceptionError(null, 0, e.getMessage(), e);
         } finally {
+            clearBuildCaches();
             TimeProfiler.createReport(true);
         }
     }
 
+    /**
+     * Release the state kept by the builders for the duration of a build,
+     * also when the build fails or is canceled
+     */
+    private void clearBuildCaches() {
+        // stop the Lua compiler processes started by the script builders
+        LuaJITWorkerPool.shutdownAll();
+        ShaderCompilerHelpers.clearSPIRVCache();
+        ModelSceneCache.clear();
+        ProtoUtil.clearCache();
+        TextureImageBuffer.clearPool();
+    }
+
     /**
      * Mounts all the mount point associated with the project.
      * @param resourceScanner scanner to use for finding resources in the java class path
@@ -1547,10 +1595,12 @@ public class Project {
     private List<TaskResult> doBuild(IProgress monitor, String... commands) throws Throwable, IOException, CompileExceptionError, MultipleCompileException {
         TimeProfiler.start("Prepare cache");
         resourceCache.init(getLocalResourceCacheDirectory(), getRemoteResourceCacheDirectory());
+        resourceCache.setMaxLocalCacheSize(getLocalResourceCacheMaxSize());
         resourceCache.setRemoteAuthentication(getRemoteResourceCacheUser(), getRemoteResourceCachePass());
+        fileSystem.setMaxWalkThreads(getMaxCpuThreads());
         fileSystem.loadCache();
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "_BobBuildState_"));
-        state = State.load(stateResource);
+        state = State.load(stateResource, rootDirectory);
         TimeProfiler.stop();
         List<TaskResult> result = new ArrayList<TaskResult>();
 
@@ -1637,6 +1687,8 @@ public class Project {
 
         monitor.done();
         TimeProfiler.start("Save cache");
+        resourceCache.flush();
+        LuaScannerCache.prune(new File(getBuildCachePath(), LuaScannerCache.DIRECTORY_NAME));
         state.save(stateResource);
         fileSystem.saveCache();
         TimeProfiler.stop();
@@ -1645,206 +1697,277 @@ public class Project {
 
 
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
-
-        // the set of all output files generated
-        // in this or previous session
-        Set<IResource> completedOutputs = new HashSet<>();
-
-        List<TaskResult> result = new ArrayList<>();
-
-        List<Task<?>> buildTasks = new ArrayList<>(this.getTasks());
-        // set of *all* possible output files
-        Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : this.getTasks()) {
-            allOutputs.addAll(task.getOutputs());
+    /**
+     * Check if the outputs of a task exist and were built with the same
+     * task signature in a previous build
+     * @param task task to check
+     * @param taskSignature current signature of the task
+     * @return true if the task doesn't need to run
+     */
+    private boolean isUpToDate(Task<?> task, byte[] taskSignature) {
+        for (IResource r : task.getOutputs()) {
+            if (!r.exists()) {
+                return false;
+            }
         }
-        tasks.clear();
-
-        TextureGenerator.maxThreads = getMaxCpuThreads();
-
-        // Keep track of the paths for all outputs
-        outputs = new HashMap<>(allOutputs.size());
-        for (IResource res : allOutputs) {
-            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+        // compare current task signature with the previous
+        // signature from state on disk
+        for (IResource r : task.getOutputs()) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
-        boolean taskFailed = false;
-run:
-        while (completedTasks.size() < buildTasks.size()) {
-            for (Task<?> task : buildTasks) {
-                BundleHelper.throwIfCanceled(monitor);
-
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
+    /**
+     * Start looking up the outputs of out of date tasks in the remote resource
+     * cache. Only tasks with all inputs being source files are considered
+     * since the cache keys of the other tasks depend on outputs not yet built.
+     * @param tasks tasks to prefetch cached outputs for
+     * @param allOutputs outputs of all tasks
+     */
+    private void prefetchCachedOutputs(List<Task<?>> tasks, Set<IResource> allOutputs) throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (Task<?> task : tasks) {
+            if (!task.isCacheable()) {
+                continue;
+            }
+            boolean sourceInputsOnly = true;
+            for (IResource input : task.getInputs()) {
+                if (allOutputs.contains(input)) {
+                    sourceInputsOnly = false;
+                    break;
+                }
+            }
+            if (!sourceInputsOnly) {
+                continue;
+            }
+            try {
+                if (isUpToDate(task, task.calculateSignature())) {
                     continue;
                 }
-
-                final List<IResource> outputResources = task.getOutputs();
-
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : outputResources) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
+                for (IResource r : task.getOutputs()) {
+                    if (r.isCacheable()) {
+                        keys.add(ResourceCacheKey.calculate(task, options, r));
                     }
                 }
+            } catch (Exception e) {
+                // Missing or unreadable inputs are reported when the task is run
+            }
+        }
+        resourceCache.prefetch(keys);
+    }
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                TimeProfiler.start("compare signatures");
-                TimeProfiler.addData("color", "#FFC0CB");
-                TimeProfiler.addData("main input", String.valueOf(task.input(0)));
-                byte[] taskSignature = task.calculateSignature();
-                boolean allSigsEquals = true;
-                for (IResource r : outputResources) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    if (!Arrays.equals(s, taskSignature)) {
-                        allSigsEquals = false;
-                        break;
-                    }
-                }
-                TimeProfiler.stop();
+    /**
+     * Run a single task unless it is up to date. Called concurrently
+     * from the task scheduler threads.
+     * @param task task to run
+     * @return result of the task or null if the task was up to date
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TaskResult runTask(Task<?> task) {
+        final List<IResource> outputResources = task.getOutputs();
+
+        TaskResult taskResult = new TaskResult(task);
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        boolean profiled = false;
+        try {
+            byte[] taskSignature = task.calculateSignature();
+            if (isUpToDate(task, taskSignature)) {
+                // Task is successfully completed now or in a previous build.
+                return null;
+            }
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
+            TimeProfiler.start(task.getName());
+            TimeProfiler.addData("output", task.getOutputsString());
+            TimeProfiler.addData("type", "buildTask");
+            profiled = true;
 
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(outputResources);
-                    }
+            // any recorded references are stale once the outputs are rebuilt or restored
+            for (IResource r : outputResources) {
+                resourceReferences.remove(r.getAbsPath());
+            }
 
-                    monitor.worked(1);
-                    continue;
+            Builder builder = task.getBuilder();
+            Map<IResource, String> outputResourceToCacheKey = new HashMap<IResource, String>();
+            if (task.isCacheable() && resourceCache.isCacheEnabled()) {
+                // check if all output resources exist in the resource cache
+                boolean allResourcesCached = true;
+                for (IResource r : outputResources) {
+                    final String key = ResourceCacheKey.calculate(task, options, r);
+                    outputResourceToCacheKey.put(r, key);
+                    if (!r.isCacheable()) {
+                        allResourcesCached = false;
+                    }
+                    else if (!resourceCache.contains(key)) {
+                        allResourcesCached = false;
+                    }
                 }
 
-                TimeProfiler.start(task.getName());
-                TimeProfiler.addData("output", task.getOutputsString());
-                TimeProfiler.addData("type", "buildTask");
-
-                completedTasks.add(task);
-
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
-                Map<IResource, String> outputResourceToCacheKey = new HashMap<IResource, String>();
-                try {
-                    if (task.isCacheable() && resourceCache.isCacheEnabled()) {
-                        // check if all output resources exist in the resource cache
-                        boolean allResourcesCached = true;
-                        for (IResource r : outputResources) {
-                            final String key = ResourceCacheKey.calculate(task, options, r);
-                            outputResourceToCacheKey.put(r, key);
-                            if (!r.isCacheable()) {
-                                allResourcesCached = false;
-                            }
-                            else if (!resourceCache.contains(key)) {
-                                allResourcesCached = false;
-                            }
-                        }
-
-                        // all resources exist in the cache
-                        // copy them to the output
-                        if (allResourcesCached) {
-                            TimeProfiler.addData("takenFromCache", true);
-                            for (IResource r : outputResources) {
-                                r.setContent(resourceCache.get(outputResourceToCacheKey.get(r)));
-                            }
-                        }
-                        // build task and cache output
-                        else {
-                            builder.build(task);
-                            for (IResource r : outputResources) {
-                                state.putSignature(r.getAbsPath(), taskSignature);
-                                if (r.isCacheable()) {
-                                    resourceCache.put(outputResourceToCacheKey.get(r), r.getContent());
-                                }
-                            }
+                // all resources exist in the cache
+                // copy them to the output
+                if (allResourcesCached) {
+                    for (IResource r : outputResources) {
+                        InputStream content = resourceCache.getStream(outputResourceToCacheKey.get(r));
+                        if (content == null) {
+                            // removed from the local cache since it was checked
+                            allResourcesCached = false;
+                            break;
                         }
+                        r.setContent(content);
                     }
-                    else {
-                        builder.build(task);
-                        for (IResource r : outputResources) {
-                            state.putSignature(r.getAbsPath(), taskSignature);
-                        }
+                    if (allResourcesCached) {
+                        TimeProfiler.addData("takenFromCache", true);
                     }
-                    monitor.worked(1);
-
+                }
+                // build task and cache output
+                if (!allResourcesCached) {
+                    builder.build(task);
                     for (IResource r : outputResources) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
+                        state.putSignature(r.getAbsPath(), taskSignature);
+                        if (r.isCacheable()) {
+                            resourceCache.put(outputResourceToCacheKey.get(r), r.getContent());
                         }
                     }
-                    completedOutputs.addAll(outputResources);
-                    TimeProfiler.stop();
+                }
+            }
+            else {
+                builder.build(task);
+                for (IResource r : outputResources) {
+                    state.putSignature(r.getAbsPath(), taskSignature);
+                }
+            }
 
-                } catch (CompileExceptionError e) {
-                    TimeProfiler.stop();
+            for (IResource r : outputResources) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
                     ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
-                    TimeProfiler.stop();
-                    ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
-
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
+                    break;
                 }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
-                    // Clear sigs for all outputs when a task fails
-                    for (IResource r : outputResources) {
-                        state.putSignature(r.getAbsPath(), new byte[0]);
-                    }
-                    if (abort) {
-                        break run;
-                    }
+            }
+        } catch (CompileExceptionError e) {
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            ok = false;
+            message = e.getMessage();
+            exception = e;
+
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        } finally {
+            if (profiled) {
+                TimeProfiler.stop();
+            }
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+            // Clear sigs for all outputs when a task fails
+            for (IResource r : outputResources) {
+                state.putSignature(r.getAbsPath(), new byte[0]);
+            }
+        }
+        return taskResult;
+    }
+
+    /**
+     * Calculate the digests of all task inputs not produced by another task.
+     * This is done in parallel and up front since the same source file is
+     * often an input of many tasks. The file system keeps the digests for
+     * the rest of the build session.
+     * @param tasks tasks to hash the inputs of
+     * @param allOutputs outputs of all tasks
+     */
+    private void hashSourceInputs(List<Task<?>> tasks, Set<IResource> allOutputs) throws IOException {
+        Set<IResource> sources = new HashSet<>();
+        for (Task<?> task : tasks) {
+            for (IResource input : task.getInputs()) {
+                if (!allOutputs.contains(input)) {
+                    sources.add(input);
                 }
             }
-            if (taskFailed) {
+        }
+
+        List<Callable<Void>> hashTasks = new ArrayList<>(sources.size());
+        for (final IResource source : sources) {
+            hashTasks.add(() -> {
+                try {
+                    source.sha1();
+                } catch (Exception e) {
+                    // Missing or unreadable inputs are reported by the task using them
+                }
+                return null;
+            });
+        }
+        ExecutorService hashExecutor = Executors.newFixedThreadPool(getMaxCpuThreads());
+        try {
+            hashExecutor.invokeAll(hashTasks);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            hashExecutor.shutdown();
+        }
+    }
+
+    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+        List<TaskResult> result = new ArrayList<>();
+
+        List<Task<?>> buildTasks = new ArrayList<>(this.getTasks());
+        // set of *all* possible output files
+        Set<IResource> allOutputs = new HashSet<>();
+        for (Task<?> task : buildTasks) {
+            allOutputs.addAll(task.getOutputs());
+        }
+        tasks.clear();
+
+        TextureGenerator.setMaxThreads(getMaxCpuThreads());
+        Fontc.setMaxThreads(getMaxCpuThreads());
+
+        // Keep track of the paths for all outputs
+        outputs = new HashMap<>(allOutputs.size());
+        for (IResource res : allOutputs) {
+            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+        }
+
+        TimeProfiler.start("Hash task inputs");
+        hashSourceInputs(buildTasks, allOutputs);
+        TimeProfiler.stop();
+
+        if (resourceCache.isCacheEnabled()) {
+            TimeProfiler.start("Prefetch cached resources");
+            prefetchCachedOutputs(buildTasks, allOutputs);
+            TimeProfiler.stop();
+        }
+
+        // Tasks are run in dependency order, as many at a time as allowed by max-cpu-threads.
+        // A failed task only prevents the tasks depending on its outputs from running.
+        TaskScheduler scheduler = new TaskScheduler(getMaxCpuThreads());
+        while (!buildTasks.isEmpty()) {
+            List<TaskResult> taskResults = scheduler.run(buildTasks, this::runTask, monitor);
+            result.addAll(taskResults);
+            if (anyFailing(taskResults)) {
                 break;
             }
-            // set of *all* possible output files
+
+            // Tasks created while building are run in another round. The tasks of
+            // the previous rounds have all completed at this point.
             // TODO: do we really need this?
             // It seems like we never create new tasks during building process
-            for (Task<?> task : this.getTasks()) {
-                allOutputs.addAll(task.getOutputs());
+            buildTasks = new ArrayList<>(this.getTasks());
+            for (Task<?> task : buildTasks) {
+                for (IResource res : task.getOutputs()) {
+                    outputs.putIfAbsent(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+                }
             }
-            buildTasks.addAll(this.getTasks());
             tasks.clear();
         }
         return result;
@@ -1862,7 +1985,7 @@ run:
         return outputs;
     }
 
-    public EnumSet<OutputFlags> getOutputFlags(String resourcePath) {
+    public synchronized EnumSet<OutputFlags> getOutputFlags(String resourcePath) {
         return outputs.get(resourcePath);
     }
 
@@ -1871,7 +1994,7 @@ run:
      * @param resourcePath output resource absolute path
      * @param flag OutputFlag to add
      */
-    public boolean addOutputFlags(String resourcePath, OutputFlags flag) {
+    public synchronized boolean addOutputFlags(String resourcePath, OutputFlags flag) {
         EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
         if(currentFlags == null) {
             return false;
@@ -2082,20 +2205,26 @@ run:
     class Walker extends FileSystemWalker {
 
         private Set<String> skipDirs;
+        // Wildcards matching the contents of the skipped directories
+        private List<String> skipDirWildcards = new ArrayList<String>();
 
         public Walker(Set<String> skipDirs) {
             this.skipDirs = skipDirs;
+            if (skipDirs != null) {
+                for (String sd : skipDirs) {
+                    skipDirWildcards.add(sd + "/*");
+                }
+            }
         }
 
         @Override
         public void handleFile(String path, Collection<String> results) {
             path = FilenameUtils.normalize(path, true);
             boolean include = true;
-            if (skipDirs != null) {
-                for (String sd : skipDirs) {
-                    if (FilenameUtils.wildcardMatch(path, sd + "/*")) {
-                        include = false;
-                    }
+            for (String wildcard : skipDirWildcards) {
+                if (FilenameUtils.wildcardMatch(path, wildcard)) {
+                    include = false;
+                    break;
                 }
             }
             // ignore all .files, for instance the .project file that is generated by many Eclipse based editors
@@ -2116,9 +2245,11 @@ run:
                     if (FilenameUtils.equalsNormalized(sd, path)) {
                         return false;
                     }
-                    if (FilenameUtils.wildcardMatch(path, sd + "/*")) {
-                        return false;
-                    }
+                }
+            }
+            for (String wildcard : skipDirWildcards) {
+                if (FilenameUtils.wildcardMatch(path, wildcard)) {
+                    return false;
                 }
             }
             return super.handleDirectory(path, results);
@@ -2146,6 +2277,7 @@ run:
         }
         Walker walker = new Walker(skipDirs);
         List<String> results = new ArrayList<String>(1024);
+        fileSystem.setMaxWalkThreads(getMaxCpuThreads());
         fileSystem.walk(path, walker, results);
         inputs = results;
     }
@@ -2167,6 +2299,26 @@ run:
         return fileSystem.get(FilenameUtils.normalize(path, true));
     }
 
+    /**
+     * Record the resources referenced from a message written to an output.
+     * Called by the builders to avoid decoding the output again when the
+     * resource graph is created.
+     * @param output output resource the message is written to
+     * @param message message written to the output
+     */
+    public void setResourceReferences(IResource output, Message message) {
+        resourceReferences.put(output.getAbsPath(), ResourceReferences.create(message));
+    }
+
+    /**
+     * Get the resources referenced from an output, as recorded by the builder
+     * @param output output resource
+     * @return resource references or null if the output wasn't built in this session
+     */
+    public ResourceReferences getResourceReferences(IResource output) {
+        return resourceReferences.get(output.getAbsPath());
+    }
+
     public IResource getResource(String category, String key, boolean mustExist) throws IOException {
         IResource resource = null;
         String val = this.projectProperties.getStringValue(category, key);
@@ -2192,14 +2344,14 @@ run:
         return getResource("/game.project");
     }
 
-    public IResource getGeneratedResource(long hash, String suffix) {
+    public synchronized IResource getGeneratedResource(long hash, String suffix) {
         Map<Long, IResource> submap = hashToResource.get(suffix);
         if (submap == null)
             return null;
         return submap.get(hash);
     }
 
-    public IResource createGeneratedResource(long hash, String suffix) {
+    public synchronized IResource createGeneratedResource(long hash, String suffix) {
         Map<Long, IResource> submap = hashToResource.get(suffix);
         if (submap == null) {
             submap = new HashMap<>();
@@ -2268,7 +2420,7 @@ run:
         }, result);
     }
 
-    public List<Task<?>> getTasks() {
+    public synchronized List<Task<?>> getTasks() {
         return Collections.unmodifiableList(new ArrayList(this.tasks.values()));
     }
 
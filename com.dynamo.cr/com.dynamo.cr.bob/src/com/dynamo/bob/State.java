@@ -14,97 +14,378 @@
 
 package com.dynamo.bob;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
 
 import com.dynamo.bob.fs.IResource;
 
 /**
  * Bob state abstraction for persistent sha1-checksums
+ * Signatures may be read and written concurrently by tasks running in parallel
+ *
+ * The state is stored in a versioned binary file:
+ *
+ *   header: magic (int), version (int), end of record data (int), reserved (int)
+ *   record: path length (short), path (utf-8, relative to the root directory),
+ *           flags (byte), signature (20 bytes)
+ *
+ * The file is read into memory when loaded and signatures are only decoded
+ * when requested. The file is not kept open between saves. When saved,
+ * changed records are updated in place and new records are appended. The
+ * file is only rewritten when it contains too many removed records.
  * @author Christian Murray
  *
  */
-public class State implements Serializable {
+public class State {
+
+    private static final int MAGIC = 0x42535441; // "BSTA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SIGNATURE_SIZE = 20;
+
+    private static final byte FLAG_SIGNATURE = 0;
+    private static final byte FLAG_EMPTY = 1;
+    private static final byte FLAG_REMOVED = 2;
 
-    private static final long serialVersionUID = -275410118302470802L + 1;
-    private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
+    // marker for removed paths among the changed signatures
+    private static final byte[] REMOVED = new byte[0];
+
+    private String rootPrefix;
+
+    // data of the loaded state file, null if there was none
+    private ByteBuffer data;
+    // true when the state file contains the records in offsets
+    private boolean fileLoaded = false;
+    // offset in the state file of the flags of each record
+    private Map<String, Integer> offsets = new HashMap<>();
+    private int dataEnd = HEADER_SIZE;
+    // number of records in the state file, and how many of those are removed
+    private int records = 0;
+    private int removedRecords = 0;
+
+    // signatures saved after the file was loaded
+    private Map<String, byte[]> saved = new HashMap<>();
+    // signatures changed since the last save
+    private Map<String, byte[]> changed = new HashMap<>();
+
+    private State(String rootDirectory) {
+        this.rootPrefix = rootDirectory != null ? rootDirectory + "/" : null;
+    }
+
+    private String toKey(String path) {
+        if (rootPrefix != null && path.startsWith(rootPrefix)) {
+            return path.substring(rootPrefix.length());
+        }
+        return path;
+    }
+
+    private String toPath(String key) {
+        if (rootPrefix != null && !new File(key).isAbsolute()) {
+            return rootPrefix + key;
+        }
+        return key;
+    }
+
+    private byte[] readSignature(int offset) {
+        byte flags = data.get(offset);
+        if (flags == FLAG_REMOVED) {
+            return null;
+        }
+        if (flags == FLAG_EMPTY) {
+            return new byte[0];
+        }
+        byte[] signature = new byte[SIGNATURE_SIZE];
+        for (int i = 0; i < SIGNATURE_SIZE; ++i) {
+            signature[i] = data.get(offset + 1 + i);
+        }
+        return signature;
+    }
 
     /**
      * Get signature for path
      * @param path path to get sha1 for
      * @return signature or null of no mapping exists
      */
-    public byte[] getSignature(String path) {
-        return signatures.get(path);
+    public synchronized byte[] getSignature(String path) {
+        String key = toKey(path);
+        byte[] signature = changed.get(key);
+        if (signature != null) {
+            return signature == REMOVED ? null : signature;
+        }
+        signature = saved.get(key);
+        if (signature != null) {
+            return signature == REMOVED ? null : signature;
+        }
+        Integer offset = offsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        return readSignature(offset);
     }
 
     /**
      * Add signature
      * @param path path to set sha1 for
-     * @param signature signature to set
+     * @param signature signature to set. Must be a sha1 or empty
      */
-    public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+    public synchronized void putSignature(String path, byte[] signature) {
+        if (signature.length != 0 && signature.length != SIGNATURE_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid signature length %d for '%s'", signature.length, path));
+        }
+        changed.put(toKey(path), signature);
     }
 
     /**
      * Remove signature
      * @param path path to set sha1 for
      */
-    public void removeSignature(String path) {
-        signatures.remove(path);
+    public synchronized void removeSignature(String path) {
+        changed.put(toKey(path), REMOVED);
     }
 
     /**
      * Get all registered paths
      * @return list of all registered paths
      */
-    public List<String> getPaths() {
-        return new ArrayList<>(signatures.keySet());
+    public synchronized List<String> getPaths() {
+        Set<String> keys = new HashSet<>(offsets.keySet());
+        keys.addAll(saved.keySet());
+        keys.addAll(changed.keySet());
+        List<String> paths = new ArrayList<>();
+        for (String key : keys) {
+            String path = toPath(key);
+            if (getSignature(path) != null) {
+                paths.add(path);
+            }
+        }
+        return paths;
     }
 
     /**
      * Load state from resource
      * @param resource state resource
+     * @param rootDirectory project root directory. Paths within the root directory are stored relative to it
      * @return {@link State}
      * @throws IOException
      */
-    public static State load(IResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            return new State();
-        } else {
-            try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
+    public static State load(IResource resource, String rootDirectory) throws IOException {
+        State state = new State(rootDirectory);
+        File file = new File(resource.getAbsPath());
+        if (!file.isFile()) {
+            return state;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+            while (data.hasRemaining()) {
+                if (channel.read(data, data.position()) == -1) {
+                    break;
+                }
+            }
+            data.flip();
+            if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                // unknown or old state format. Start over
                 return state;
-            } catch (Throwable e) {
+            }
+            int dataEnd = data.getInt(8);
+            if (dataEnd < HEADER_SIZE || dataEnd > data.limit()) {
                 System.err.println("Unable to load state");
-                e.printStackTrace();
-                return new State();
+                return state;
+            }
+
+            // index the records, signatures are read on demand
+            int offset = HEADER_SIZE;
+            byte[] pathBytes = new byte[256];
+            while (offset < dataEnd) {
+                int pathLength = data.getShort(offset) & 0xffff;
+                if (pathLength > pathBytes.length) {
+                    pathBytes = new byte[pathLength];
+                }
+                for (int i = 0; i < pathLength; ++i) {
+                    pathBytes[i] = data.get(offset + 2 + i);
+                }
+                String key = new String(pathBytes, 0, pathLength, StandardCharsets.UTF_8);
+                int flagsOffset = offset + 2 + pathLength;
+                if (data.get(flagsOffset) == FLAG_REMOVED) {
+                    state.removedRecords++;
+                } else {
+                    state.offsets.put(key, flagsOffset);
+                }
+                state.records++;
+                offset = flagsOffset + 1 + SIGNATURE_SIZE;
+            }
+            state.data = data;
+            state.fileLoaded = true;
+            state.dataEnd = dataEnd;
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
+            return new State(rootDirectory);
+        }
+        return state;
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte[] pathBytes, byte[] signature) {
+        buffer.putShort((short) pathBytes.length);
+        buffer.put(pathBytes);
+        putSignature(buffer, signature);
+    }
+
+    private static void putSignature(ByteBuffer buffer, byte[] signature) {
+        if (signature == REMOVED) {
+            buffer.put(FLAG_REMOVED);
+            buffer.put(new byte[SIGNATURE_SIZE]);
+        } else if (signature.length == 0) {
+            buffer.put(FLAG_EMPTY);
+            buffer.put(new byte[SIGNATURE_SIZE]);
+        } else {
+            buffer.put(FLAG_SIGNATURE);
+            buffer.put(signature);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(dataEnd);
+        header.putInt(0);
+        writeFully(channel, header, 0);
+    }
+
+    // Rewrite the whole file with the live records only
+    private void rewrite(FileChannel channel) throws IOException {
+        Map<String, byte[]> signatures = new HashMap<>();
+        for (String key : offsets.keySet()) {
+            signatures.put(key, getSignature(toPath(key)));
+        }
+        signatures.putAll(saved);
+        signatures.putAll(changed);
+
+        List<byte[]> paths = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        int size = HEADER_SIZE;
+        for (Map.Entry<String, byte[]> entry : signatures.entrySet()) {
+            if (entry.getValue() == null || entry.getValue() == REMOVED) {
+                continue;
             }
+            byte[] pathBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            paths.add(pathBytes);
+            values.add(entry.getValue());
+            size += 2 + pathBytes.length + 1 + SIGNATURE_SIZE;
+        }
+
+        offsets = new HashMap<>();
+        saved = new HashMap<>();
+        ByteBuffer buffer = ByteBuffer.allocate(size - HEADER_SIZE);
+        for (int i = 0; i < paths.size(); ++i) {
+            String key = new String(paths.get(i), StandardCharsets.UTF_8);
+            offsets.put(key, HEADER_SIZE + buffer.position() + 2 + paths.get(i).length);
+            saved.put(key, values.get(i));
+            putRecord(buffer, paths.get(i), values.get(i));
         }
+        writeFully(channel, buffer, HEADER_SIZE);
+        dataEnd = size;
+        records = paths.size();
+        removedRecords = 0;
+        writeHeader(channel);
+        channel.truncate(size);
+        // all signatures are in saved now
+        data = null;
+        fileLoaded = true;
+    }
+
+    // Change of the number of removed records in the file when the record
+    // of an existing key is updated to the signature
+    private int removedChange(String key, byte[] signature) {
+        boolean wasRemoved = saved.get(key) == REMOVED;
+        boolean isRemoved = signature == REMOVED;
+        if (isRemoved && !wasRemoved) {
+            return 1;
+        } else if (!isRemoved && wasRemoved) {
+            return -1;
+        }
+        return 0;
     }
 
     /**
-     * Save state
+     * Save state. Only the signatures changed since the state was loaded
+     * or last saved are written.
      * @param resource state resource
      * @throws IOException
      */
-    public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
-        resource.setContent(bos.toByteArray());
+    public synchronized void save(IResource resource) throws IOException {
+        File file = new File(resource.getAbsPath());
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+
+            int removedTotal = removedRecords;
+            for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+                if (offsets.containsKey(entry.getKey())) {
+                    removedTotal += removedChange(entry.getKey(), entry.getValue());
+                }
+            }
+            // rewrite the file when more than half of its records would be removed ones
+            boolean compact = removedTotal > 1024 && removedTotal * 2 > records;
+            if (!fileLoaded || channel.size() < dataEnd || compact) {
+                rewrite(channel);
+                changed.clear();
+                return;
+            }
+
+            // update existing records in place and append new ones
+            ByteBuffer signatureBuffer = ByteBuffer.allocate(1 + SIGNATURE_SIZE);
+            List<String> appended = new ArrayList<>();
+            int appendSize = 0;
+            for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+                Integer offset = offsets.get(entry.getKey());
+                if (offset != null) {
+                    signatureBuffer.clear();
+                    putSignature(signatureBuffer, entry.getValue());
+                    writeFully(channel, signatureBuffer, offset);
+                    removedRecords += removedChange(entry.getKey(), entry.getValue());
+                    saved.put(entry.getKey(), entry.getValue());
+                } else if (entry.getValue() != REMOVED) {
+                    appended.add(entry.getKey());
+                    appendSize += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + 1 + SIGNATURE_SIZE;
+                }
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(appendSize);
+            for (String key : appended) {
+                byte[] pathBytes = key.getBytes(StandardCharsets.UTF_8);
+                offsets.put(key, dataEnd + buffer.position() + 2 + pathBytes.length);
+                saved.put(key, changed.get(key));
+                putRecord(buffer, pathBytes, changed.get(key));
+            }
+            writeFully(channel, buffer, dataEnd);
+            dataEnd += appendSize;
+            records += appended.size();
+            // the header is written last, appended records are ignored until it is updated
+            writeHeader(channel);
+            changed.clear();
+        }
     }
 
 }
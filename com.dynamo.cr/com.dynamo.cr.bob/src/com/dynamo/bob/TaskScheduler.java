@@ -0,0 +1,259 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.dynamo.bob.bundle.BundleHelper;
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Runs a set of tasks in dependency order on a bounded thread pool.
+ * A task depends on the tasks producing any of its inputs and is started
+ * as soon as all of those have completed successfully. When a task fails
+ * only the tasks depending on it (directly or indirectly) are skipped.
+ *
+ * The dependency graph is indexed once, from producing task to consuming
+ * tasks, and each task keeps a counter of inputs still being produced.
+ * A task becomes runnable when its counter reaches zero.
+ */
+public class TaskScheduler {
+
+    /**
+     * Runs a single task
+     */
+    public interface ITaskRunner {
+        /**
+         * Run (or skip if up to date) a task.
+         * @param task task to run
+         * @return result of the task or null if the task was up to date
+         */
+        TaskResult run(Task<?> task);
+    }
+
+    private int maxThreads;
+
+    /**
+     * Create a task scheduler
+     * @param maxThreads max number of tasks to run concurrently
+     */
+    public TaskScheduler(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    private class Run {
+        List<Task<?>> tasks;
+        ITaskRunner runner;
+        ExecutorService executor;
+
+        // consumers[i] are the indices of the tasks with an input produced by task i
+        // (one entry per input)
+        int[][] consumers;
+        // number of inputs of each task not yet produced
+        AtomicIntegerArray pending;
+        // set to 1 for tasks that must not run since a task they depend on failed
+        AtomicIntegerArray skipped;
+        TaskResult[] results;
+
+        AtomicBoolean aborted = new AtomicBoolean();
+        // indices of tasks done (run, up to date or skipped), consumed by the calling thread
+        BlockingQueue<Integer> done = new LinkedBlockingQueue<>();
+        // number of tasks submitted to the executor and not yet completed
+        AtomicInteger inFlight = new AtomicInteger();
+
+        Run(List<Task<?>> tasks, ITaskRunner runner, ExecutorService executor) {
+            this.tasks = tasks;
+            this.runner = runner;
+            this.executor = executor;
+            int count = tasks.size();
+            results = new TaskResult[count];
+            pending = new AtomicIntegerArray(count);
+            skipped = new AtomicIntegerArray(count);
+
+            // map from output resource to the index of the task producing it
+            Map<IResource, Integer> producers = new HashMap<>();
+            for (int i = 0; i < count; ++i) {
+                for (IResource output : tasks.get(i).getOutputs()) {
+                    producers.put(output, i);
+                }
+            }
+
+            int[] consumerCounts = new int[count];
+            int[][] inputProducers = new int[count][];
+            for (int i = 0; i < count; ++i) {
+                List<IResource> inputs = tasks.get(i).getInputs();
+                int[] p = new int[inputs.size()];
+                int n = 0;
+                for (IResource input : inputs) {
+                    Integer producer = producers.get(input);
+                    if (producer != null && producer != i) {
+                        p[n++] = producer;
+                        consumerCounts[producer]++;
+                    }
+                }
+                inputProducers[i] = p;
+                pending.set(i, n);
+            }
+
+            consumers = new int[count][];
+            for (int i = 0; i < count; ++i) {
+                consumers[i] = new int[consumerCounts[i]];
+                consumerCounts[i] = 0;
+            }
+            for (int i = 0; i < count; ++i) {
+                for (int j = 0; j < pending.get(i); ++j) {
+                    int producer = inputProducers[i][j];
+                    consumers[producer][consumerCounts[producer]++] = i;
+                }
+            }
+        }
+
+        void start() {
+            for (int i = 0; i < tasks.size(); ++i) {
+                if (pending.get(i) == 0) {
+                    submit(i);
+                }
+            }
+        }
+
+        void submit(final int index) {
+            inFlight.incrementAndGet();
+            executor.execute(() -> {
+                boolean ok = false;
+                try {
+                    ok = execute(index);
+                } finally {
+                    complete(index, ok);
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        boolean execute(int index) {
+            if (skipped.get(index) != 0 || aborted.get()) {
+                return false;
+            }
+            Task<?> task = tasks.get(index);
+            TaskResult taskResult;
+            try {
+                taskResult = runner.run(task);
+            } catch (Throwable e) {
+                taskResult = new TaskResult(task);
+                taskResult.setOk(false);
+                taskResult.setMessage(e.getMessage());
+                taskResult.setException(e);
+            }
+            if (taskResult == null) {
+                return true;
+            }
+            results[index] = taskResult;
+            if (taskResult.getException() != null) {
+                // unexpected error, stop the build
+                aborted.set(true);
+            }
+            return taskResult.isOk();
+        }
+
+        void complete(int index, boolean ok) {
+            // Tasks which won't run are completed right away. An explicit
+            // stack is used since skipping can cascade through long chains.
+            List<Integer> skippedReady = new ArrayList<>();
+            release(index, ok, skippedReady);
+            while (!skippedReady.isEmpty()) {
+                release(skippedReady.remove(skippedReady.size() - 1), false, skippedReady);
+            }
+        }
+
+        void release(int index, boolean ok, List<Integer> skippedReady) {
+            done.add(index);
+            for (int consumer : consumers[index]) {
+                if (!ok) {
+                    skipped.set(consumer, 1);
+                }
+                if (pending.decrementAndGet(consumer) == 0) {
+                    if (skipped.get(consumer) != 0) {
+                        skippedReady.add(consumer);
+                    } else {
+                        submit(consumer);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Run tasks. The returned results are ordered as the tasks
+     * in the task list. Tasks that were up to date or never ran since
+     * a task they depend on failed have no result.
+     * @param tasks tasks to run
+     * @param runner runner to run each task with
+     * @param monitor progress monitor. Updated and checked for cancellation from the calling thread only
+     * @return list of task results
+     */
+    public List<TaskResult> run(List<Task<?>> tasks, ITaskRunner runner, IProgress monitor) {
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+        Run run = new Run(tasks, runner, executor);
+        try {
+            run.start();
+            int completed = 0;
+            while (completed < tasks.size()) {
+                Integer index = run.done.poll(100, TimeUnit.MILLISECONDS);
+                if (index != null) {
+                    ++completed;
+                    monitor.worked(1);
+                }
+                if (monitor.isCanceled()) {
+                    run.aborted.set(true);
+                }
+                if (index == null && run.inFlight.get() == 0 && run.done.isEmpty()) {
+                    // nothing is running but tasks remain, i.e. there is a dependency cycle
+                    for (int i = 0; i < tasks.size(); ++i) {
+                        if (run.pending.get(i) > 0 && run.skipped.get(i) == 0) {
+                            TaskResult taskResult = new TaskResult(tasks.get(i));
+                            taskResult.setOk(false);
+                            taskResult.setMessage("Circular dependency between tasks");
+                            run.results[i] = taskResult;
+                        }
+                    }
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        BundleHelper.throwIfCanceled(monitor);
+
+        List<TaskResult> result = new ArrayList<>();
+        for (TaskResult r : run.results) {
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+}
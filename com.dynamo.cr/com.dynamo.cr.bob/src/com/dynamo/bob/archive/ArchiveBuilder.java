@@ -22,9 +22,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -33,17 +35,24 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.google.protobuf.ByteString;
+
 import com.dynamo.bob.Project;
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.pipeline.graph.ResourceNode;
 import com.dynamo.bob.pipeline.graph.ResourceGraph;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+import com.dynamo.liveupdate.proto.Manifest.HashDigest;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
 
@@ -61,6 +70,8 @@ public class ArchiveBuilder {
     public static final int HASH_MAX_LENGTH = 64; // 512 bits
     public static final int HASH_LENGTH = 20;
     public static final int MD5_HASH_DIGEST_BYTE_LENGTH = 16; // 128 bits
+    // version, pad, user data, entry count, entry offset, hash offset, hash length and md5
+    private static final int INDEX_HEADER_SIZE = 4 + 4 + 8 + 4 * 4 + MD5_HASH_DIGEST_BYTE_LENGTH;
 
     private List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
     private List<ArchiveEntry> excludedEntries = new ArrayList<ArchiveEntry>();
@@ -72,6 +83,7 @@ public class ArchiveBuilder {
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
     private int resourcePadding = 4;
     private boolean forceCompression = false; // for building unit tests to create test content
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
 
     public ArchiveBuilder(String root, ManifestBuilder manifestBuilder, int resourcePadding) {
         this.root = new File(root).getAbsolutePath();
@@ -160,102 +172,197 @@ public class ArchiveBuilder {
         return excludedEntries;
     }
 
+    /**
+     * Set the max number of threads used to compress, encrypt and hash
+     * entries when writing the archive
+     * @param maxThreads max number of threads
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    // An entry loaded, compressed, encrypted and hashed, ready to be written
+    private static class ProcessedEntry {
+        byte[] buffer;
+        int resourceEntryFlags;
+        HashDigest hashDigest;
+    }
+
+    // Called concurrently for different entries
+    private ProcessedEntry processEntry(ArchiveEntry entry) throws IOException, CompileExceptionError {
+        ProcessedEntry processed = new ProcessedEntry();
+        byte[] buffer = this.loadResourceData(entry.getFilename());
+
+        if (entry.isCompressed()) {
+            // Compress data
+            byte[] compressed = this.compressResourceData(buffer);
+            if (this.shouldUseCompressedResourceData(buffer, compressed)) {
+                // Note, when forced, the compressed size may be larger than the original size (For unit tests)
+                buffer = compressed;
+                entry.setCompressedSize(compressed.length);
+                entry.setFlag(ArchiveEntry.FLAG_COMPRESSED);
+                processed.resourceEntryFlags |= ResourceEntryFlag.COMPRESSED.getNumber();
+            } else {
+                entry.setCompressedSize(ArchiveEntry.FLAG_UNCOMPRESSED);
+            }
+        }
+
+        // we need to do this last or the compression won't work as well
+        if (entry.isEncrypted()) {
+            buffer = this.encryptResourceData(buffer);
+            processed.resourceEntryFlags |= ResourceEntryFlag.ENCRYPTED.getNumber();
+        }
+
+        // Calculate hash digest values for resource
+        try {
+            byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
+            entry.setHash(new byte[HASH_MAX_LENGTH]);
+            System.arraycopy(hashDigest, 0, entry.getHash(), 0, hashDigest.length);
+            entry.setHexDigest(ManifestBuilder.CryptographicOperations.hexdigest(hashDigest));
+            processed.hashDigest = HashDigest.newBuilder().setData(ByteString.copyFrom(hashDigest)).build();
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        }
+
+        processed.buffer = buffer;
+        return processed;
+    }
+
+    private static ProcessedEntry waitForEntry(Future<ProcessedEntry> future) throws IOException, CompileExceptionError {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof CompileExceptionError) {
+                throw (CompileExceptionError) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
     public void write(RandomAccessFile archiveIndex, RandomAccessFile archiveData, Path resourcePackDirectory, List<String> excludedResources) throws IOException, CompileExceptionError {
+        write(archiveIndex.getChannel(), archiveData.getChannel(), resourcePackDirectory, excludedResources);
+    }
+
+    private static void writeFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void writeIndexHeader(SeekableByteChannel archiveIndex, int entryCount, int entryOffset, int hashOffset, int hashLength, byte[] md5) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        header.putInt(VERSION); // Version
+        header.putInt(0); // Pad
+        header.putLong(0); // UserData, used in runtime to distinguish between if the index and resources are memory mapped or loaded from disk
+        header.putInt(entryCount); // EntryCount
+        header.putInt(entryOffset); // EntryOffset
+        header.putInt(hashOffset); // HashOffset
+        header.putInt(hashLength); // HashLength
+        header.put(md5);
+        header.flip();
+        writeFully(archiveIndex, header);
+    }
+
+    /**
+     * Write the archive index and data. The channels are written from the
+     * start, and the index channel must also be readable since the index
+     * header is updated with the MD5 of the index once it is written.
+     */
+    public void write(SeekableByteChannel archiveIndex, SeekableByteChannel archiveData, Path resourcePackDirectory, List<String> excludedResources) throws IOException, CompileExceptionError {
         // INDEX
-        archiveIndex.writeInt(VERSION); // Version
-        archiveIndex.writeInt(0); // Pad
-        archiveIndex.writeLong(0); // UserData, used in runtime to distinguish between if the index and resources are memory mapped or loaded from disk
-        archiveIndex.writeInt(0); // EntryCount
-        archiveIndex.writeInt(0); // EntryOffset
-        archiveIndex.writeInt(0); // HashOffset
-        archiveIndex.writeInt(0); // HashLength
-        archiveIndex.write(new byte[MD5_HASH_DIGEST_BYTE_LENGTH]);
+        writeIndexHeader(archiveIndex, 0, 0, 0, 0, new byte[MD5_HASH_DIGEST_BYTE_LENGTH]);
 
-        int archiveIndexHeaderOffset = (int) archiveIndex.getFilePointer();
+        int archiveIndexHeaderOffset = (int) archiveIndex.position();
 
         Collections.sort(entries); // Since it has no hash, it sorts on path
 
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            TimeProfiler.start("Write file");
-            ArchiveEntry entry = entries.get(i);
-            TimeProfiler.addData("res", entry.getFilename());
-
-            byte[] buffer = this.loadResourceData(entry.getFilename());
-
-            int resourceEntryFlags = 0;
-
-            if (entry.isCompressed()) {
-                TimeProfiler.start("Compresss");
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    // Note, when forced, the compressed size may be larger than the original size (For unit tests)
-                    buffer = compressed;
-                    entry.setCompressedSize(compressed.length);
-                    entry.setFlag(ArchiveEntry.FLAG_COMPRESSED);
-                    resourceEntryFlags |= ResourceEntryFlag.COMPRESSED.getNumber();
-                } else {
-                    entry.setCompressedSize(ArchiveEntry.FLAG_UNCOMPRESSED);
-                }
-                TimeProfiler.stop();
+        // Partition the entries into bundled and excluded entries up front,
+        // using a set since there may be thousands of excluded resources
+        Set<String> excludedPaths = new HashSet<>(excludedResources);
+        boolean[] excluded = new boolean[entries.size()];
+        int excludedCount = 0;
+        for (int i = 0; i < entries.size(); ++i) {
+            String normalisedPath = FilenameUtils.separatorsToUnix(entries.get(i).getRelativeFilename());
+            if (excludedPaths.contains(normalisedPath)) {
+                excluded[i] = true;
+                ++excludedCount;
             }
+        }
 
-            // we need to do this last or the compression won't work as well
-            if (entry.isEncrypted()) {
-                TimeProfiler.start("Encrypt");
-                buffer = this.encryptResourceData(buffer);
-                resourceEntryFlags |= ResourceEntryFlag.ENCRYPTED.getNumber();
-                TimeProfiler.stop();
-            }
+        // Entries are loaded, compressed, encrypted and hashed in parallel and
+        // written in order from the calling thread. At most a few entries per
+        // thread are processed ahead of the entry being written.
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+        try {
+            int window = maxThreads * 4;
+            ArrayDeque<Future<ProcessedEntry>> pending = new ArrayDeque<>();
+            int next = entries.size() - 1;
+            for (int i = entries.size() - 1; i >= 0; --i) {
+                while (next >= 0 && pending.size() < window) {
+                    final ArchiveEntry nextEntry = entries.get(next--);
+                    pending.add(executor.submit(() -> processEntry(nextEntry)));
+                }
 
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.getRelativeFilename());
+                TimeProfiler.start("Write file");
+                ArchiveEntry entry = entries.get(i);
+                TimeProfiler.addData("res", entry.getFilename());
 
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                TimeProfiler.start("Hex");
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.setHash(new byte[HASH_MAX_LENGTH]);
-                System.arraycopy(hashDigest, 0, entry.getHash(), 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-                TimeProfiler.stop();
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
-            }
+                ProcessedEntry processed = waitForEntry(pending.poll());
+                byte[] buffer = processed.buffer;
+                int resourceEntryFlags = processed.resourceEntryFlags;
 
-            entry.setHexDigest(hexDigest);
-            hexDigestCache.put(entry.getRelativeFilename(), hexDigest);
+                // Add entry to manifest
+                String normalisedPath = FilenameUtils.separatorsToUnix(entry.getRelativeFilename());
 
-            TimeProfiler.start("Write");
-            // Write resource to resource pack or data archive
-            if (excludedResources.contains(normalisedPath)) {
-                this.writeResourcePack(entry, resourcePackDirectory.toString(), buffer);
-                entries.remove(i);
-                excludedEntries.add(entry);
-                resourceEntryFlags |= ResourceEntryFlag.EXCLUDED.getNumber();
-            } else {
-                alignBuffer(archiveData, this.resourcePadding);
-                entry.setResourceOffset((int) archiveData.getFilePointer());
-                archiveData.write(buffer, 0, buffer.length);
-                resourceEntryFlags |= ResourceEntryFlag.BUNDLED.getNumber();
+                hexDigestCache.put(entry.getRelativeFilename(), entry.getHexDigest());
+
+                TimeProfiler.start("Write");
+                // Write resource to resource pack or data archive
+                if (excluded[i]) {
+                    this.writeResourcePack(entry, resourcePackDirectory.toString(), buffer);
+                    excludedEntries.add(entry);
+                    resourceEntryFlags |= ResourceEntryFlag.EXCLUDED.getNumber();
+                } else {
+                    alignBuffer(archiveData, this.resourcePadding);
+                    entry.setResourceOffset((int) archiveData.position());
+                    writeFully(archiveData, ByteBuffer.wrap(buffer));
+                    resourceEntryFlags |= ResourceEntryFlag.BUNDLED.getNumber();
+                }
+                TimeProfiler.stop();
+
+                manifestBuilder.addResourceEntry(normalisedPath, processed.hashDigest, entry.getSize(), entry.getCompressedSize(), resourceEntryFlags);
+                TimeProfiler.stop();
             }
-            TimeProfiler.stop();
+        } finally {
+            executor.shutdownNow();
+        }
 
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, entry.getSize(), entry.getCompressedSize(), resourceEntryFlags);
-            TimeProfiler.stop();
+        // Keep only the bundled entries, in the same order as before
+        List<ArchiveEntry> bundledEntries = new ArrayList<>(entries.size() - excludedCount);
+        for (int i = 0; i < entries.size(); ++i) {
+            if (!excluded[i]) {
+                bundledEntries.add(entries.get(i));
+            }
         }
+        entries = bundledEntries;
 
         Collections.sort(entries); // Since it has a hash, it sorts on hash
 
         // Write sorted hashes to index file
-        int hashOffset = (int) archiveIndex.getFilePointer();
+        int hashOffset = (int) archiveIndex.position();
         for(ArchiveEntry entry : entries) {
-            archiveIndex.write(entry.getHash());
+            writeFully(archiveIndex, ByteBuffer.wrap(entry.getHash()));
         }
 
         // Write sorted entries to index file
-        int entryOffset = (int) archiveIndex.getFilePointer();
+        int entryOffset = (int) archiveIndex.position();
         alignBuffer(archiveIndex, 4);
 
         ByteBuffer indexBuffer = ByteBuffer.allocate(4 * 4 * entries.size());
@@ -265,15 +372,21 @@ public class ArchiveBuilder {
             indexBuffer.putInt(entry.getCompressedSize());
             indexBuffer.putInt(entry.getFlags());
         }
-        archiveIndex.write(indexBuffer.array());
+        indexBuffer.flip();
+        writeFully(archiveIndex, indexBuffer);
 
         byte[] archiveIndexMD5 = null;
         try {
             // Calc index file MD5 hash
-            archiveIndex.seek(archiveIndexHeaderOffset);
-            int num_bytes = (int) archiveIndex.length() - archiveIndexHeaderOffset;
+            archiveIndex.position(archiveIndexHeaderOffset);
+            int num_bytes = (int) archiveIndex.size() - archiveIndexHeaderOffset;
             byte[] archiveIndexBytes = new byte[num_bytes];
-            archiveIndex.readFully(archiveIndexBytes);
+            ByteBuffer readBuffer = ByteBuffer.wrap(archiveIndexBytes);
+            while (readBuffer.hasRemaining()) {
+                if (archiveIndex.read(readBuffer) == -1) {
+                    throw new IOException("Unexpected end of archive index");
+                }
+            }
             archiveIndexMD5 = ManifestBuilder.CryptographicOperations.hash(archiveIndexBytes, HashAlgorithm.HASH_MD5);
             manifestBuilder.setArchiveIdentifier(archiveIndexMD5);
         } catch (NoSuchAlgorithmException e) {
@@ -281,24 +394,17 @@ public class ArchiveBuilder {
         }
 
         // Update index header with offsets
-        archiveIndex.seek(0);
-        archiveIndex.writeInt(VERSION);
-        archiveIndex.writeInt(0); // Pad
-        archiveIndex.writeLong(0); // UserData
-        archiveIndex.writeInt(entries.size());
-        archiveIndex.writeInt(entryOffset);
-        archiveIndex.writeInt(hashOffset);
-        archiveIndex.writeInt(ManifestBuilder.CryptographicOperations.getHashSize(manifestBuilder.getResourceHashAlgorithm()));
-        archiveIndex.write(archiveIndexMD5);
+        archiveIndex.position(0);
+        writeIndexHeader(archiveIndex, entries.size(), entryOffset, hashOffset, ManifestBuilder.CryptographicOperations.getHashSize(manifestBuilder.getResourceHashAlgorithm()), archiveIndexMD5);
     }
 
-    private void alignBuffer(RandomAccessFile outFile, int align) throws IOException {
-        int pos = (int) outFile.getFilePointer();
-        int newPos = (int) (outFile.getFilePointer() + (align - 1));
+    private void alignBuffer(SeekableByteChannel outFile, int align) throws IOException {
+        int pos = (int) outFile.position();
+        int newPos = (int) (outFile.position() + (align - 1));
         newPos &= ~(align - 1);
 
-        for (int i = 0; i < (newPos - pos); ++i) {
-            outFile.writeByte((byte) 0);
+        if (newPos > pos) {
+            writeFully(outFile, ByteBuffer.allocate(newPos - pos));
         }
     }
 
@@ -404,20 +404,28 @@ public class ManifestBuilder {
 
     public void addResourceEntry(String url, byte[] data, int size, int compressed_size, int flags) throws IOException {
         try {
-            ResourceEntry.Builder builder = ResourceEntry.newBuilder();
-            builder.setUrl(url);
-            builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
             HashDigest hash = CryptographicOperations.createHashDigest(data, this.resourceHashAlgorithm);
-            builder.setHash(hash);
-            builder.setFlags(flags);
-            builder.setSize(size);
-            builder.setCompressedSize(compressed_size);
-            this.resourceEntries.add(builder.buildPartial());
+            addResourceEntry(url, hash, size, compressed_size, flags);
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create Manifest, hashing algorithm is not supported!");
         }
     }
 
+    /**
+     * Add a resource entry with a hash already calculated using the
+     * resource hash algorithm
+     */
+    public void addResourceEntry(String url, HashDigest hash, int size, int compressed_size, int flags) {
+        ResourceEntry.Builder builder = ResourceEntry.newBuilder();
+        builder.setUrl(url);
+        builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
+        builder.setHash(hash);
+        builder.setFlags(flags);
+        builder.setSize(size);
+        builder.setCompressedSize(compressed_size);
+        this.resourceEntries.add(builder.buildPartial());
+    }
+
     public HashSet<ResourceNode> getAllDependants(ResourceNode node) throws IOException {
         /* Once a candidate has been found the children, the children, and so
            on are added to the list of dependants. If a CollectionProxy is
@@ -52,16 +52,32 @@ public class ZipPublisher extends Publisher {
     @Override
     public void Publish() throws CompileExceptionError {
         try {
-            String tempFilePrefix = "defold.resourcepack_" + this.platform + "_";
-            this.resourcePackZip = File.createTempFile(tempFilePrefix, ".zip");
+            File exportDirectory = new File(this.getPublisherSettings().getZipFilepath());
+            if (!exportDirectory.isAbsolute())
+            {
+                File cwd = new File(this.projectRoot);
+                exportDirectory = new File(cwd, exportDirectory.getPath());
+            }
 
-            String outputName = this.resourcePackZip.getName();
-            if (this.filename != null) {
-                outputName = this.filename;
+            File exportFilehandle = this.filename != null ? new File(exportDirectory, this.filename) : null;
+            File parentDir = exportFilehandle != null ? exportFilehandle.getParentFile() : exportDirectory;
+            if (!parentDir.exists()) {
+                parentDir.mkdirs();
+            } else if (!parentDir.isDirectory()) {
+                throw new IOException(String.format("'%s' exists, and is not a directory", parentDir));
+            }
+
+            // Write to a temporary file in the export directory so that it can
+            // be moved in place without copying it between file systems
+            String tempFilePrefix = "defold.resourcepack_" + this.platform + "_";
+            this.resourcePackZip = File.createTempFile(tempFilePrefix, ".zip", parentDir);
+            if (exportFilehandle == null) {
+                exportFilehandle = this.resourcePackZip;
             }
 
             FileOutputStream resourcePackOutputStream = new FileOutputStream(this.resourcePackZip);
             ZipOutputStream zipOutputStream = new ZipOutputStream(resourcePackOutputStream);
+            boolean success = false;
             try {
                 for (File fhandle : this.getEntries().keySet()) {
                     ZipEntry currentEntry = new ZipEntry(fhandle.getName());
@@ -69,29 +85,21 @@ public class ZipPublisher extends Publisher {
                     FileUtil.writeToStream(fhandle, zipOutputStream);
                     zipOutputStream.closeEntry();
                 }
+                success = true;
             } catch (FileNotFoundException exception) {
                 throw new CompileExceptionError("Unable to find required file for liveupdate resources: " + exception.getMessage(), exception);
             } catch (IOException exception) {
                 throw new CompileExceptionError("Unable to write to zip archive for liveupdate resources: " + exception.getMessage(), exception);
             } finally {
                 IOUtils.closeQuietly(zipOutputStream);
+                if (!success) {
+                    this.resourcePackZip.delete();
+                }
             }
 
-            File exportFilehandle = new File(this.getPublisherSettings().getZipFilepath(), outputName);
-            if (!exportFilehandle.isAbsolute())
-            {
-                File cwd = new File(this.projectRoot);
-                exportFilehandle = new File(cwd, exportFilehandle.getPath());
-            }
-
-            File parentDir = exportFilehandle.getParentFile();
-            if (!parentDir.exists()) {
-                parentDir.mkdirs();
-            } else if (!parentDir.isDirectory()) {
-                throw new IOException(String.format("'%s' exists, and is not a directory", parentDir));
+            if (!exportFilehandle.equals(this.resourcePackZip)) {
+                Files.move(this.resourcePackZip.toPath(), exportFilehandle.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             }
-
-            Files.move(this.resourcePackZip.toPath(), exportFilehandle.toPath(), StandardCopyOption.REPLACE_EXISTING);
             System.out.printf("\nZipPublisher: Wrote '%s'\n", exportFilehandle);
         } catch (IOException exception) {
             throw new CompileExceptionError("Unable to create zip archive for liveupdate resources: " + exception.getMessage(), exception);
@@ -14,19 +14,91 @@
 
 package com.dynamo.bob.cache;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
 
 import com.dynamo.bob.util.HttpUtil;
 import com.dynamo.bob.logging.Logger;
 
+/**
+ * Cache of built resources, keyed by {@link ResourceCacheKey}.
+ * Resources are stored in a local cache directory and optionally in a remote
+ * cache. The local cache is sharded into subdirectories by the first two
+ * characters of the key and the entries are tracked in a
+ * {@link ResourceCacheIndex}. When a max size is set the least recently used
+ * entries are evicted in {@link #flush()}. The cache directory can be shared
+ * by several processes: the index is merged with the saved index under a file
+ * lock when flushed, and keys missing from the index are looked up in the
+ * cache directory, since another process may have added them.
+ *
+ * All communication with the remote cache happens on a background thread
+ * pool: existence checks (and downloads of the hits) can be requested up
+ * front for many keys using {@link #prefetch(Collection)} and uploads are
+ * queued and waited for in {@link #flush()}.
+ *
+ * Each cache entry starts with a small header followed by the resource,
+ * either as is or LZ4 compressed if that makes it noticeably smaller:
+ *   int magic, byte version, byte compression, short reserved
+ * Resources are restored from the cache by streaming them from the entry
+ * file using {@link #getStream(String)}.
+ */
 public class ResourceCache {
 
 	private static Logger logger = Logger.getLogger(ResourceCache.class.getName());
 
+	// max number of concurrent requests to the remote cache
+	private static final int REMOTE_THREADS = 8;
+
+	private static final String INDEX_FILENAME = "index";
+
+	// locked while merging and saving the index, which is shared with
+	// other processes using the same cache directory
+	private static final String INDEX_LOCK_FILENAME = "index.lock";
+
+	private static final String DOWNLOAD_SUFFIX = ".download";
+
+	// keys are SHA1 digests as hex strings without leading zeros, see
+	// ResourceCacheKey, stored in directories named after the first two
+	// characters of the key
+	private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{1,40}");
+	private static final Pattern SHARD_PATTERN = Pattern.compile("[0-9a-f]{2}");
+
+	private static final int ENTRY_MAGIC = 0x42524345;
+	private static final int ENTRY_VERSION = 1;
+	private static final int COMPRESSION_NONE = 0;
+	private static final int COMPRESSION_LZ4 = 1;
+
 	private String localCacheDir;
 
 	private String remoteCacheUrl;
@@ -35,6 +107,18 @@ public class ResourceCache {
 
 	private boolean enabled = false;
 
+	private ResourceCacheIndex index = new ResourceCacheIndex();
+
+	// max size in bytes of the local cache, 0 for no limit
+	private long maxLocalCacheSize = 0;
+
+	private ExecutorService remoteExecutor;
+
+	// result of looking up a key in the remote cache, true if it was found and downloaded
+	private Map<String, Future<Boolean>> remoteLookups = new ConcurrentHashMap<>();
+
+	private List<Future<?>> uploads = new ArrayList<>();
+
 	public ResourceCache() {}
 
 	public void init(String localCacheDir, String remoteCacheUrl) {
@@ -42,44 +126,233 @@ public class ResourceCache {
 		this.localCacheDir = localCacheDir;
 		this.remoteCacheUrl = remoteCacheUrl;
 		this.enabled = localCacheDir != null;
+		index.clear();
 		if (localCacheDir != null) {
 			File f = new File(localCacheDir);
 			if (!f.exists()) {
 				f.mkdirs();
 			}
+			if (!index.load(new File(localCacheDir, INDEX_FILENAME))) {
+				rebuildIndex();
+			}
+		}
+		if (remoteExecutor != null) {
+			remoteExecutor.shutdownNow();
+			remoteExecutor = null;
+		}
+		remoteLookups.clear();
+		synchronized (uploads) {
+			uploads.clear();
+		}
+		if (enabled && remoteCacheUrl != null) {
+			remoteExecutor = Executors.newFixedThreadPool(REMOTE_THREADS, r -> {
+				Thread thread = new Thread(r, "ResourceCache remote");
+				thread.setDaemon(true);
+				return thread;
+			});
 		}
 	}
 
 	private File fileFromKey(String key) {
-		return new File(localCacheDir, key);
+		String shard = key.length() >= 2 ? key.substring(0, 2) : "00";
+		return new File(new File(localCacheDir, shard), key);
+	}
+
+	/**
+	 * Create the index from the files in the local cache. Used when
+	 * the index is missing or can't be read. Only files named like cache
+	 * keys, in the two character shard directories, are added. Entries
+	 * in the old flat cache layout and partial downloads are removed.
+	 * Anything else in the cache directory is left as is.
+	 */
+	private void rebuildIndex() {
+		logger.info("Rebuilding resource cache index in '%s'", localCacheDir);
+		File[] files = new File(localCacheDir).listFiles();
+		if (files == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory() && SHARD_PATTERN.matcher(name).matches()) {
+				File[] entries = file.listFiles();
+				if (entries == null) {
+					continue;
+				}
+				for (File entry : entries) {
+					String key = entry.getName();
+					if (key.startsWith("tmp") && key.endsWith(DOWNLOAD_SUFFIX)) {
+						entry.delete();
+					}
+					else if (entry.isFile() && KEY_PATTERN.matcher(key).matches() && fileFromKey(key).getParentFile().getName().equals(name)) {
+						index.add(key, entry.length(), Math.min(entry.lastModified(), now));
+					}
+				}
+			}
+			else if (file.isFile() && KEY_PATTERN.matcher(name).matches()) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Check if a resource is in the local cache. Resources added by other
+	 * processes since the index was loaded are found and added to the index.
+	 */
+	private boolean containsLocal(String key) {
+		if (index.contains(key)) {
+			return true;
+		}
+		File file = fileFromKey(key);
+		if (file.isFile()) {
+			index.add(key, file.length(), System.currentTimeMillis());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Merge the index with the index file, evict resources if the cache is
+	 * too large and save the index. Done with the index file locked, both
+	 * within this process and against other processes.
+	 */
+	private void saveIndex() throws IOException {
+		if (!index.hasChanges()) {
+			return;
+		}
+		File indexFile = new File(localCacheDir, INDEX_FILENAME);
+		synchronized (ResourceCache.class) {
+			try (FileChannel channel = FileChannel.open(new File(localCacheDir, INDEX_LOCK_FILENAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				 FileLock lock = channel.lock()) {
+				index.merge(indexFile);
+				evict();
+				index.save(indexFile);
+			}
+		}
+	}
+
+	/**
+	 * Remove the least recently used entries until the local cache is
+	 * below the max size. Evicts down to 90% of the max size so that it
+	 * doesn't have to be done again after the next few entries are added.
+	 */
+	private void evict() {
+		if (maxLocalCacheSize <= 0 || index.getTotalSize() <= maxLocalCacheSize) {
+			return;
+		}
+		List<String> keys = index.getEvictionCandidates(maxLocalCacheSize / 10 * 9);
+		logger.fine("Evicting %d resources from the local cache", keys.size());
+		for (String key : keys) {
+			fileFromKey(key).delete();
+			index.remove(key);
+		}
 	}
 
 	private URL urlFromFile(File file) throws MalformedURLException {
 		return new URL(remoteCacheUrl + "/" + file.getName());
 	}
 
-	private void saveToLocalCache(File file, byte[] data) throws IOException {
-		logger.fine("Resource '%s' saved to the local cache", file);
-		Files.write(file.toPath(), data);
+	private static void writeEntryHeader(OutputStream os, int compression) throws IOException {
+		DataOutputStream dos = new DataOutputStream(os);
+		dos.writeInt(ENTRY_MAGIC);
+		dos.writeByte(ENTRY_VERSION);
+		dos.writeByte(compression);
+		dos.writeShort(0);
+		dos.flush();
 	}
 
-	private byte[] loadFromLocalCache(File file) throws IOException {
-		if (file.exists()) {
-			logger.fine("Resource '%s' loaded from the local cache", file);
-			return Files.readAllBytes(file.toPath());
+	/**
+	 * Read the header of a cache entry
+	 * @return The compression of the entry or -1 if the header is invalid
+	 */
+	private static int readEntryHeader(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		try {
+			int magic = dis.readInt();
+			int version = dis.readByte();
+			int compression = dis.readByte();
+			dis.readShort();
+			if (magic != ENTRY_MAGIC || version != ENTRY_VERSION) {
+				return -1;
+			}
+			if (compression != COMPRESSION_NONE && compression != COMPRESSION_LZ4) {
+				return -1;
+			}
+			return compression;
+		}
+		catch (EOFException e) {
+			return -1;
 		}
-		return null;
 	}
 
-	private void uploadToRemoteCache(File file) throws MalformedURLException {
-		if (remoteCacheUrl == null) {
-			return;
+	private static boolean isValidEntry(File file) throws IOException {
+		try (InputStream is = new FileInputStream(file)) {
+			return readEntryHeader(is) != -1;
+		}
+	}
+
+	private void saveToLocalCache(String key, File file, byte[] data) throws IOException {
+		// only keep the compressed data if it is noticeably smaller
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+		try (LZ4FrameOutputStream lz4 = new LZ4FrameOutputStream(compressed)) {
+			lz4.write(data);
+		}
+		boolean useCompression = compressed.size() < data.length - data.length / 10;
+
+		file.getParentFile().mkdirs();
+		// write to a temporary file first so that a partially
+		// written resource is never found in the local cache
+		File tmp = File.createTempFile("tmp" + key, DOWNLOAD_SUFFIX, file.getParentFile());
+		try (OutputStream os = new FileOutputStream(tmp)) {
+			if (useCompression) {
+				writeEntryHeader(os, COMPRESSION_LZ4);
+				compressed.writeTo(os);
+			}
+			else {
+				writeEntryHeader(os, COMPRESSION_NONE);
+				os.write(data);
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		index.add(key, file.length(), System.currentTimeMillis());
+		logger.fine("Resource '%s' saved to the local cache", file);
+	}
+
+	private InputStream loadFromLocalCache(String key, File file) throws IOException {
+		FileInputStream is;
+		try {
+			is = new FileInputStream(file);
+		}
+		catch (FileNotFoundException e) {
+			// removed from the cache directory by someone else
+			index.remove(key);
+			return null;
 		}
+		int compression = readEntryHeader(is);
+		if (compression == -1) {
+			// written by an older version
+			is.close();
+			logger.fine("Resource '%s' in the local cache has an unknown format", file);
+			file.delete();
+			index.remove(key);
+			return null;
+		}
+		logger.fine("Resource '%s' loaded from the local cache", file);
+		index.touch(key, System.currentTimeMillis());
+		if (compression == COMPRESSION_LZ4) {
+			return new LZ4FrameInputStream(is);
+		}
+		// return the file stream as is, positioned after the header,
+		// so that it can be transferred directly to a file channel
+		return is;
+	}
+
+	private void uploadToRemoteCache(File file, boolean checkExists) throws MalformedURLException {
 		if (!file.exists()) {
 			return;
 		}
 		URL url = urlFromFile(file);
-		if (!http.exists(url)) {
+		if (!checkExists || !http.exists(url)) {
 			http.uploadFile(url, file);
 			logger.fine("Resource '%s' uploaded to the remote cache", file);
 		}
@@ -88,18 +361,53 @@ public class ResourceCache {
 		}
 	}
 
-	private void downloadFromRemoteCache(File file) throws MalformedURLException {
-		if (remoteCacheUrl == null) {
-			return;
-		}
+	private boolean downloadFromRemoteCache(String key, File file) throws IOException {
 		URL url = urlFromFile(file);
 		if (http.exists(url)) {
-			http.downloadToFile(url, file);
+			// download to a temporary file first so that a partially
+			// downloaded resource is never found in the local cache
+			file.getParentFile().mkdirs();
+			File tmp = File.createTempFile("tmp" + key, DOWNLOAD_SUFFIX, file.getParentFile());
+			http.downloadToFile(url, tmp);
+			if (!isValidEntry(tmp)) {
+				tmp.delete();
+				logger.fine("Resource '%s' in the remote cache has an unknown format", file);
+				return false;
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			index.add(key, file.length(), System.currentTimeMillis());
 			logger.fine("Resource '%s' downloaded from the remote cache", file);
+			return true;
 		}
 		else {
 			logger.fine("Resource '%s' does not exist in the remote cache", file);
+			return false;
+		}
+	}
+
+	private Future<Boolean> lookupRemote(final String key) {
+		return remoteLookups.computeIfAbsent(key, k -> remoteExecutor.submit(() -> {
+			try {
+				return downloadFromRemoteCache(k, fileFromKey(k));
+			}
+			catch (Exception e) {
+				logger.warning("Unable to get resource '%s' from the remote cache: %s", k, e.getMessage());
+				return false;
+			}
+		}));
+	}
+
+	private boolean waitForRemote(String key) throws IOException {
+		try {
+			return lookupRemote(key).get();
 		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private boolean isRemoteEnabled() {
+		return enabled && remoteExecutor != null;
 	}
 
 	/**
@@ -111,6 +419,16 @@ public class ResourceCache {
 		return localCacheDir != null;
 	}
 
+	/**
+	 * Set the max size of the local cache. The least recently used
+	 * resources are removed from the local cache in {@link #flush()}
+	 * when it has grown larger than this.
+	 * @param maxSize Max size in bytes or 0 for no limit
+	 */
+	public void setMaxLocalCacheSize(long maxSize) {
+		this.maxLocalCacheSize = maxSize;
+	}
+
 	/**
 	 * Set authentication information to use when communicating with the
 	 * remote cache.
@@ -123,8 +441,29 @@ public class ResourceCache {
 		http.setAuthentication(user, pass);
 	}
 
+	/**
+	 * Start looking up keys in the remote cache. Resources found are
+	 * downloaded to the local cache in the background. Later calls to
+	 * {@link #contains(String)} and {@link #get(String)} for these keys
+	 * wait for the lookup instead of making a request of their own.
+	 * Does nothing if there is no remote cache.
+	 * @param keys Keys to look up
+	 */
+	public void prefetch(Collection<String> keys) {
+		if (!isRemoteEnabled()) {
+			return;
+		}
+		for (String key : keys) {
+			if (!containsLocal(key)) {
+				lookupRemote(key);
+			}
+		}
+	}
+
 	/**
 	 * Put data in the resource cache
+	 * The data is written to the local cache directly while the upload to
+	 * the remote cache is queued. Call {@link #flush()} to wait for uploads.
 	 * @param key Key to associate data with
 	 * @param data The data to store
 	 */
@@ -132,15 +471,45 @@ public class ResourceCache {
 		if (!enabled) {
 			return;
 		}
-		File file = fileFromKey(key);
-		if (file.exists()) {
+		if (containsLocal(key)) {
 			// file is already in the local cache
 			return;
 		}
 
+		File file = fileFromKey(key);
 		logger.fine("Caching resource '%s'", file);
-		saveToLocalCache(file, data);
-		uploadToRemoteCache(file);
+		saveToLocalCache(key, file, data);
+		if (isRemoteEnabled()) {
+			// no need to check the remote cache again if we already know it's missing
+			Future<Boolean> lookup = remoteLookups.get(key);
+			final boolean checkExists = lookup == null || !lookup.isDone();
+			Future<?> upload = remoteExecutor.submit(() -> {
+				uploadToRemoteCache(file, checkExists);
+				return null;
+			});
+			synchronized (uploads) {
+				uploads.add(upload);
+			}
+		}
+	}
+
+	/**
+	 * Get a stream with data from the resource cache. The data is streamed
+	 * from the cache entry, and decompressed if needed, without reading all
+	 * of it to memory. If the entry isn't compressed the returned stream is a
+	 * {@link FileInputStream} that can be transferred directly to a file.
+	 * @param key Key associated with the data to get
+	 * @return Stream with the data, to be closed by the caller, or null if no data exists in the cache
+	 */
+	public InputStream getStream(String key) throws IOException {
+		if (!enabled) {
+			return null;
+		}
+		if (!containsLocal(key) && isRemoteEnabled()) {
+			waitForRemote(key);
+		}
+
+		return loadFromLocalCache(key, fileFromKey(key));
 	}
 
 	/**
@@ -149,15 +518,16 @@ public class ResourceCache {
 	 * @return The data or null if no data exists in the cache
 	 */
 	public byte[] get(String key) throws IOException {
-		if (!enabled) {
+		InputStream is = getStream(key);
+		if (is == null) {
 			return null;
 		}
-		File file = fileFromKey(key);
-		if (!file.exists()) {
-			downloadFromRemoteCache(file);
+		try {
+			return IOUtils.toByteArray(is);
+		}
+		finally {
+			is.close();
 		}
-
-		return loadFromLocalCache(file);
 	}
 
 	/**
@@ -169,7 +539,34 @@ public class ResourceCache {
 		if (!enabled) {
 			return false;
 		}
-		File f = fileFromKey(key);
-		return f.exists() || (remoteCacheUrl != null && http.exists(urlFromFile(f)));
+		return containsLocal(key) || (isRemoteEnabled() && waitForRemote(key));
+	}
+
+	/**
+	 * Wait for all queued uploads to the remote cache to finish, evict
+	 * resources from the local cache if it is too large and save the index.
+	 * Failed uploads are logged but do not fail the build.
+	 */
+	public void flush() throws IOException {
+		List<Future<?>> pending;
+		synchronized (uploads) {
+			pending = new ArrayList<>(uploads);
+			uploads.clear();
+		}
+		for (Future<?> upload : pending) {
+			try {
+				upload.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (ExecutionException e) {
+				logger.warning("Unable to upload resource to the remote cache: %s", e.getCause().getMessage());
+			}
+		}
+		if (enabled) {
+			saveIndex();
+		}
 	}
 }
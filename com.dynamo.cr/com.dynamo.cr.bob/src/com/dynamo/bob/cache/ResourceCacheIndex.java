@@ -0,0 +1,279 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the entries in the local resource cache, with the size
+ * and last access time of each entry. The index is persisted in a compact
+ * binary file in the cache directory so that checking if a resource is
+ * cached doesn't require a file system lookup.
+ *
+ * Several processes can share a cache directory. The changes made through
+ * an index are kept track of so that they can be merged with the changes
+ * other processes have saved to the index file since it was loaded, see
+ * {@link #merge(File)}.
+ *
+ * File format (big endian):
+ *   int magic, int version, int count
+ *   count * (UTF key, long size, long lastAccess)
+ */
+public class ResourceCacheIndex {
+
+	private static final int MAGIC = 0x52434958;
+	private static final int VERSION = 1;
+
+	private static class Entry {
+		final long size;
+		volatile long lastAccess;
+
+		Entry(long size, long lastAccess) {
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	private volatile Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	// keys added or used, and keys removed, since the index was loaded or merged
+	private Set<String> changedKeys = ConcurrentHashMap.newKeySet();
+	private Set<String> removedKeys = ConcurrentHashMap.newKeySet();
+
+	private AtomicLong totalSize = new AtomicLong();
+
+	private volatile boolean dirty = false;
+
+	public ResourceCacheIndex() {}
+
+	/**
+	 * Load the index from a file
+	 * @param file The index file
+	 * @return true if the index was loaded, false if it doesn't exist or is invalid
+	 */
+	public boolean load(File file) {
+		clear();
+		if (!read(file, entries)) {
+			clear();
+			return false;
+		}
+		updateTotalSize();
+		return true;
+	}
+
+	private static boolean read(File file, Map<String, Entry> entries) {
+		if (!file.exists()) {
+			return false;
+		}
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+				return false;
+			}
+			int count = is.readInt();
+			for (int i = 0; i < count; ++i) {
+				String key = is.readUTF();
+				long size = is.readLong();
+				long lastAccess = is.readLong();
+				entries.put(key, new Entry(size, lastAccess));
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private void updateTotalSize() {
+		long size = 0;
+		for (Entry entry : entries.values()) {
+			size += entry.size;
+		}
+		totalSize.set(size);
+	}
+
+	/**
+	 * Check if entries were added, used or removed since the index was
+	 * loaded or last merged
+	 * @return true if there are changes
+	 */
+	public boolean hasChanges() {
+		return !changedKeys.isEmpty() || !removedKeys.isEmpty();
+	}
+
+	/**
+	 * Merge the changes made to this index since it was loaded or last
+	 * merged with the current contents of the index file, which may have
+	 * been saved by other processes sharing the cache directory. Entries
+	 * removed from the file by others are dropped unless added or used
+	 * through this index. Should be called with the index file locked and
+	 * followed by {@link #save(File)}, and not while entries are changed.
+	 * @param file The index file
+	 */
+	public void merge(File file) {
+		Map<String, Entry> merged = new ConcurrentHashMap<>();
+		if (!read(file, merged)) {
+			merged.clear();
+		}
+		for (String key : removedKeys) {
+			merged.remove(key);
+		}
+		for (String key : changedKeys) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				continue;
+			}
+			Entry saved = merged.get(key);
+			if (saved != null && saved.lastAccess > entry.lastAccess) {
+				entry.lastAccess = saved.lastAccess;
+			}
+			merged.put(key, entry);
+		}
+		dirty = hasChanges();
+		changedKeys.clear();
+		removedKeys.clear();
+		entries = merged;
+		updateTotalSize();
+	}
+
+	/**
+	 * Save the index to a file if it has changed since it was loaded.
+	 * The file is replaced atomically.
+	 * @param file The index file
+	 */
+	public void save(File file) throws IOException {
+		if (!dirty) {
+			return;
+		}
+		// unique name since other processes may be saving the same index
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+		try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(snapshot.size());
+			for (Map.Entry<String, Entry> e : snapshot) {
+				os.writeUTF(e.getKey());
+				os.writeLong(e.getValue().size);
+				os.writeLong(e.getValue().lastAccess);
+			}
+		}
+		catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		changedKeys.clear();
+		removedKeys.clear();
+		dirty = false;
+	}
+
+	public void clear() {
+		entries.clear();
+		changedKeys.clear();
+		removedKeys.clear();
+		totalSize.set(0);
+		dirty = false;
+	}
+
+	public boolean contains(String key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Add an entry or replace an existing entry
+	 * @param key The key of the entry
+	 * @param size Size in bytes of the entry
+	 * @param lastAccess Time of last access in milliseconds
+	 */
+	public void add(String key, long size, long lastAccess) {
+		Entry old = entries.put(key, new Entry(size, lastAccess));
+		totalSize.addAndGet(size - (old != null ? old.size : 0));
+		changedKeys.add(key);
+		removedKeys.remove(key);
+		dirty = true;
+	}
+
+	/**
+	 * Update the access time of an entry
+	 * @param key The key of the entry
+	 * @param lastAccess Time of last access in milliseconds
+	 */
+	public void touch(String key, long lastAccess) {
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			entry.lastAccess = lastAccess;
+			changedKeys.add(key);
+			dirty = true;
+		}
+	}
+
+	public void remove(String key) {
+		Entry old = entries.remove(key);
+		if (old != null) {
+			totalSize.addAndGet(-old.size);
+			dirty = true;
+		}
+		changedKeys.remove(key);
+		removedKeys.add(key);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getTotalSize() {
+		return totalSize.get();
+	}
+
+	/**
+	 * Get the least recently used entries to remove to bring the total
+	 * size of the cache down to a specific size
+	 * @param targetSize The size in bytes to get down to
+	 * @return Keys of the entries to remove, least recently used first
+	 */
+	public List<String> getEvictionCandidates(long targetSize) {
+		List<String> keys = new ArrayList<>();
+		long size = totalSize.get();
+		if (size <= targetSize) {
+			return keys;
+		}
+		List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+		snapshot.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+		for (Map.Entry<String, Entry> e : snapshot) {
+			if (size <= targetSize) {
+				break;
+			}
+			keys.add(e.getKey());
+			size -= e.getValue().size;
+		}
+		return keys;
+	}
+}
@@ -14,11 +14,24 @@
 
 package com.dynamo.bob.font;
 
+import java.util.Arrays;
+
 public class DistanceFieldGenerator
 {
     public double[] lineSegments = new double[32768];
     public int lineSegmentsEnd = 0;
 
+    // Uniform grid over the line segments, used by render() to only test the
+    // segments close to each pixel. Built for the area being rendered.
+    private double gridMinX;
+    private double gridMinY;
+    private double gridCellSize;
+    private int gridWidth;
+    private int gridHeight;
+    // Segments (offsets into lineSegments) of cell i are cellSegments[cellStart[i]..cellStart[i+1]]
+    private int[] cellStart;
+    private int[] cellSegments;
+
     public DistanceFieldGenerator()
     {
 
@@ -26,6 +39,10 @@ public class DistanceFieldGenerator
 
     public void addLine(double x0, double y0, double x1, double y1)
     {
+        if (lineSegmentsEnd + 5 > lineSegments.length)
+        {
+            lineSegments = Arrays.copyOf(lineSegments, lineSegments.length * 2);
+        }
         lineSegments[lineSegmentsEnd+0] = x0;
         lineSegments[lineSegmentsEnd+1] = y0;
         lineSegments[lineSegmentsEnd+2] = x1 - x0;
@@ -34,53 +51,179 @@ public class DistanceFieldGenerator
         lineSegmentsEnd += 5;
     }
 
+    // Squared distance from [x, y] to the line segment at offset i
+    private double segmentDistSqr(int i, double x, double y)
+    {
+        double x0 = lineSegments[i];
+        double y0 = lineSegments[i+1];
+        double dx = lineSegments[i+2];
+        double dy = lineSegments[i+3];
+        double k = lineSegments[i+4];
+
+        double dx0 = x - x0;
+        double dy0 = y - y0;
+        double t = k * (dx * dx0 + dy * dy0);
+
+        if (t < 0)
+        {
+            // Closest point is t=0 of the line
+            return dx0 * dx0 + dy0 * dy0;
+        }
+        else if (t > 1)
+        {
+            // Closest point is t=1 of the line
+            double xx = x - (x0 + dx);
+            double yy = y - (y0 + dy);
+            return xx*xx + yy*yy;
+        }
+        else
+        {
+            // Case when the closest point is along the line, and t will be [0,1]
+            double px = x0 + t * dx - x;
+            double py = y0 + t * dy - y;
+            return px*px + py*py;
+        }
+    }
+
     // Compute the minimal distance from [x, y] to any of the line segments
     public double distSqr(double x, double y)
     {
         double distMin = 10000000;
         for (int i=0;i<lineSegmentsEnd;i+=5)
         {
-            double x0 = lineSegments[i];
-            double y0 = lineSegments[i+1];
-            double dx = lineSegments[i+2];
-            double dy = lineSegments[i+3];
-            double k = lineSegments[i+4];
+            double distSqr = segmentDistSqr(i, x, y);
+            if (distSqr < distMin)
+                distMin = distSqr;
+        }
+        return distMin;
+    }
+
+    // Build the grid so that it covers both the segments and the area [x0, y0] - [x1, y1].
+    // There is roughly one cell per segment and a margin of one cell on all sides.
+    private void buildGrid(double x0, double y0, double x1, double y1)
+    {
+        int segmentCount = lineSegmentsEnd / 5;
+        double minX = Math.min(x0, x1);
+        double minY = Math.min(y0, y1);
+        double maxX = Math.max(x0, x1);
+        double maxY = Math.max(y0, y1);
+        for (int i=0;i<lineSegmentsEnd;i+=5)
+        {
+            double sx = lineSegments[i];
+            double sy = lineSegments[i+1];
+            double ex = sx + lineSegments[i+2];
+            double ey = sy + lineSegments[i+3];
+            minX = Math.min(minX, Math.min(sx, ex));
+            minY = Math.min(minY, Math.min(sy, ey));
+            maxX = Math.max(maxX, Math.max(sx, ex));
+            maxY = Math.max(maxY, Math.max(sy, ey));
+        }
 
-            double dx0 = x - x0;
-            double dy0 = y - y0;
-            double t = k * (dx * dx0 + dy * dy0);
+        double extentX = Math.max(maxX - minX, 1.0);
+        double extentY = Math.max(maxY - minY, 1.0);
+        gridCellSize = Math.max(Math.sqrt(extentX * extentY / Math.max(1, segmentCount)), Math.max(extentX, extentY) / 256.0);
+        gridMinX = minX - gridCellSize;
+        gridMinY = minY - gridCellSize;
+        gridWidth = (int)(extentX / gridCellSize) + 3;
+        gridHeight = (int)(extentY / gridCellSize) + 3;
 
-            if (t < 0)
+        // Count, then fill, the segments overlapping each cell (by bounding box)
+        int cellCount = gridWidth * gridHeight;
+        cellStart = new int[cellCount + 1];
+        for (int pass=0;pass<2;pass++)
+        {
+            int[] cellFill = pass == 0 ? null : Arrays.copyOf(cellStart, cellCount);
+            for (int i=0;i<lineSegmentsEnd;i+=5)
             {
-                // Closest point is t=0 of the line
-                double distSqr = dx0 * dx0 + dy0 * dy0;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                double sx = lineSegments[i];
+                double sy = lineSegments[i+1];
+                double ex = sx + lineSegments[i+2];
+                double ey = sy + lineSegments[i+3];
+                int cx0 = getCellX(Math.min(sx, ex));
+                int cx1 = getCellX(Math.max(sx, ex));
+                int cy0 = getCellY(Math.min(sy, ey));
+                int cy1 = getCellY(Math.max(sy, ey));
+                for (int cy=cy0;cy<=cy1;cy++)
+                {
+                    for (int cx=cx0;cx<=cx1;cx++)
+                    {
+                        int cell = cy * gridWidth + cx;
+                        if (pass == 0)
+                            cellStart[cell + 1]++;
+                        else
+                            cellSegments[cellFill[cell]++] = i;
+                    }
+                }
             }
-            else if (t > 1)
+            if (pass == 0)
             {
-                // Closest point is t=1 of the line
-                double xx = x - (x0 + dx);
-                double yy = y - (y0 + dy);
-                double distSqr = xx*xx + yy*yy;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                for (int cell=0;cell<cellCount;cell++)
+                    cellStart[cell + 1] += cellStart[cell];
+                cellSegments = new int[cellStart[cellCount]];
             }
-            else
+        }
+    }
+
+    private int getCellX(double x)
+    {
+        return Math.max(0, Math.min(gridWidth - 1, (int)((x - gridMinX) / gridCellSize)));
+    }
+
+    private int getCellY(double y)
+    {
+        return Math.max(0, Math.min(gridHeight - 1, (int)((y - gridMinY) / gridCellSize)));
+    }
+
+    private double cellDistSqr(int cell, double x, double y, double distMin)
+    {
+        for (int j=cellStart[cell];j<cellStart[cell + 1];j++)
+        {
+            double distSqr = segmentDistSqr(cellSegments[j], x, y);
+            if (distSqr < distMin)
+                distMin = distSqr;
+        }
+        return distMin;
+    }
+
+    // Same result as distSqr(), searching the grid cells in rings around the point.
+    // Cells beyond ring r are at least r cell sizes away, so the search can stop once
+    // the closest segment found is closer than that.
+    private double gridDistSqr(double x, double y)
+    {
+        double distMin = 10000000;
+        int cx = getCellX(x);
+        int cy = getCellY(y);
+        int maxRing = Math.max(gridWidth, gridHeight);
+        for (int r=0;r<=maxRing;r++)
+        {
+            int ry0 = cy - r;
+            int ry1 = cy + r;
+            for (int ry=Math.max(ry0, 0);ry<=Math.min(ry1, gridHeight - 1);ry++)
             {
-                // Case when the closest point is along the line, and t will be [0,1]
-                double px = x0 + t * dx - x;
-                double py = y0 + t * dy - y;
-                double distSqr = px*px + py*py;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                int row = ry * gridWidth;
+                if (ry == ry0 || ry == ry1)
+                {
+                    for (int rx=Math.max(cx - r, 0);rx<=Math.min(cx + r, gridWidth - 1);rx++)
+                        distMin = cellDistSqr(row + rx, x, y, distMin);
+                }
+                else
+                {
+                    if (cx - r >= 0)
+                        distMin = cellDistSqr(row + cx - r, x, y, distMin);
+                    if (cx + r < gridWidth)
+                        distMin = cellDistSqr(row + cx + r, x, y, distMin);
+                }
             }
+            double searched = r * gridCellSize;
+            if (distMin <= searched * searched)
+                break;
         }
         return distMin;
     }
 
     public void render(double[] output, double x0, double y0, double x1, double y1, int width, int height)
     {
+        buildGrid(x0, y0, x1, y1);
         int ofs = 0;
         double dx = (x1 - x0) / (double)width;
         for (int y=0;y<height;y++)
@@ -89,7 +232,7 @@ public class DistanceFieldGenerator
             double px = x0;
             for (int x=0;x<width;x++)
             {
-                output[ofs++] = Math.sqrt(distSqr(px, py));
+                output[ofs++] = Math.sqrt(gridDistSqr(px, py));
                 px += dx;
             }
         }
@@ -35,6 +35,7 @@ import java.awt.geom.PathIterator;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferByte;
 import java.awt.image.Kernel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
@@ -52,6 +53,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 
@@ -146,7 +152,36 @@ public class Fontc {
         public BufferedImage image;
     };
 
+    // A glyph rendered by generateGlyphData, the image when previewing or else the glyph bank data
+    private static class RenderedGlyph {
+        BufferedImage image;
+        byte[]        data;
+        boolean       compressed;
+
+        RenderedGlyph(BufferedImage image, byte[] data, boolean compressed) {
+            this.image = image;
+            this.data = data;
+            this.compressed = compressed;
+        }
+    };
+
     static final float sdf_edge         = 0.75f;
+    // Max distance between a glyph outline and the line segments used for its distance field
+    static final double sdf_flatness    = 0.1;
+
+    // Renders the glyphs of all fonts compiled concurrently, i.e. by parallel
+    // build tasks, so the number of threads is bounded for the whole build
+    private static final ThreadPoolExecutor glyphExecutor = new ThreadPoolExecutor(
+            Project.getDefaultMaxCpuThreads(), Project.getDefaultMaxCpuThreads(),
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                Thread thread = new Thread(r, "font-glyph");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        glyphExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private InputFontFormat inputFormat = InputFontFormat.FORMAT_TRUETYPE;
     private Stroke outlineStroke        = null;
     private int channelCount            = 3;
@@ -216,6 +251,24 @@ public class Fontc {
         public InputStream getResource(String resourceName) throws FileNotFoundException;
     }
 
+    /**
+     * Set the max number of threads used to render glyphs, in total
+     * @param maxThreads max number of glyph rendering threads
+     */
+    public static void setMaxThreads(int maxThreads) {
+        maxThreads = Math.max(1, maxThreads);
+        synchronized (glyphExecutor) {
+            // the core size may never be larger than the max size
+            if (maxThreads > glyphExecutor.getMaximumPoolSize()) {
+                glyphExecutor.setMaximumPoolSize(maxThreads);
+                glyphExecutor.setCorePoolSize(maxThreads);
+            } else {
+                glyphExecutor.setCorePoolSize(maxThreads);
+                glyphExecutor.setMaximumPoolSize(maxThreads);
+            }
+        }
+    }
+
     public Fontc() {
 
     }
@@ -376,39 +429,53 @@ public class Fontc {
         return sdfLimitValue * (1.0f - sdf_edge) + sdf_edge;
     }
 
-    private ByteBuffer toByteArray(BufferedImage image, int width, int height, int bpp, int targetBpp) throws IOException {
-        int dataSize = width * height * bpp;
-        ByteBuffer buffer = ByteBuffer.allocateDirect(dataSize);
-
-        int[] rasterData = new int[width * height * 4];
-        image.getRaster().getPixels(0, 0, width, height, rasterData);
-
+    // Pad the glyph image with cell_padding cleared pixels on all sides and get the
+    // pixels as premultiplied RGBA, keeping the first channelCount channels. The data
+    // is compressed unless the uncompressed data is smaller.
+    private RenderedGlyph packGlyph(BufferedImage glyphImage, int cell_padding) {
+        int width = glyphImage.getWidth();
+        int height = glyphImage.getHeight();
+        int paddedWidth = width + cell_padding * 2;
+        int paddedHeight = height + cell_padding * 2;
+
+        byte[] uncompressedBytes = new byte[paddedWidth * paddedHeight * channelCount];
+        int[] row = new int[width];
         for (int y = 0; y < height; ++y) {
+            glyphImage.getRGB(0, y, width, 1, row, 0, width);
+            int i = ((y + cell_padding) * paddedWidth + cell_padding) * channelCount;
             for (int x = 0; x < width; ++x) {
-                // BGRA to RGBA
-                int i = y*width*bpp + x*bpp;
-                int green = 0;
-                int red = 0;
-                int alpha = 0;
-                int blue = rasterData[i + 0];
-                if (bpp > 1)
-                    green = rasterData[i + 1];
-                if (bpp > 2)
-                    red = rasterData[i + 2];
-                if (bpp > 3)
-                    alpha = rasterData[i + 3];
-
-                buffer.put((byte)(red & 0xFF));
-                if (targetBpp > 1)
-                    buffer.put((byte)(green & 0xFF));
-                if (targetBpp > 2)
-                    buffer.put((byte)(blue & 0xFF));
-                if (targetBpp > 3)
-                    buffer.put((byte)(alpha & 0xFF));
+                int color = row[x];
+                int alpha = (color >> 24) & 0xff;
+                uncompressedBytes[i++] = (byte)((((color >> 16) & 0xff) * alpha) / 255);
+                if (channelCount > 1)
+                    uncompressedBytes[i++] = (byte)((((color >> 8) & 0xff) * alpha) / 255);
+                if (channelCount > 2)
+                    uncompressedBytes[i++] = (byte)(((color & 0xff) * alpha) / 255);
+                if (channelCount > 3)
+                    uncompressedBytes[i++] = (byte)alpha;
+            }
+        }
+
+        Pointer compressedTexture = null;
+        try {
+            ByteBuffer paddedBuffer = ByteBuffer.allocateDirect(uncompressedBytes.length);
+            paddedBuffer.put(uncompressedBytes);
+            paddedBuffer.flip();
+
+            compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
+            int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
+            if (uncompressedBytes.length <= texcBufferSize) {
+                return new RenderedGlyph(null, uncompressedBytes, false);
             }
+            ByteBuffer compressedBuffer = ByteBuffer.allocateDirect(texcBufferSize);
+            TexcLibrary.TEXC_GetBufferData(compressedTexture, compressedBuffer, texcBufferSize);
+
+            byte[] compressedBytes = new byte[compressedBuffer.limit()];
+            compressedBuffer.get(compressedBytes);
+            return new RenderedGlyph(null, compressedBytes, true);
+        } finally {
+            TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
         }
-        buffer.flip(); // limit is set to current position, and position is set to zero
-        return buffer;
     }
 
     private int getPadding() {
@@ -588,121 +655,108 @@ public class Fontc {
             include_glyph_count = Math.min(glyphs.size(), cache_rows * cache_columns);
         }
 
-        for (int i = 0; i < include_glyph_count; i++) {
-
-            Glyph glyph = glyphs.get(i);
-            if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
-                continue;
-            }
-
-            // Generate bitmap for each glyph depending on format
-            BufferedImage glyphImage = null;
-            if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                       inputFormat == InputFontFormat.FORMAT_BMFONT) {
-                glyphImage = drawBMFontGlyph(glyph, imageBMFont);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
-                       inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
-            } else {
-                throw new FontFormatException("Invalid font format combination!");
-            }
-
-            if (preview) {
+        // Glyphs are rendered and packed on a thread pool, a window of glyphs ahead of the loop below.
+        // The loop consumes them in glyph order so the glyph data bank is the same as when rendered
+        // one by one.
+        final int glyphPadding = padding;
+        final int glyphCellPadding = cell_padding;
+        final float sdfSpread = sdf_spread;
+        final float sdfShadowSpread = sdf_shadow_spread;
+        final float sdfOutline = glyphBankBuilder.getSdfOutline();
+        final BufferedImage bmFontImage = imageBMFont;
+        final ConvolveOp shadowConvolveOp = shadowConvolve;
+        final ThreadLocal<ConvolveOp> threadShadowConvolve = ThreadLocal.withInitial(() -> shadowConvolveOp == null ? null :
+                new ConvolveOp(shadowConvolveOp.getKernel(), shadowConvolveOp.getEdgeCondition(), shadowConvolveOp.getRenderingHints()));
+
+        int threadCount = glyphExecutor.getMaximumPoolSize();
+        ArrayList<Future<RenderedGlyph>> renderedGlyphs = new ArrayList<>();
+        try {
+            for (int i = 0; i < include_glyph_count; i++) {
 
-                glyph.image = glyphImage;
+                while (renderedGlyphs.size() < Math.min(include_glyph_count, i + threadCount * 4)) {
+                    final Glyph glyph = glyphs.get(renderedGlyphs.size());
+                    if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
+                        renderedGlyphs.add(null);
+                        continue;
+                    }
 
-            } else {
-                BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
-                                                                    glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
-
-                int clearData = 0;
-                int mask = 0xFFFFFFFF;
-                if (channelCount==1)
-                    mask = 0xFF;
-                else if (channelCount==2)
-                    mask = 0xFFFF;
-                else if (channelCount==3)
-                    mask = 0xFFFFFF;
-
-                int py = 0;
-                // Get raster data from rendered glyph and store in glyph data bank
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                }
-                py++;
-                for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
-                    int px = 0;
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                    for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
-                        int color = glyphImage.getRGB(x, y);
-                        int blue  = (color) & 0xff;
-                        int green = (color >> 8) & 0xff;
-                        int red   = (color >> 16) & 0xff;
-                        int alpha = (color >> 24) & 0xff;
-                        blue = (blue * alpha) / 255;
-                        green = (green * alpha) / 255;
-                        red = (red * alpha) / 255;
-                        color = ((alpha << 24) |
-                                (blue << 16) |
-                                (green << 8) |
-                                (red << 0)) & mask;
-
-                        paddedGlyphImage.setRGB(px, py, color);
+                    // Glyph vectors aren't thread safe, get the outlines up front
+                    Shape glyphOutline = null;
+                    if (inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+                        glyphOutline = fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD ? glyph.vector.getGlyphOutline(0) : glyph.vector.getOutline(0, 0);
                     }
-                    paddedGlyphImage.setRGB(px++, py, clearData);
+                    final Shape outline = glyphOutline;
+
+                    renderedGlyphs.add(glyphExecutor.submit(() -> {
+                        // Generate bitmap for each glyph depending on format
+                        BufferedImage glyphImage = null;
+                        if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
+                            inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+                            glyphImage = drawGlyph(glyph, outline, glyphPadding, blendComposite, faceColor, outlineColor, threadShadowConvolve.get());
+                        } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
+                                   inputFormat == InputFontFormat.FORMAT_BMFONT) {
+                            glyphImage = drawBMFontGlyph(glyph, bmFontImage);
+                        } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
+                                   inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+                            glyphImage = makeDistanceField(glyph, outline, glyphPadding, sdfSpread, sdfShadowSpread, sdfOutline, sdf_edge, threadShadowConvolve.get());
+                        } else {
+                            throw new FontFormatException("Invalid font format combination!");
+                        }
+
+                        if (preview) {
+                            return new RenderedGlyph(glyphImage, null, false);
+                        }
+                        return packGlyph(glyphImage, glyphCellPadding);
+                    }));
                 }
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
-                    paddedGlyphImage.setRGB(x, py, clearData);
+
+                Glyph glyph = glyphs.get(i);
+                if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
+                    continue;
                 }
 
-                Pointer compressedTexture = null;
+                RenderedGlyph renderedGlyph;
                 try {
-                    int width = paddedGlyphImage.getWidth();
-                    int height = paddedGlyphImage.getHeight();
-
-                    ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
-
-                    compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
-                    int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
-                    ByteBuffer compressedBuffer = ByteBuffer.allocateDirect(texcBufferSize);
-                    TexcLibrary.TEXC_GetBufferData(compressedTexture, compressedBuffer, texcBufferSize);
+                    renderedGlyph = renderedGlyphs.get(i).get();
+                    renderedGlyphs.set(i, null);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof FontFormatException) {
+                        throw (FontFormatException) cause;
+                    } else if (cause instanceof TextureGeneratorException) {
+                        throw (TextureGeneratorException) cause;
+                    }
+                    throw new TextureGeneratorException(String.format("Failed to generate glyph %d: %s", glyph.c, cause.getMessage()));
+                } catch (InterruptedException e) {
+                    throw new TextureGeneratorException(String.format("Failed to generate glyph %d: %s", glyph.c, e.getMessage()));
+                }
 
-                    byte[] uncompressedBytes = new byte[paddedBuffer.limit()];
-                    paddedBuffer.get(uncompressedBytes);
+                if (preview) {
 
-                    byte[] compressedBytes = new byte[compressedBuffer.limit()];
-                    compressedBuffer.get(compressedBytes);
+                    glyph.image = renderedGlyph.image;
 
-                    // If the uncompressed size is smaller we write uncompressed
-                    // bytes instead
-                    // Note that when writing the uncompressed bytes we need to
-                    // also write the initial byte/flag telling the consumer if
-                    // the glyph is compressed or not.
+                } else {
+                    // If the glyph data isn't compressed we need to write the initial
+                    // byte/flag telling the consumer that it isn't.
                     // - In the case of an uncompressed glyph we write a 0.
                     // - In the case of a compressed glyph this information is
-                    // included in the compressedBytes array so we don't need to
+                    // included in the compressed data so we don't need to
                     // bother with specifically writing the compressed flag.
-                    if (uncompressedBytes.length <= compressedBytes.length) {
-                        glyph.cache_entry_offset = dataOffset;
-                        glyph.cache_entry_size = 1 + uncompressedBytes.length;
-                        dataOffset += glyph.cache_entry_size;
+                    glyph.cache_entry_offset = dataOffset;
+                    glyph.cache_entry_size = renderedGlyph.data.length;
+                    if (!renderedGlyph.compressed) {
+                        glyph.cache_entry_size += 1;
                         glyphDataBank.write(0); // uncompressed
-                        glyphDataBank.write(uncompressedBytes);
-                    }
-                    else {
-                        glyph.cache_entry_offset = dataOffset;
-                        glyph.cache_entry_size = compressedBytes.length;
-                        dataOffset += glyph.cache_entry_size;
-                        glyphDataBank.write(compressedBytes);
                     }
-
-                } catch(IOException e) {
-                    throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
-                } finally {
-                    TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+                    dataOffset += glyph.cache_entry_size;
+                    glyphDataBank.write(renderedGlyph.data, 0, renderedGlyph.data.length);
+                }
+            }
+        } finally {
+            // the glyphs not consumed yet if an error was thrown
+            for (Future<RenderedGlyph> renderedGlyph : renderedGlyphs) {
+                if (renderedGlyph != null) {
+                    renderedGlyph.cancel(true);
                 }
             }
         }
@@ -762,19 +816,19 @@ public class Fontc {
         return imageBMFontInput.getSubimage(glyph.x, glyph.y, glyph.width, glyph.ascent + glyph.descent);
     }
 
-    private BufferedImage makeDistanceField(Glyph glyph, int padding, float sdf_spread, float sdf_shadow_spread, Font font, float edge, ConvolveOp shadowConvolve) {
+    // Thread safe as long as each glyph is only processed once
+    private BufferedImage makeDistanceField(Glyph glyph, Shape sh, int padding, float sdf_spread, float sdf_shadow_spread, float sdf_outline, float edge, ConvolveOp shadowConvolve) {
         int width = glyph.width + padding * 2;
         int height = glyph.ascent + glyph.descent + padding * 2;
 
-        Shape sh = glyph.vector.getGlyphOutline(0);
         PathIterator pi = sh.getPathIterator(new AffineTransform(1,0,0,1,0,0));
-        pi = new FlatteningPathIterator(pi,  0.1);
+        pi = new FlatteningPathIterator(pi, sdf_flatness);
 
         double _x = 0, _y = 0;
         double _lastmx = 0, _lastmy = 0;
         DistanceFieldGenerator df = new DistanceFieldGenerator();
+        double [] c = new double[6];
         while (!pi.isDone()) {
-            double [] c = new double[100];
             int res = pi.currentSegment(c);
             switch (res) {
               case PathIterator.SEG_MOVETO:
@@ -816,17 +870,29 @@ public class Fontc {
         double heightInverse = 1 / (double)height;
 
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        // BGR, i.e. shadow, 0, outline
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+        // Whether a pixel is inside the glyph can only change from the previous pixel on the row
+        // if the outline passes between them. Then the sum of their distances to the line segments
+        // is at most the pixel spacing plus the flatness on both sides, and only then the (costly)
+        // Shape.contains is needed.
+        double containsLimit = widthInverse * (u1 - u0) + 2 * sdf_flatness + 1e-6;
 
         // TODO: Split this work into a pre-pass and subsequent face/outline & shadow passes
         for (int v=0;v<height;v++) {
             int ofs = v * width;
+            boolean inside = false;
             for (int u=0;u<width;u++) {
                 double gx = u0 + widthInverse * u * (u1 - u0);
                 double gy = v0 + heightInverse * v * (v1 - v0);
                 double distance_to_edge   = distance_data[ofs + u];
                 double distance_to_border = -(distance_to_edge - fontDesc.getOutlineWidth());
 
-                if (!sh.contains(gx, gy)) {
+                if (u == 0 || distance_data[ofs + u - 1] + distance_to_edge <= containsLimit) {
+                    inside = sh.contains(gx, gy);
+                }
+                if (!inside) {
                     distance_to_edge = -distance_to_edge;
                 }
 
@@ -836,8 +902,6 @@ public class Fontc {
                 int outline_channel = (int)(255.0f * distance_to_edge_normalized);
                 outline_channel     = Math.max(0,Math.min(255,outline_channel));
 
-                float sdf_outline = glyphBankBuilder.getSdfOutline();
-
                 // This is needed to 'fill' the shadow body since
                 // we have no good way of knowing if the pixel is inside or outside
                 // of the shadow limit
@@ -854,7 +918,9 @@ public class Fontc {
                 int shadow_channel = (int)(255.0f * distance_to_border_normalized);
                 shadow_channel     = Math.max(0,Math.min(255,shadow_channel));
 
-                image.setRGB(u, v, 0x010000 * outline_channel | 0x000001 * shadow_channel);
+                int i = (ofs + u) * 3;
+                pixels[i + 0] = (byte)shadow_channel;
+                pixels[i + 2] = (byte)outline_channel;
             }
         }
 
@@ -864,6 +930,7 @@ public class Fontc {
             Graphics2D g = blurredShadowImage.createGraphics();
             setHighQuality(g);
             g.drawImage(image, 0, 0, null);
+            g.dispose();
 
             // When the blur kernel is != 0, make sure to always blur the DF data set
             // at least once so we can avoid the jaggies around the face edges. This is mostly
@@ -871,20 +938,18 @@ public class Fontc {
             BufferedImage tmp = blurredShadowImage.getSubimage(0, 0, width, height);
             shadowConvolve.filter(tmp, blurredShadowImage);
 
-            for (int v=0;v<height;v++) {
-                for (int u=0;u<width;u++) {
-                    int edge_outline_channel = image.getRGB(u,v);
-                    int shadow_channel = blurredShadowImage.getRGB(u,v);
-
-                    image.setRGB(u,v,edge_outline_channel & 0xFFFF00 | shadow_channel & 0xFF);
-                }
+            // Keep the edge and outline channels, take the shadow from the blurred image
+            byte[] blurredPixels = ((DataBufferByte) blurredShadowImage.getRaster().getDataBuffer()).getData();
+            for (int i=0;i<pixels.length;i+=3) {
+                pixels[i] = blurredPixels[i];
             }
         }
 
         return image;
     }
 
-    private BufferedImage drawGlyph(Glyph glyph, int padding, Font font, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve) {
+    // Thread safe as long as each glyph is only processed once
+    private BufferedImage drawGlyph(Glyph glyph, Shape outline, int padding, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve) {
         int width = glyph.width + padding * 2;
         int height = glyph.ascent + glyph.descent + padding * 2;
 
@@ -901,7 +966,6 @@ public class Fontc {
         g.clearRect(0, 0, image.getWidth(), image.getHeight());
         g.translate(dx, dy);
 
-        Shape outline = glyph.vector.getOutline(0, 0);
         if (this.fontDesc.getShadowAlpha() > 0.0f) {
             if (this.fontDesc.getAlpha() > 0.0f) {
                 g.setPaint(new Color(0.0f, 0.0f, this.fontDesc.getShadowAlpha() * this.fontDesc.getAlpha()));
@@ -929,6 +993,7 @@ public class Fontc {
             g.setPaint(faceColor);
             g.fill(outline);
         }
+        g.dispose();
 
         return image;
     }
@@ -14,12 +14,22 @@
 
 package com.dynamo.bob.fs;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -28,7 +38,14 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
     protected String rootDirectory;
     protected String buildDirectory;
     protected Map<String, R> resources = new HashMap<String, R>();
+    // Resources returned by get(), so that each path maps to a single resource
+    // object. Cleared when the directories or mount points change.
+    protected Map<String, IResource> internedResources = new ConcurrentHashMap<String, IResource>();
     protected Vector<IMountPoint> mountPoints;
+    // Walks the directories on disk, created on the first walk and kept until
+    // the file system is closed or the number of threads is changed
+    private int maxWalkThreads = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool walkPool;
 
     @SuppressWarnings("unchecked")
     public AbstractFileSystem() {
@@ -39,6 +56,7 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
     @Override
     public void setRootDirectory(String rootDirectory) {
         this.rootDirectory = FilenameUtils.normalizeNoEndSeparator(rootDirectory, true);
+        this.internedResources.clear();
     }
 
     @Override
@@ -53,6 +71,7 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
             throw new IllegalArgumentException("Build directory must be relative to root directory and not absolute.");
         }
         this.buildDirectory = buildDirectory;
+        this.internedResources.clear();
     }
 
     public String getBuildDirectory() {
@@ -63,11 +82,13 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
     public void addMountPoint(IMountPoint mountPoint) throws IOException {
         mountPoint.mount();
         this.mountPoints.add(mountPoint);
+        this.internedResources.clear();
     }
 
     @Override
     public void clearMountPoints() {
         this.mountPoints.clear();
+        this.internedResources.clear();
     }
 
     @Override
@@ -75,6 +96,34 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
         for (IMountPoint mountPoint : this.mountPoints) {
             mountPoint.unmount();
         }
+        this.internedResources.clear();
+        synchronized (this) {
+            shutdownWalkPool();
+        }
+    }
+
+    @Override
+    public synchronized void setMaxWalkThreads(int maxThreads) {
+        maxThreads = Math.max(1, maxThreads);
+        if (maxThreads != this.maxWalkThreads) {
+            this.maxWalkThreads = maxThreads;
+            shutdownWalkPool();
+        }
+    }
+
+    private synchronized ForkJoinPool getWalkPool() {
+        if (this.walkPool == null) {
+            this.walkPool = new ForkJoinPool(this.maxWalkThreads);
+        }
+        return this.walkPool;
+    }
+
+    private void shutdownWalkPool() {
+        if (this.walkPool != null) {
+            // walks already running in the pool still complete
+            this.walkPool.shutdown();
+            this.walkPool = null;
+        }
     }
 
     protected IResource getFromMountPoints(String path) {
@@ -87,16 +136,98 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
         return null;
     }
 
+    /**
+     * Get the interned resource for a root relative path, looking it up in the
+     * mount points or creating it the first time the path is requested.
+     * @param path root relative path
+     * @param creator creates the resource when it isn't found in any mount point
+     * @return the resource
+     */
+    protected IResource getInterned(String path, Function<String, IResource> creator) {
+        IResource resource = internedResources.get(path);
+        if (resource == null) {
+            resource = internedResources.computeIfAbsent(path, p -> {
+                IResource r = getFromMountPoints(p);
+                return r != null ? r : creator.apply(p);
+            });
+        }
+        return resource;
+    }
+
+    // Walks a directory, forking a task for each sub directory to walk. The
+    // results of a task are its own and its sub tasks results in the order
+    // the entries are listed, i.e. the same order as a recursive walk.
+    @SuppressWarnings("serial")
+    private static class WalkTask extends RecursiveTask<List<String>> {
+        private final IWalker walker;
+        private final String path;
+        private final Path directory;
+
+        WalkTask(IWalker walker, String path, Path directory) {
+            this.walker = walker;
+            this.path = path;
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<String> compute() {
+            // Either lists of results or tasks walking sub directories
+            List<Object> parts = new ArrayList<Object>();
+            List<String> results = new ArrayList<String>();
+            parts.add(results);
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    String childPath = FilenameUtils.concat(path, child.getFileName().toString());
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // e.g. a broken link, File.isDirectory() is false for these
+                        walker.handleFile(childPath, results);
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (walker.handleDirectory(childPath, results)) {
+                            WalkTask task = new WalkTask(walker, childPath, child);
+                            task.fork();
+                            parts.add(task);
+                            results = new ArrayList<String>();
+                            parts.add(results);
+                        }
+                    } else {
+                        walker.handleFile(childPath, results);
+                    }
+                }
+            } catch (IOException e) {
+                // Directories that can't be listed are walked as empty
+            }
+
+            if (parts.size() == 1) {
+                return results;
+            }
+            List<String> allResults = new ArrayList<String>();
+            for (Object part : parts) {
+                if (part instanceof WalkTask) {
+                    allResults.addAll(((WalkTask) part).join());
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<String> partResults = (List<String>) part;
+                    allResults.addAll(partResults);
+                }
+            }
+            return allResults;
+        }
+    }
+
+    // Walk the root relative path on disk, listing the directories in parallel
+
     private void walk(IWalker walker, String path, Collection<String> results) {
         String absolutePath = FilenameUtils.normalizeNoEndSeparator(FilenameUtils.concat(this.rootDirectory, path));
-        File file = new File(absolutePath);
+        Path directory = Paths.get(absolutePath);
 
-        if (file.isDirectory()) {
+        if (Files.isDirectory(directory)) {
             if (walker.handleDirectory(path, results)) {
-                String[] children = file.list();
-                for (String child : children) {
-                    walk(walker, FilenameUtils.concat(path, child), results);
-                }
+                results.addAll(getWalkPool().invoke(new WalkTask(walker, path, directory)));
             }
         } else {
             walker.handleFile(path, results);
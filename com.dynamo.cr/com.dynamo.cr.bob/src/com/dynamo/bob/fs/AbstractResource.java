@@ -17,6 +17,7 @@ package com.dynamo.bob.fs;
 import static org.apache.commons.io.FilenameUtils.concat;
 
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -27,6 +28,21 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
     protected F fileSystem;
     protected String path;
     private boolean cacheable = true;
+    // The output and changed extension resources, resolved on first use.
+    // The file system interns resources, so these stay valid for the same
+    // directories and mount points.
+    private volatile IResource output;
+    private volatile ChangedExt changedExt;
+
+    private static class ChangedExt {
+        final String ext;
+        final IResource resource;
+
+        ChangedExt(String ext, IResource resource) {
+            this.ext = ext;
+            this.resource = resource;
+        }
+    }
 
     public AbstractResource(F fileSystem, String path) {
         this.fileSystem = fileSystem;
@@ -35,15 +51,25 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
 
     @Override
     public boolean isOutput() {
-        return path.startsWith(fileSystem.getBuildDirectory() + "/")
-        || path.startsWith(fileSystem.getBuildDirectory() + "\\");
+        String buildDirectory = fileSystem.getBuildDirectory();
+        int length = buildDirectory.length();
+        if (path.length() <= length || !path.startsWith(buildDirectory)) {
+            return false;
+        }
+        char separator = path.charAt(length);
+        return separator == '/' || separator == '\\';
     }
 
     @Override
     public IResource changeExt(String ext) {
+        ChangedExt changed = changedExt;
+        if (changed != null && changed.ext.equals(ext)) {
+            return changed.resource;
+        }
         String newName = ResourceUtil.changeExt(path, ext);
-        IResource newResource = fileSystem.get(newName);
-        return newResource.output();
+        IResource newResource = fileSystem.get(newName).output();
+        changedExt = new ChangedExt(ext, newResource);
+        return newResource;
     }
 
     @Override
@@ -62,6 +88,11 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
         return sha1.digest();
     }
 
+    @Override
+    public SeekableByteChannel openOutputChannel() throws IOException {
+        return new ResourceOutputChannel(this);
+    }
+
     @Override
     public String getAbsPath() {
         return concat(fileSystem.getRootDirectory(), path);
@@ -83,13 +114,17 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
     public IResource output() {
         if (isOutput()) {
             return this;
-        } else {
+        }
+        IResource resource = output;
+        if (resource == null) {
             String p = path;
             if (p.startsWith("/"))
                 p = p.substring(1);
             String buildPath = FilenameUtils.separatorsToUnix(FilenameUtils.concat(this.fileSystem.getBuildDirectory(), p));
-            return fileSystem.get(buildPath);
+            resource = fileSystem.get(buildPath);
+            output = resource;
         }
+        return resource;
     }
 
     @Override
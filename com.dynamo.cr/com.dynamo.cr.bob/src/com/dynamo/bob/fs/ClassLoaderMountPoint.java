@@ -17,6 +17,7 @@ package com.dynamo.bob.fs;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.util.Collection;
 
 import org.apache.commons.io.FilenameUtils;
@@ -66,6 +67,11 @@ public class ClassLoaderMountPoint implements IMountPoint {
             throw new IOException("Zip resources can't be removed.");
         }
 
+        @Override
+        public SeekableByteChannel openOutputChannel() throws IOException {
+            throw new IOException("Zip resources can't be written to.");
+        }
+
         @Override
         public long getLastModified() {
             return 0; // Not possible to get last changed time for ClassLoaderMountPoint resources
@@ -16,17 +16,25 @@ package com.dynamo.bob.fs;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.File;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -34,68 +42,138 @@ import org.apache.commons.io.IOUtils;
 
 public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
-    static class CacheEntry implements Serializable {
-        private static final long serialVersionUID = 1L;
+    // digest_cache file format: magic, version, entry count followed by the entries
+    private static final int CACHE_MAGIC = 0x44474348; // "DGCH"
+    private static final int CACHE_VERSION = 1;
+    private static final int SHA1_SIZE = 20;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    static class CacheEntry {
+        long size;
         long mTime;
+        // hash of the file key (e.g. device and inode) where available, 0 otherwise
+        long fileKey;
         byte[] sha1;
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                && mTime == attributes.lastModifiedTime().toMillis()
+                && fileKey == fileKeyOf(attributes);
+        }
     }
 
-    private Map<String, CacheEntry> cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+    // Direct read buffers are reused by each thread computing digests
+    private static final ThreadLocal<ByteBuffer> readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+
+    private Map<String, CacheEntry> cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
+    // Digests of source (non output) files already checked against the file
+    // during this build session. Source files aren't modified while building
+    // so these are returned without checking the file again.
+    private Map<String, byte[]> sessionDigests = new ConcurrentHashMap<String, byte[]>();
 
     @Override
     public IResource get(String path) {
         // Paths are always root relative.
         if (path.startsWith("/"))
             path = path.substring(1);
-        IResource resource = getFromMountPoints(path);
-        if (resource != null) {
-            return resource;
-        }
-        return new DefaultResource(this, path);
+        return getInterned(path, p -> new DefaultResource(this, p));
     }
 
-    private byte[] calcSha1(DefaultResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
-        }
+    private static long fileKeyOf(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return key != null ? key.toString().hashCode() : 0;
+    }
+
+    private static byte[] calcSha1(Path path) throws IOException {
         MessageDigest sha1;
         try {
             sha1 = MessageDigest.getInstance("SHA1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
+        ByteBuffer buffer = readBuffer.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        }
         return sha1.digest();
     }
 
+    // Called when a resource is written or removed, so that the digest
+    // of a source file changed during the session is calculated again
+    void invalidateDigest(DefaultResource resource) {
+        sessionDigests.remove(resource.getPath());
+    }
+
     byte[] sha1(DefaultResource resource) throws IOException {
-        String absPath = resource.getAbsPath();
-        File file = new File(absPath);
+        boolean isSource = !resource.isOutput();
+        if (isSource) {
+            byte[] digest = sessionDigests.get(resource.getPath());
+            if (digest != null) {
+                return digest;
+            }
+        }
+        Path path = Paths.get(resource.getAbsPath());
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
+        }
         CacheEntry e = cache.get(resource.getPath());
-        if (e != null && file.lastModified() == e.mTime) {
+        if (e != null && e.matches(attributes)) {
+            if (isSource) {
+                sessionDigests.put(resource.getPath(), e.sha1);
+            }
             return e.sha1;
         } else {
             e = new CacheEntry();
-            e.mTime = file.lastModified();
-            e.sha1 = calcSha1(resource);
+            e.size = attributes.size();
+            e.mTime = attributes.lastModifiedTime().toMillis();
+            e.fileKey = fileKeyOf(attributes);
+            e.sha1 = calcSha1(path);
             cache.put(resource.getPath(), e);
+            if (isSource) {
+                sessionDigests.put(resource.getPath(), e.sha1);
+            }
             return e.sha1;
         }
     }
 
-    @SuppressWarnings("unchecked")
+    private String getCacheFileName() {
+        return FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
+    }
+
     @Override
     public void loadCache() {
-        cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectInputStream is = null;
+        cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
+        sessionDigests = new ConcurrentHashMap<String, byte[]>();
+        DataInputStream is = null;
         try {
-            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
-            cache = (Map<String, CacheEntry>) is.readObject();
-            is.close();
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(getCacheFileName()), 64 * 1024));
+            if (is.readInt() != CACHE_MAGIC || is.readInt() != CACHE_VERSION) {
+                // unknown or old format, the digests will be recalculated
+                return;
+            }
+            int count = is.readInt();
+            Map<String, CacheEntry> entries = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>(count);
+            for (int i = 0; i < count; ++i) {
+                String path = is.readUTF();
+                CacheEntry e = new CacheEntry();
+                e.size = is.readLong();
+                e.mTime = is.readLong();
+                e.fileKey = is.readLong();
+                e.sha1 = new byte[SHA1_SIZE];
+                is.readFully(e.sha1);
+                entries.put(path, e);
+            }
+            cache = entries;
+        } catch (EOFException e) {
         } catch (IOException e) {
-        } catch (ClassNotFoundException e) {
         } finally {
             IOUtils.closeQuietly(is);
         }
@@ -103,11 +181,22 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
 
     @Override
     public void saveCache() {
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectOutputStream os = null;
+        DataOutputStream os = null;
         try {
-            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
-            os.writeObject(cache);
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getCacheFileName()), 64 * 1024));
+            // snapshot the entries since the count is written first
+            List<Map.Entry<String, CacheEntry>> entries = new ArrayList<>(cache.entrySet());
+            os.writeInt(CACHE_MAGIC);
+            os.writeInt(CACHE_VERSION);
+            os.writeInt(entries.size());
+            for (Map.Entry<String, CacheEntry> entry : entries) {
+                CacheEntry e = entry.getValue();
+                os.writeUTF(entry.getKey());
+                os.writeLong(e.size);
+                os.writeLong(e.mTime);
+                os.writeLong(e.fileKey);
+                os.write(e.sha1);
+            }
         } catch (IOException e) {
         } finally {
             IOUtils.closeQuietly(os);
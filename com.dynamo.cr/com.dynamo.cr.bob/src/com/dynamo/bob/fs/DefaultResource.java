@@ -21,6 +21,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -49,6 +52,7 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
     @Override
     public void setContent(byte[] content) throws IOException {
+        this.fileSystem.invalidateDigest(this);
         File f = new File(getAbsPath());
         if (!f.exists()) {
             String dir = FilenameUtils.getFullPath(getAbsPath());
@@ -68,6 +72,7 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
     @Override
     public void setContent(InputStream stream) throws IOException {
+        this.fileSystem.invalidateDigest(this);
         File f = new File(getAbsPath());
         if (!f.exists()) {
             String dir = FilenameUtils.getFullPath(getAbsPath());
@@ -78,12 +83,33 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
         }
 
         try {
-            FileUtils.copyInputStreamToFile(stream, f);
+            if (stream instanceof FileInputStream) {
+                // copy the rest of the file without reading it to memory
+                FileChannel in = ((FileInputStream) stream).getChannel();
+                try (FileOutputStream os = new FileOutputStream(f)) {
+                    FileChannel out = os.getChannel();
+                    long position = in.position();
+                    long size = in.size();
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            } else {
+                FileUtils.copyInputStreamToFile(stream, f);
+            }
         } finally {
             stream.close();
         }
     }
 
+    @Override
+    public SeekableByteChannel openOutputChannel() throws IOException {
+        this.fileSystem.invalidateDigest(this);
+        File f = new File(getAbsPath());
+        f.getParentFile().mkdirs();
+        return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
     @Override
     public byte[] sha1() throws IOException {
         return this.fileSystem.sha1(this);
@@ -97,6 +123,7 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
     @Override
     public void remove() {
+        this.fileSystem.invalidateDigest(this);
         new File(getAbsPath()).delete();
     }
 
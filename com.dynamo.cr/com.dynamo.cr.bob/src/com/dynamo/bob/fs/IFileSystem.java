@@ -26,6 +26,8 @@ public interface IFileSystem {
 
     /**
      * Used to traverse the file system and any attached mount points.
+     * Directories on disk are walked in parallel, so a walker can be called
+     * from several threads and should not keep state between calls.
      */
     public interface IWalker {
         /**
@@ -113,4 +115,10 @@ public interface IFileSystem {
      * @param results collection to write the results to
      */
     public void walk(String path, IWalker walker, Collection<String> results);
+
+    /**
+     * Set the max number of threads used to walk directories on disk.
+     * @param maxThreads max number of threads
+     */
+    public void setMaxWalkThreads(int maxThreads);
 }
@@ -16,6 +16,7 @@ package com.dynamo.bob.fs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
 
 
 /**
@@ -110,6 +111,17 @@ public interface IResource {
      */
     void setContent(InputStream stream) throws IOException;
 
+    /**
+     * Open a channel for writing the content of the resource in place.
+     * Any existing content is discarded. The channel can also be read and
+     * repositioned, e.g. to update a header once the rest is written. The
+     * content is complete when the channel is closed.
+     * @note only valid operation for output-resources, see {@link IResource#output()}
+     * @return channel to be closed by the caller
+     * @throws IOException
+     */
+    SeekableByteChannel openOutputChannel() throws IOException;
+
     /**
      * Get the time when the resource was modified
      * @return long representing Unix time when the resource was modified
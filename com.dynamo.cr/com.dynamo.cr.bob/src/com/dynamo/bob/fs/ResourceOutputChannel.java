@@ -0,0 +1,123 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Output channel for resources that aren't backed by a file. The content is
+ * kept in memory and set on the resource when the channel is closed.
+ */
+public class ResourceOutputChannel implements SeekableByteChannel {
+
+    private IResource resource;
+    private byte[] buffer = new byte[1024];
+    private int size = 0;
+    private int position = 0;
+    private boolean open = true;
+
+    public ResourceOutputChannel(IResource resource) {
+        this.resource = resource;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int count = Math.min(dst.remaining(), size - position);
+        dst.put(buffer, position, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int count = src.remaining();
+        int end = position + count;
+        if (end > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(end, buffer.length * 2));
+        }
+        src.get(buffer, position, count);
+        position = end;
+        size = Math.max(size, end);
+        return count;
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0 || newPosition > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid position " + newPosition);
+        }
+        // writing past the end leaves zeros in between, as for a file
+        if (newPosition > buffer.length) {
+            buffer = Arrays.copyOf(buffer, (int) newPosition);
+        }
+        position = (int) newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) throws IOException {
+        ensureOpen();
+        if (newSize < 0) {
+            throw new IllegalArgumentException("Invalid size " + newSize);
+        }
+        if (newSize < size) {
+            Arrays.fill(buffer, (int) newSize, size, (byte) 0);
+            size = (int) newSize;
+        }
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            resource.setContent(Arrays.copyOf(buffer, size));
+        }
+    }
+}
@@ -18,9 +18,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -40,6 +46,10 @@ public class ZipMountPoint implements IMountPoint {
     Set<String> includeDirs = null;
     String includeBaseDir = "";
     private boolean isProject = true; // is it a Defold project?
+    // Entries that can be mounted, by path relative to the include base dir,
+    // and the same entries in archive order for walking. Built on mount.
+    private Map<String, ZipEntry> entryIndex = Collections.emptyMap();
+    private List<ZipEntry> mountedEntries = Collections.emptyList();
 
     private class ZipResource extends AbstractResource<IFileSystem> {
         ZipEntry entry;
@@ -82,6 +92,11 @@ public class ZipMountPoint implements IMountPoint {
             throw new IOException("Zip resources can't be removed.");
         }
 
+        @Override
+        public SeekableByteChannel openOutputChannel() throws IOException {
+            throw new IOException("Zip resources can't be written to.");
+        }
+
         @Override
         public long getLastModified() {
             return entry.getLastModifiedTime().toMillis();
@@ -107,14 +122,7 @@ public class ZipMountPoint implements IMountPoint {
 
     @Override
     public IResource get(String path) {
-        ZipEntry entry = null;
-        if (this.isProject) {
-            if (this.file != null && includes(path)) {
-                entry = this.file.getEntry(this.includeBaseDir + path);
-            }
-        } else {
-            entry = this.file.getEntry(this.includeBaseDir + path);
-        }
+        ZipEntry entry = this.entryIndex.get(path);
         if (entry != null) {
             return new ZipResource(this.fileSystem, path, entry);
         }
@@ -130,6 +138,7 @@ public class ZipMountPoint implements IMountPoint {
                 this.includeBaseDir = LibraryUtil.findIncludeBaseDir(this.file);
                 this.includeDirs = LibraryUtil.readIncludeDirsFromArchive(this.includeBaseDir, this.file);
             }
+            indexEntries();
         } catch (ZipException e) {
             throw new IOException(String.format("Failed to mount zip file '%s': %s", this.archivePath, e));
         } catch (ParseException e) {
@@ -149,34 +158,51 @@ public class ZipMountPoint implements IMountPoint {
             }
         });
         this.file = null;
+        this.entryIndex = Collections.emptyMap();
+        this.mountedEntries = Collections.emptyList();
+    }
+
+    // Index the entries by their mounted path. Like ZipFile.getEntry, a
+    // directory entry can also be found without its trailing slash.
+    private void indexEntries() {
+        Map<String, ZipEntry> index = new HashMap<String, ZipEntry>();
+        List<ZipEntry> mounted = new ArrayList<ZipEntry>();
+        Enumeration<? extends ZipEntry> entries = this.file.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String entryPath = entry.getName();
+            if (!entryPath.startsWith(this.includeBaseDir)) {
+                continue;
+            }
+            entryPath = entryPath.substring(this.includeBaseDir.length());
+            if (this.isProject && !includes(entryPath)) {
+                continue;
+            }
+            mounted.add(entry);
+            index.put(entryPath, entry);
+            if (entry.isDirectory() && entryPath.endsWith("/")) {
+                String dirPath = entryPath.substring(0, entryPath.length() - 1);
+                if (!this.isProject || includes(dirPath)) {
+                    index.putIfAbsent(dirPath, entry);
+                }
+            }
+        }
+        this.entryIndex = index;
+        this.mountedEntries = mounted;
     }
 
     @Override
     public void walk(String path, IWalker walker, Collection<String> results) {
         path = FilenameUtils.normalizeNoEndSeparator(path, true);
-        if (this.file != null) {
-            Enumeration<? extends ZipEntry> entries = this.file.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String entryPath = entry.getName();
-                if (this.isProject) {
-                    if (entryPath.startsWith(this.includeBaseDir)) {
-                        entryPath = entryPath.substring(this.includeBaseDir.length());
-                        if (includes(entryPath) && entryPath.startsWith(path)) {
-                            if (entry.isDirectory()) {
-                                walker.handleDirectory(entryPath, results);
-                            } else {
-                                walker.handleFile(entryPath, results);
-                            }
-                        }
-                    }
-                } else {
-                    if (entry.isDirectory()) {
-                        walker.handleDirectory(entryPath, results);
-                    } else {
-                        walker.handleFile(entryPath, results);
-                    }
-                }
+        for (ZipEntry entry : this.mountedEntries) {
+            String entryPath = entry.getName().substring(this.includeBaseDir.length());
+            if (this.isProject && !entryPath.startsWith(path)) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                walker.handleDirectory(entryPath, results);
+            } else {
+                walker.handleFile(entryPath, results);
             }
         }
     }
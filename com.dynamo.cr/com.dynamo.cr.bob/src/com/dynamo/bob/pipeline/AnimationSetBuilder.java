@@ -26,6 +26,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
@@ -172,19 +173,21 @@ public class AnimationSetBuilder extends Builder<Void>  {
                                     InputStream is, ModelImporter.DataResolver dataResolver, String animId, String parentId,
                                     String path, ArrayList<String> animationIds) throws IOException {
 
-        ModelImporter.Scene scene = ModelUtil.loadScene(is, path, new ModelImporter.Options(), dataResolver);
-
-        ArrayList<String> localAnimationIds = new ArrayList<String>();
-        AnimationSet.Builder animBuilder = AnimationSet.newBuilder();
-
-        // Currently, by design choice (for animation sets), each file must only contain one animation.
-        // Our current approach is to choose the longest animation (to eliminate target poses etc)
-        boolean topLevel = parentId.isEmpty();
-        ModelUtil.loadAnimations(scene, animBuilder, isAnimationSet ? animId : "", localAnimationIds);
+        // The scene is shared with the meshset and other animation sets using the same file
+        ModelImporter.Scene scene = ModelUtil.loadSharedScene(IOUtils.toByteArray(is), path, dataResolver);
+        try {
+            ArrayList<String> localAnimationIds = new ArrayList<String>();
+            AnimationSet.Builder animBuilder = AnimationSet.newBuilder();
 
-        animationSetBuilder.addAllAnimations(animBuilder.getAnimationsList());
+            // Currently, by design choice (for animation sets), each file must only contain one animation.
+            // Our current approach is to choose the longest animation (to eliminate target poses etc)
+            boolean topLevel = parentId.isEmpty();
+            ModelUtil.loadAnimations(scene, animBuilder, isAnimationSet ? animId : "", localAnimationIds);
 
-        ModelUtil.unloadScene(scene);
+            animationSetBuilder.addAllAnimations(animBuilder.getAnimationsList());
+        } finally {
+            ModelUtil.unloadScene(scene);
+        }
     }
 
     public static class ResourceDataResolver implements ModelImporter.DataResolver
@@ -137,6 +137,8 @@ public class AtlasBuilder extends Builder<TextureImage.Type>  {
 
         task.output(0).setContent(textureSet.toByteArray());
         task.output(1).setContent(texture.toByteArray());
+        project.setResourceReferences(task.output(0), textureSet);
+        project.setResourceReferences(task.output(1), texture);
     }
 
     public static void main(String[] args) throws IOException, CompileExceptionError {
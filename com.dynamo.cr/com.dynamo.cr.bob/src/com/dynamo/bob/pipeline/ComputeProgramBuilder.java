@@ -37,7 +37,9 @@ public class ComputeProgramBuilder extends ShaderProgramBuilder {
 
     @Override
     public void build(Task<ShaderPreprocessor> task) throws IOException, CompileExceptionError {
-        task.output(0).setContent(getCompiledShaderDesc(task, SHADER_TYPE).toByteArray());
+        ShaderDesc shaderDesc = getCompiledShaderDesc(task, SHADER_TYPE);
+        task.output(0).setContent(shaderDesc.toByteArray());
+        project.setResourceReferences(task.output(0), shaderDesc);
     }
 
     public static void main(String[] args) throws IOException, CompileExceptionError {
@@ -106,6 +106,7 @@ public class CubemapBuilder extends Builder<Void> {
         texture.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        project.setResourceReferences(task.output(0), texture);
     }
 
     private void validate(Task<Void> task, TextureImage[] textures) throws CompileExceptionError {
@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -58,6 +59,7 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.fs.ResourceOutputChannel;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.FileUtil;
 
@@ -237,6 +239,11 @@ public class ExtenderUtil {
 		public void setContent(InputStream stream) throws IOException {
 		}
 
+		@Override
+		public SeekableByteChannel openOutputChannel() throws IOException {
+			return new ResourceOutputChannel(this);
+		}
+
 		@Override
 		public long getLastModified() {
 	        return new File(rootDir).lastModified();
@@ -79,6 +79,8 @@ public class FontBuilder extends Builder<Void>  {
         fontMapBuilder.setShadowAlpha(fontDesc.getShadowAlpha());
         fontMapBuilder.setLayerMask(Fontc.GetFontMapLayerMask(fontDesc));
 
-        task.output(0).setContent(fontMapBuilder.build().toByteArray());
+        FontMap fontMap = fontMapBuilder.build();
+        task.output(0).setContent(fontMap.toByteArray());
+        project.setResourceReferences(task.output(0), fontMap);
     }
 }
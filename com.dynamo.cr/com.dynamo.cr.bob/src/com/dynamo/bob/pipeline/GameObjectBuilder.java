@@ -223,6 +223,7 @@ public class GameObjectBuilder extends Builder<Void> {
         out.close();
         task.output(0).setContent(out.toByteArray());
         task.output(1).setContent(compStorage.toByteArray());
+        project.setResourceReferences(task.output(0), proto);
     }
 
     private PrototypeDesc.Builder transformGo(IResource resource,
@@ -17,13 +17,13 @@ package com.dynamo.bob.pipeline;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.io.StringReader;
 import java.io.BufferedReader;
 import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -60,7 +60,6 @@ import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.archive.publisher.Publisher;
 import com.dynamo.bob.bundle.BundleHelper;
 import com.dynamo.bob.fs.IResource;
-import com.dynamo.bob.util.FileUtil;
 import com.dynamo.bob.logging.Logger;
 import com.dynamo.bob.pipeline.graph.ResourceGraph;
 import com.dynamo.bob.pipeline.graph.ResourceNode;
@@ -96,13 +95,6 @@ public class GameProjectBuilder extends Builder<Void> {
 
     private static Logger logger = Logger.getLogger(GameProjectBuilder.class.getName());
 
-    private RandomAccessFile createRandomAccessFile(File handle) throws IOException {
-        FileUtil.deleteOnExit(handle);
-        RandomAccessFile file = new RandomAccessFile(handle, "rw");
-        file.setLength(0);
-        return file;
-    }
-
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         boolean nonStandardGameProjectFile = !project.getGameProjectResource().getAbsPath().equals(input.getAbsPath());
@@ -225,7 +217,7 @@ public class GameProjectBuilder extends Builder<Void> {
         return resourcePadding;
     }
 
-    private void createArchive(ArchiveBuilder archiveBuilder, Collection<IResource> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
+    private void createArchive(ArchiveBuilder archiveBuilder, Collection<IResource> resources, SeekableByteChannel archiveIndex, SeekableByteChannel archiveData, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
         TimeProfiler.start("createArchive");
         logger.info("GameProjectBuilder.createArchive");
         long tstart = System.currentTimeMillis();
@@ -414,8 +406,6 @@ public class GameProjectBuilder extends Builder<Void> {
 
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
-        FileInputStream archiveIndexInputStream = null;
-        FileInputStream archiveDataInputStream = null;
         FileInputStream resourcePackInputStream = null;
         FileInputStream publicKeyInputStream = null;
 
@@ -464,27 +454,20 @@ public class GameProjectBuilder extends Builder<Void> {
                 // Create output for the data archive
                 String platform = project.option("platform", "generic");
                 project.getPublisher().setPlatform(platform);
-                File archiveIndexHandle = File.createTempFile("defold.index_", ".arci");
-                RandomAccessFile archiveIndex = createRandomAccessFile(archiveIndexHandle);
-                File archiveDataHandle = File.createTempFile("defold.data_", ".arcd");
-                RandomAccessFile archiveData = createRandomAccessFile(archiveDataHandle);
+                // game.arci and game.arcd are written in place, to avoid writing
+                // them to temporary files first and then copying them to the outputs
+                SeekableByteChannel archiveIndex = task.getOutputs().get(1).openOutputChannel();
+                SeekableByteChannel archiveData = task.getOutputs().get(2).openOutputChannel();
                 Path resourcePackDirectory = Files.createTempDirectory("defold.resourcepack_");
 
                 // create the archive and manifest
                 ManifestBuilder manifestBuilder = createManifestBuilder(resourceGraph);
                 ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder, getResourcePadding());
+                archiveBuilder.setMaxThreads(project.getMaxCpuThreads());
                 createArchive(archiveBuilder, resources, archiveIndex, archiveData, excludedResources, resourcePackDirectory);
                 byte[] manifestFile = manifestBuilder.buildManifest();
 
                 // Write outputs to the build system
-                // game.arci
-                archiveIndexInputStream = new FileInputStream(archiveIndexHandle);
-                task.getOutputs().get(1).setContent(archiveIndexInputStream);
-
-                // game.arcd
-                archiveDataInputStream = new FileInputStream(archiveDataHandle);
-                task.getOutputs().get(2).setContent(archiveDataInputStream);
-
                 // game.dmanifest
                 task.getOutputs().get(3).setContent(manifestFile);
 
@@ -496,8 +479,7 @@ public class GameProjectBuilder extends Builder<Void> {
                 resourceGraph.setHexDigests(archiveBuilder.getCachedHexDigests());
                 logger.info("Writing the resource graph to json");
                 tstart = System.currentTimeMillis();
-                String resourceGraphJSON = resourceGraph.toJSON();
-                task.getOutputs().get(5).setContent(resourceGraphJSON.getBytes());
+                resourceGraph.writeJSON(Channels.newOutputStream(task.getOutputs().get(5).openOutputChannel()));
                 tend = System.currentTimeMillis();
                 logger.info("Writing the resource graph to json took %f s", (tend-tstart)/1000.0);
 
@@ -505,7 +487,7 @@ public class GameProjectBuilder extends Builder<Void> {
                 File manifestFileHandle = new File(task.getOutputs().get(3).getAbsPath());
                 String liveupdateManifestFilename = "liveupdate.game.dmanifest";
                 File manifestTmpFileHandle = new File(FilenameUtils.concat(manifestFileHandle.getParent(), liveupdateManifestFilename));
-                FileUtils.copyFile(manifestFileHandle, manifestTmpFileHandle);
+                FileUtils.writeByteArrayToFile(manifestTmpFileHandle, manifestFile);
 
                 ArchiveEntry manifestArchiveEntry = new ArchiveEntry(root, manifestTmpFileHandle.getAbsolutePath().toString());
                 project.getPublisher().AddEntry(manifestTmpFileHandle, manifestArchiveEntry);
@@ -537,8 +519,6 @@ public class GameProjectBuilder extends Builder<Void> {
             transformGameProjectFile(properties);
             task.getOutputs().get(0).setContent(properties.serialize().getBytes());
         } finally {
-            IOUtils.closeQuietly(archiveIndexInputStream);
-            IOUtils.closeQuietly(archiveDataInputStream);
             IOUtils.closeQuietly(resourcePackInputStream);
             IOUtils.closeQuietly(publicKeyInputStream);
         }
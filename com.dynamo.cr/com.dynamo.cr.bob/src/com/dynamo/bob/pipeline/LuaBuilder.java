@@ -72,7 +72,7 @@ public abstract class LuaBuilder extends Builder<Void> {
 
     private static Logger logger = Logger.getLogger(LuaBuilder.class.getName());
 
-    private static ArrayList<Platform> platformUsesLua51 = new ArrayList<Platform>(Arrays.asList(Platform.JsWeb, Platform.WasmWeb));
+    private static final ArrayList<Platform> platformUsesLua51 = new ArrayList<Platform>(Arrays.asList(Platform.JsWeb, Platform.WasmWeb));
 
     private static List<ILuaPreprocessor> luaPreprocessors = null;
     private static List<ILuaObfuscator> luaObfuscators = null;
@@ -82,10 +82,29 @@ public abstract class LuaBuilder extends Builder<Void> {
     /**
      * Get a LuaScanner instance for a resource
      * This will cache the LuaScanner instance per resource to avoid parsing the
-     * resource more than once
+     * resource more than once. The result of the scanner is also cached on disk,
+     * keyed by the preprocessed source, to avoid parsing it again in later builds
      * @param resource The resource to get a LuaScanner for
      * @return A LuaScanner instance
      */
+    // The plugin lists are created once and shared by all Lua builders,
+    // which may run in parallel
+    private static synchronized List<ILuaPreprocessor> getLuaPreprocessors() throws CompileExceptionError {
+        if (luaPreprocessors == null) {
+            List<ILuaPreprocessor> plugins = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaPreprocessor.class);
+            luaPreprocessors = plugins != null ? plugins : new ArrayList<ILuaPreprocessor>(0);
+        }
+        return luaPreprocessors;
+    }
+
+    private static synchronized List<ILuaObfuscator> getLuaObfuscators() throws CompileExceptionError {
+        if (luaObfuscators == null) {
+            List<ILuaObfuscator> plugins = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaObfuscator.class);
+            luaObfuscators = plugins != null ? plugins : new ArrayList<ILuaObfuscator>(0);
+        }
+        return luaObfuscators;
+    }
+
     private LuaScanner getLuaScanner(IResource resource) throws IOException, CompileExceptionError {
         final String path = resource.getAbsPath();
         final String variant = project.option("variant", Bob.VARIANT_RELEASE);
@@ -95,15 +114,7 @@ public abstract class LuaBuilder extends Builder<Void> {
             String script = new String(scriptBytes, "UTF-8");
 
             // Create and run preprocessors if some exists.
-            if (luaPreprocessors == null) {
-                luaPreprocessors = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaPreprocessor.class);
-
-                if (luaPreprocessors == null) {
-                    luaPreprocessors = new ArrayList<ILuaPreprocessor>(0);
-                }
-            }
-
-            for (ILuaPreprocessor luaPreprocessor : luaPreprocessors) {
+            for (ILuaPreprocessor luaPreprocessor : getLuaPreprocessors()) {
                 try {
                     script = luaPreprocessor.preprocess(script, path, variant);
                 }
@@ -112,8 +123,8 @@ public abstract class LuaBuilder extends Builder<Void> {
                 }
             }
 
-            scanner = new LuaScanner();
-            scanner.parse(script);
+            LuaScannerCache cache = new LuaScannerCache(new File(project.getBuildCachePath(), LuaScannerCache.DIRECTORY_NAME));
+            scanner = cache.get(script);
             luaScanners.put(path, scanner);
         }
         return scanner;
@@ -153,6 +164,31 @@ public abstract class LuaBuilder extends Builder<Void> {
         return taskBuilder.build();
     }
 
+    private void throwCompileError(Task<Void> task, String cmdOutput) throws CompileExceptionError {
+        // first delimiter is the executable name "luajit:" or "luac:"
+        int execSep = cmdOutput.indexOf(':');
+        if (execSep > 0) {
+            // then comes the filename and the line like this:
+            // "file.lua:30: <error message>"
+            int lineBegin = cmdOutput.indexOf(':', execSep + 1);
+            if (lineBegin > 0) {
+                int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
+                if (lineEnd > 0) {
+                    throw new CompileExceptionError(task.input(0),
+                            Integer.parseInt(cmdOutput.substring(
+                                    lineBegin + 1, lineEnd)),
+                            cmdOutput.substring(lineEnd + 2));
+                }
+            }
+        }
+        else {
+            System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
+        }
+        // Since parsing out the actual error failed, as a backup just
+        // spit out whatever luajit/luac said.
+        throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+    }
+
     public byte[] constructBytecode(Task<Void> task, String source, File inputFile, File outputFile, List<String> options, Map<String, String> env) throws IOException, CompileExceptionError {
         FileOutputStream fo = null;
         RandomAccessFile rdr = null;
@@ -183,29 +219,8 @@ public abstract class LuaBuilder extends Builder<Void> {
 
                 String cmdOutput = new String(buf);
                 if (ret != 0) {
-                    // first delimiter is the executable name "luajit:" or "luac:"
-                    int execSep = cmdOutput.indexOf(':');
-                    if (execSep > 0) {
-                        // then comes the filename and the line like this:
-                        // "file.lua:30: <error message>"
-                        int lineBegin = cmdOutput.indexOf(':', execSep + 1);
-                        if (lineBegin > 0) {
-                            int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
-                            if (lineEnd > 0) {
-                                throw new CompileExceptionError(task.input(0),
-                                        Integer.parseInt(cmdOutput.substring(
-                                                lineBegin + 1, lineEnd)),
-                                        cmdOutput.substring(lineEnd + 2));
-                            }
-                        }
-                    }
-                    else {
-                        System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
-                    }
-                    // Since parsing out the actual error failed, as a backup just
-                    // spit out whatever luajit/luac said.
                     inputFile.delete();
-                    throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+                    throwCompileError(task, cmdOutput);
                 }
             } catch (InterruptedException e) {
                 logger.severe("Unexpected interruption", e);
@@ -297,6 +312,25 @@ public abstract class LuaBuilder extends Builder<Void> {
 
         Bob.initLua(); // unpack the lua resources
 
+        final String exe = Bob.getExe(Platform.getHostPlatform(), luajitExe);
+        Map<String, String> env = new HashMap<String, String>();
+        env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+
+        // Compile using a persistent worker process and fall back to
+        // running luajit once per script if the worker fails
+        LuaJITWorkerPool pool = LuaJITWorkerPool.get(exe, env, project.getMaxCpuThreads());
+        if (!pool.isDisabled()) {
+            try {
+                LuaJITWorkerPool.Result result = pool.compile(task.input(0).getPath(), source.getBytes());
+                if (result.error != null) {
+                    throwCompileError(task, result.error);
+                }
+                return result.bytecode;
+            } catch (IOException e) {
+                logger.fine("Compiling %s without a Lua compiler worker: %s", task.input(0).getPath(), e.getMessage());
+            }
+        }
+
         File outputFile = File.createTempFile("script", ".raw");
         File inputFile = File.createTempFile("script", ".lua");
 
@@ -312,16 +346,13 @@ public abstract class LuaBuilder extends Builder<Void> {
         //
         final String chunkName = getChunkName(task);
         List<String> options = new ArrayList<String>();
-        options.add(Bob.getExe(Platform.getHostPlatform(), luajitExe));
+        options.add(exe);
         options.add("-b");
         options.add("-g"); // Keep debug info
         options.add("-F"); options.add(task.input(0).getPath()); // The @ is added in the tool
         options.add(inputFile.getAbsolutePath());
         options.add(outputFile.getAbsolutePath());
 
-        Map<String, String> env = new HashMap<String, String>();
-        env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
-
         return constructBytecode(task, source, inputFile, outputFile, options, env);
     }
 
@@ -423,20 +454,11 @@ public abstract class LuaBuilder extends Builder<Void> {
         builder.setProperties(propertiesMsg);
         builder.addAllPropertyResources(propertyResources);
 
-        // Create and run obfuscators if some exists.
-        if (luaObfuscators == null) {
-            luaObfuscators = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaObfuscator.class);
-
-            if (luaObfuscators == null) {
-                luaObfuscators = new ArrayList<ILuaObfuscator>(0);
-            }
-        }
-
         final IResource sourceResource = task.input(0);
         final String sourcePath = sourceResource.getAbsPath();
         final String variant = project.option("variant", Bob.VARIANT_RELEASE);
 
-        for (ILuaObfuscator luaObfuscator : luaObfuscators) {
+        for (ILuaObfuscator luaObfuscator : getLuaObfuscators()) {
             try {
                 script = luaObfuscator.obfuscate(script, sourcePath, variant);
             }
@@ -531,6 +553,7 @@ public abstract class LuaBuilder extends Builder<Void> {
         msg.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        project.setResourceReferences(task.output(0), msg);
     }
 
     private PropertyDeclarations buildProperties(IResource resource, List<LuaScanner.Property> properties, Collection<String> propertyResources) throws CompileExceptionError {
@@ -0,0 +1,267 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.logging.Logger;
+
+/**
+ * Pool of long lived LuaJIT processes compiling Lua source to bytecode.
+ * Each worker runs luajit_compiler.lua and compiles one script at a time,
+ * receiving the source and returning the bytecode over stdin/stdout. This
+ * avoids starting a new process and writing temporary files for each script.
+ *
+ * Request:  u32 chunk name length, chunk name, u32 source length, source
+ * Response: u8 status (0 = ok, 1 = compile error), u32 payload length, payload
+ *
+ * All integers are big endian. The payload is the bytecode or the error
+ * message in the same format as luajit -b reports it.
+ */
+public class LuaJITWorkerPool {
+
+    private static Logger logger = Logger.getLogger(LuaJITWorkerPool.class.getName());
+
+    private static final String COMPILER_SCRIPT = "luajit_compiler.lua";
+    private static final int STATUS_OK = 0;
+
+    // luajit executable -> pool
+    private static Map<String, LuaJITWorkerPool> pools = new HashMap<>();
+    private static File compilerScript = null;
+
+    /**
+     * Result of compiling a script. Either the bytecode or the error
+     * message is set.
+     */
+    public static class Result {
+        public final byte[] bytecode;
+        public final String error;
+
+        private Result(byte[] bytecode, String error) {
+            this.bytecode = bytecode;
+            this.error = error;
+        }
+    }
+
+    private static class Worker {
+        Process process;
+        DataOutputStream out;
+        DataInputStream in;
+        boolean used = false;
+
+        Worker(Process process) {
+            this.process = process;
+            this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        Result compile(String chunkName, byte[] source) throws IOException {
+            byte[] name = chunkName.getBytes("UTF-8");
+            out.writeInt(name.length);
+            out.write(name);
+            out.writeInt(source.length);
+            out.write(source);
+            out.flush();
+
+            int status = in.read();
+            if (status == -1) {
+                throw new IOException("Lua compiler worker exited");
+            }
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Invalid response from Lua compiler worker");
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            used = true;
+            if (status == STATUS_OK) {
+                return new Result(payload, null);
+            }
+            return new Result(null, new String(payload));
+        }
+
+        void destroy() {
+            process.destroy();
+        }
+    }
+
+    private String luajitExe;
+    private Map<String, String> env;
+    private int maxWorkers;
+    private List<Worker> workers = new ArrayList<>();
+    private BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private volatile boolean disabled = false;
+
+    private LuaJITWorkerPool(String luajitExe, Map<String, String> env, int maxWorkers) {
+        this.luajitExe = luajitExe;
+        this.env = env;
+        this.maxWorkers = Math.max(1, maxWorkers);
+    }
+
+    /**
+     * Get the worker pool for a LuaJIT executable, creating it if needed
+     * @param luajitExe path to the luajit executable
+     * @param env environment of the worker processes
+     * @param maxWorkers max number of worker processes, used when the pool is created
+     * @return worker pool
+     */
+    public static synchronized LuaJITWorkerPool get(String luajitExe, Map<String, String> env, int maxWorkers) {
+        LuaJITWorkerPool pool = pools.get(luajitExe);
+        if (pool == null) {
+            pool = new LuaJITWorkerPool(luajitExe, env, maxWorkers);
+            pools.put(luajitExe, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Stop all worker processes. New workers are started on demand.
+     */
+    public static synchronized void shutdownAll() {
+        for (LuaJITWorkerPool pool : pools.values()) {
+            pool.shutdown();
+        }
+        pools.clear();
+    }
+
+    private static synchronized File getCompilerScript() throws IOException {
+        if (compilerScript == null) {
+            URL url = LuaJITWorkerPool.class.getResource(COMPILER_SCRIPT);
+            if (url == null) {
+                throw new IOException("Unable to find " + COMPILER_SCRIPT);
+            }
+            File file = new File(Bob.getPath("share/luajit"), COMPILER_SCRIPT);
+            FileUtils.copyURLToFile(url, file);
+            compilerScript = file;
+        }
+        return compilerScript;
+    }
+
+    /**
+     * Check if the pool can be used. A pool is disabled when a worker
+     * can't be started or fails before compiling its first script.
+     * @return true if the pool is disabled
+     */
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    private Worker startWorker() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(luajitExe);
+        command.add(getCompilerScript().getAbsolutePath());
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.environment().putAll(env);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return new Worker(pb.start());
+    }
+
+    private Worker acquire() throws IOException, InterruptedException {
+        while (true) {
+            Worker worker = idle.poll();
+            if (worker != null) {
+                return worker;
+            }
+            synchronized (this) {
+                if (workers.size() < maxWorkers) {
+                    worker = startWorker();
+                    workers.add(worker);
+                    return worker;
+                }
+            }
+            // wait for a worker to become idle, or to be discarded which
+            // allows a new one to be started
+            worker = idle.poll(100, TimeUnit.MILLISECONDS);
+            if (worker != null) {
+                return worker;
+            }
+            if (disabled) {
+                throw new IOException("Lua compiler workers are disabled");
+            }
+        }
+    }
+
+    private synchronized void discard(Worker worker) {
+        workers.remove(worker);
+        worker.destroy();
+    }
+
+    private synchronized void shutdown() {
+        for (Worker worker : workers) {
+            worker.destroy();
+        }
+        workers.clear();
+        idle.clear();
+    }
+
+    // Kill the worker processes but keep them in the pool, as if they had
+    // crashed. Used by the tests.
+    synchronized void killWorkers() throws InterruptedException {
+        for (Worker worker : workers) {
+            worker.process.destroyForcibly().waitFor();
+        }
+    }
+
+    /**
+     * Compile Lua source to bytecode, keeping debug info
+     * @param chunkName chunk name, without the leading @
+     * @param source Lua source
+     * @return compiled bytecode or compile error
+     * @throws IOException if the worker failed. The caller should compile the script some other way
+     */
+    public Result compile(String chunkName, byte[] source) throws IOException {
+        if (disabled) {
+            throw new IOException("Lua compiler workers are disabled");
+        }
+        Worker worker;
+        try {
+            worker = acquire();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (IOException e) {
+            disabled = true;
+            throw e;
+        }
+        try {
+            Result result = worker.compile(chunkName, source);
+            idle.add(worker);
+            return result;
+        } catch (IOException e) {
+            if (!worker.used) {
+                disabled = true;
+            }
+            logger.warning("Lua compiler worker failed for %s: %s", chunkName, e.getMessage());
+            discard(worker);
+            throw e;
+        }
+    }
+}
@@ -14,7 +14,10 @@
 
 package com.dynamo.bob.pipeline;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -100,9 +103,19 @@ public class LuaScanner extends LuaParserBaseListener {
     private CommonTokenStream tokenStream = null;
     private TokenStreamRewriter rewriter;
 
+    private String parsedLua = null;
     private List<String> modules = new ArrayList<String>();
     private List<Property> properties = new ArrayList<Property>();
 
+    // tags of the property values written by write()
+    private static final int VALUE_NONE = 0;
+    private static final int VALUE_NUMBER = 1;
+    private static final int VALUE_BOOLEAN = 2;
+    private static final int VALUE_STRING = 3;
+    private static final int VALUE_VECTOR3 = 4;
+    private static final int VALUE_VECTOR4 = 5;
+    private static final int VALUE_QUAT = 6;
+
     public static class Property {
         public enum Status {
             OK,
@@ -210,6 +223,7 @@ public class LuaScanner extends LuaParserBaseListener {
         ParseTreeWalker walker = new ParseTreeWalker();
         walker.walk(this, parser.chunk());
         String resultText = rewriter.getText();
+        parsedLua = resultText;
         TimeProfiler.stop();
         // return the parsed string
         return resultText;
@@ -220,7 +234,7 @@ public class LuaScanner extends LuaParserBaseListener {
      * @return The parsed Lua code
      */
     public String getParsedLua() {
-        return rewriter.getText();
+        return parsedLua;
     }
 
     /**
@@ -239,6 +253,117 @@ public class LuaScanner extends LuaParserBaseListener {
         return properties;
     }
 
+    private static void writeString(DataOutputStream os, String str) throws IOException {
+        if (str == null) {
+            os.writeInt(-1);
+            return;
+        }
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    private static String readString(DataInputStream is) throws IOException {
+        int length = is.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        is.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeValue(DataOutputStream os, Object value) throws IOException {
+        if (value instanceof Double) {
+            os.writeByte(VALUE_NUMBER);
+            os.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            os.writeByte(VALUE_BOOLEAN);
+            os.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            os.writeByte(VALUE_STRING);
+            writeString(os, (String) value);
+        } else if (value instanceof Vector3d) {
+            Vector3d v = (Vector3d) value;
+            os.writeByte(VALUE_VECTOR3);
+            os.writeDouble(v.x); os.writeDouble(v.y); os.writeDouble(v.z);
+        } else if (value instanceof Vector4d) {
+            Vector4d v = (Vector4d) value;
+            os.writeByte(VALUE_VECTOR4);
+            os.writeDouble(v.x); os.writeDouble(v.y); os.writeDouble(v.z); os.writeDouble(v.w);
+        } else if (value instanceof Quat4d) {
+            Quat4d q = (Quat4d) value;
+            os.writeByte(VALUE_QUAT);
+            os.writeDouble(q.x); os.writeDouble(q.y); os.writeDouble(q.z); os.writeDouble(q.w);
+        } else {
+            os.writeByte(VALUE_NONE);
+        }
+    }
+
+    private static Object readValue(DataInputStream is) throws IOException {
+        int tag = is.readByte();
+        switch (tag) {
+            case VALUE_NONE: return null;
+            case VALUE_NUMBER: return is.readDouble();
+            case VALUE_BOOLEAN: return is.readBoolean();
+            case VALUE_STRING: return readString(is);
+            case VALUE_VECTOR3: return new Vector3d(is.readDouble(), is.readDouble(), is.readDouble());
+            case VALUE_VECTOR4: return new Vector4d(is.readDouble(), is.readDouble(), is.readDouble(), is.readDouble());
+            case VALUE_QUAT: return new Quat4d(is.readDouble(), is.readDouble(), is.readDouble(), is.readDouble());
+            default: throw new IOException("Unknown property value type " + tag);
+        }
+    }
+
+    /**
+     * Write the result of a call to parse(), i.e. the parsed Lua code,
+     * modules and properties, so that it can be restored with read()
+     * @param os Stream to write to
+     */
+    public void write(DataOutputStream os) throws IOException {
+        writeString(os, parsedLua);
+        os.writeInt(modules.size());
+        for (String module : modules) {
+            writeString(os, module);
+        }
+        os.writeInt(properties.size());
+        for (Property property : properties) {
+            os.writeInt(property.line);
+            os.writeByte(property.status == null ? -1 : property.status.ordinal());
+            writeString(os, property.name);
+            os.writeInt(property.type == null ? -1 : property.type.getNumber());
+            writeValue(os, property.value);
+            os.writeBoolean(property.isResource);
+        }
+    }
+
+    /**
+     * Create a scanner from the result of a previous call to parse(),
+     * written with write()
+     * @param is Stream to read from
+     * @return Scanner with the parsed Lua code, modules and properties
+     */
+    public static LuaScanner read(DataInputStream is) throws IOException {
+        LuaScanner scanner = new LuaScanner();
+        scanner.parsedLua = readString(is);
+        int moduleCount = is.readInt();
+        for (int i = 0; i < moduleCount; ++i) {
+            scanner.modules.add(readString(is));
+        }
+        int propertyCount = is.readInt();
+        for (int i = 0; i < propertyCount; ++i) {
+            Property property = new Property(is.readInt());
+            int status = is.readByte();
+            property.status = status < 0 ? null : Status.values()[status];
+            property.name = readString(is);
+            int type = is.readInt();
+            property.type = type < 0 ? null : PropertyType.forNumber(type);
+            property.value = readValue(is);
+            property.isResource = is.readBoolean();
+            scanner.properties.add(property);
+        }
+        return scanner;
+    }
+
     // get all tokens spanning a context and belonging to a specific channel
     private List<Token> getTokens(ParserRuleContext ctx, int channel) {
         List<Token> tokens = getTokens(ctx);
@@ -0,0 +1,208 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.logging.Logger;
+
+/**
+ * Content addressed cache of Lua scanner results. The parsed Lua code,
+ * modules and properties of a script are stored in a file named after the
+ * SHA1 of the (preprocessed) source, so a script is only parsed once as
+ * long as its source doesn't change, also across builds.
+ *
+ * The entries of an engine version are kept in a sub directory named after
+ * the engine SHA1 and sharded in sub directories by the first two
+ * characters of the key. Unreadable entries are treated as misses. The
+ * cache is pruned with {@link #prune(File)} at the end of a build: entries
+ * of other engine versions are deleted and the least recently used entries
+ * are deleted when the cache is larger than MAX_SIZE.
+ */
+public class LuaScannerCache {
+
+    private static Logger logger = Logger.getLogger(LuaScannerCache.class.getName());
+
+    private static final int MAGIC = 0x4C534331;
+    private static final int VERSION = 1;
+
+    /**
+     * Name of the cache directory in the build cache directory
+     */
+    public static final String DIRECTORY_NAME = "luascanner";
+
+    // Max total size of the entries, pruned to PRUNED_SIZE
+    private static final long MAX_SIZE = 64L * 1024 * 1024;
+    private static final long PRUNED_SIZE = MAX_SIZE * 9 / 10;
+
+    private File cacheDir;
+
+    /**
+     * Create a cache in a directory. The directory is created when the first
+     * entry is written.
+     * @param cacheDir The cache directory
+     */
+    public LuaScannerCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Calculate the key of a script. The engine version is included since
+     * the result of the scanner may change between versions.
+     * @param source The script source
+     * @return Key as a hex string
+     */
+    public static String calculateKey(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA1");
+            digest.update(EngineVersion.sha1.getBytes());
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            return Hex.encodeHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(new File(new File(cacheDir, EngineVersion.sha1), key.substring(0, 2)), key);
+    }
+
+    /**
+     * Get the scanner result of a script, parsing the script and storing
+     * the result in the cache if it isn't cached
+     * @param source The script source
+     * @return Scanner with the result of parsing the source
+     */
+    public LuaScanner get(String source) {
+        String key = calculateKey(source);
+        File file = getFile(key);
+        if (file.exists()) {
+            try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (is.readInt() == MAGIC && is.readInt() == VERSION) {
+                    LuaScanner scanner = LuaScanner.read(is);
+                    // the modification time is the last use when pruning
+                    file.setLastModified(System.currentTimeMillis());
+                    return scanner;
+                }
+            } catch (Exception e) {
+                logger.fine("Unable to read cached Lua scanner result %s: %s", file, e.getMessage());
+            }
+            file.delete();
+        }
+
+        LuaScanner scanner = new LuaScanner();
+        scanner.parse(source);
+        try {
+            put(file, scanner);
+        } catch (IOException e) {
+            logger.warning("Unable to cache Lua scanner result %s: %s", file, e.getMessage());
+        }
+        return scanner;
+    }
+
+    private void put(File file, LuaScanner scanner) throws IOException {
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        // write to a temporary file and move it in place to not leave partial
+        // entries if several builds write the same entry
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                scanner.write(os);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Prune a cache directory. Entries of other engine versions are deleted
+     * and if the entries of this version are larger than MAX_SIZE the least
+     * recently used are deleted.
+     * @param cacheDir The cache directory
+     */
+    public static void prune(File cacheDir) {
+        prune(cacheDir, MAX_SIZE, PRUNED_SIZE);
+    }
+
+    static void prune(File cacheDir, long maxSize, long prunedSize) {
+        File[] versionDirs = cacheDir.listFiles();
+        if (versionDirs == null) {
+            return;
+        }
+        for (File versionDir : versionDirs) {
+            if (!versionDir.getName().equals(EngineVersion.sha1)) {
+                try {
+                    FileUtils.deleteDirectory(versionDir);
+                } catch (IOException e) {
+                    logger.fine("Unable to delete Lua scanner cache %s: %s", versionDir, e.getMessage());
+                }
+            }
+        }
+
+        File[] shardDirs = new File(cacheDir, EngineVersion.sha1).listFiles();
+        if (shardDirs == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>();
+        long size = 0;
+        for (File shardDir : shardDirs) {
+            File[] files = shardDir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                entries.add(file);
+                size += file.length();
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : entries) {
+            if (size <= prunedSize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+}
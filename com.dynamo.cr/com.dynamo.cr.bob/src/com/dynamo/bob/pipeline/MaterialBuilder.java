@@ -299,6 +299,7 @@ public class MaterialBuilder extends Builder<Void>  {
 
         MaterialDesc materialDesc = materialBuilder.build();
         task.output(0).setContent(materialDesc.toByteArray());
+        project.setResourceReferences(task.output(0), materialDesc);
     }
 
     public static void main(String[] args) throws IOException, CompileExceptionError {
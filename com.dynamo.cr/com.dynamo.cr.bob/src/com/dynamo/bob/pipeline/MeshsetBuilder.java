@@ -144,23 +144,27 @@ public class MeshsetBuilder extends Builder<Void>  {
             return;
         }
 
-        ModelImporter.Options options = new ModelImporter.Options();
         ResourceDataResolver dataResolver = new ResourceDataResolver(this.project);
-        ModelImporter.Scene scene = ModelUtil.loadScene(task.input(0).getContent(), task.input(0).getPath(), options, dataResolver);
+        // The scene is shared with the animation sets using the same file
+        ModelImporter.Scene scene = ModelUtil.loadSharedScene(task.input(0).getContent(), task.input(0).getPath(), dataResolver);
         if (scene == null) {
             throw new CompileExceptionError(task.input(0), -1, "Error loading model");
         }
 
+        try {
+            buildScene(task, scene);
+        } finally {
+            ModelUtil.unloadScene(scene);
+        }
+    }
+
+    private void buildScene(Task<Void> task, ModelImporter.Scene scene) throws CompileExceptionError, IOException {
         // MeshSet
         {
             MeshSet.Builder meshSetBuilder = MeshSet.newBuilder();
 
             int split_meshes = this.project.getProjectProperties().getIntValue("model", "split_large_meshes", 0);
-            if (split_meshes != 0) {
-                ModelUtil.splitMeshes(scene);
-            }
-
-            ModelUtil.loadModels(scene, meshSetBuilder);
+            ModelUtil.loadModels(scene, meshSetBuilder, split_meshes != 0);
 
             ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
             meshSetBuilder.build().writeTo(out);
@@ -197,7 +201,5 @@ public class MeshsetBuilder extends Builder<Void>  {
             out.close();
             task.output(2).setContent(out.toByteArray());
         }
-
-        ModelUtil.unloadScene(scene);
     }
 }
@@ -142,9 +142,11 @@ public class ModelBuilder extends Builder<Void> {
 
         rigBuilder.setTextureSet(""); // this is set in the model
         ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
-        rigBuilder.build().writeTo(out);
+        RigScene rigScene = rigBuilder.build();
+        rigScene.writeTo(out);
         out.close();
         task.output(1).setContent(out.toByteArray());
+        project.setResourceReferences(task.output(1), rigScene);
 
         // Model
         IResource resource = task.input(0);
@@ -227,8 +229,10 @@ public class ModelBuilder extends Builder<Void> {
         model.setDefaultAnimation(modelDescBuilder.getDefaultAnimation());
 
         out = new ByteArrayOutputStream(64 * 1024);
-        model.build().writeTo(out);
+        Model modelDesc = model.build();
+        modelDesc.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        project.setResourceReferences(task.output(0), modelDesc);
     }
 }
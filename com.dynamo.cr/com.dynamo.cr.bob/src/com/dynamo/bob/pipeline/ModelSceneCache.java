@@ -0,0 +1,209 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.dynamo.bob.pipeline.ModelImporter.Scene;
+
+/**
+ * Cache of imported model scenes, shared by the builders reading the same
+ * model file (meshset, skeleton and animation sets) so that each file is
+ * only imported once per build. Scenes are keyed by path and SHA1 of the
+ * file content. The path is part of the key since external buffers are
+ * resolved relative to it. Only scenes imported with the default import
+ * options are shared.
+ *
+ * A shared scene must be treated as read only. Each call to get() must be
+ * matched by a call to release(). Released scenes are kept for later
+ * builders until the total size of unreferenced scenes exceeds
+ * MAX_UNUSED_BYTES (least recently used are dropped first) or the cache is
+ * cleared, which Project.build() does when a build ends. Processes building
+ * without Project.build() keep at most MAX_UNUSED_BYTES of unused scenes
+ * until they call clear().
+ */
+public class ModelSceneCache {
+
+    private static final long MAX_UNUSED_BYTES = 32 * 1024 * 1024;
+
+    private static class Entry {
+        String key;
+        // set once by the thread importing the scene, guarded by the entry lock
+        boolean imported;
+        Scene scene;
+        IOException error;
+        long size;
+        // guarded by the class lock
+        int refCount;
+        boolean accounted;
+    }
+
+    // guarded by the class lock
+    private static Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static Map<Scene, Entry> sceneEntries = new IdentityHashMap<>();
+    private static long unusedBytes = 0;
+
+    static String calculateKey(byte[] content, String path) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA1");
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(content);
+            return Hex.encodeHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isExternalBuffer(ModelImporter.Buffer buffer) {
+        return buffer.uri != null && !buffer.uri.isEmpty() && !buffer.uri.startsWith("data:");
+    }
+
+    // The external buffers may have changed without the model file changing
+    private static boolean hasSameBuffers(Entry entry, String path, ModelImporter.DataResolver dataResolver) {
+        for (ModelImporter.Buffer buffer : entry.scene.buffers) {
+            if (isExternalBuffer(buffer) && !Arrays.equals(buffer.buffer, dataResolver.getData(path, buffer.uri))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the scene of a model file, importing it if it isn't cached
+     * @param content The model file content
+     * @param path The model file path
+     * @param dataResolver Resolver of external buffers
+     * @return The shared scene, imported with the default options. Must be released with release()
+     */
+    public static Scene get(byte[] content, String path, ModelImporter.DataResolver dataResolver) throws IOException {
+        String key = calculateKey(content, path);
+        while (true) {
+            Entry entry;
+            synchronized (ModelSceneCache.class) {
+                entry = entries.get(key);
+                if (entry == null) {
+                    entry = new Entry();
+                    entry.key = key;
+                    entries.put(key, entry);
+                }
+                if (entry.refCount++ == 0 && entry.accounted) {
+                    unusedBytes -= entry.size;
+                }
+            }
+
+            boolean importedHere = false;
+            synchronized (entry) {
+                if (!entry.imported) {
+                    try {
+                        entry.scene = ModelUtil.loadScene(content, path, new ModelImporter.Options(), dataResolver);
+                    } catch (IOException e) {
+                        entry.error = e;
+                    }
+                    if (entry.scene != null) {
+                        entry.size = content.length;
+                        for (ModelImporter.Buffer buffer : entry.scene.buffers) {
+                            entry.size += buffer.buffer != null ? buffer.buffer.length : 0;
+                        }
+                        synchronized (ModelSceneCache.class) {
+                            entry.accounted = true;
+                            sceneEntries.put(entry.scene, entry);
+                        }
+                    }
+                    entry.imported = true;
+                    importedHere = true;
+                }
+            }
+
+            if (entry.scene == null) {
+                synchronized (ModelSceneCache.class) {
+                    entries.remove(key, entry);
+                    entry.refCount--;
+                }
+                if (entry.error != null) {
+                    throw entry.error;
+                }
+                return null;
+            }
+
+            if (importedHere || hasSameBuffers(entry, path, dataResolver)) {
+                return entry.scene;
+            }
+
+            // Stale, drop it and import the file again
+            synchronized (ModelSceneCache.class) {
+                entries.remove(key, entry);
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * Release a scene returned by get(). Scenes not from the cache are ignored.
+     * @param scene The scene
+     */
+    public static synchronized void release(Scene scene) {
+        Entry entry = sceneEntries.get(scene);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    private static synchronized void release(Entry entry) {
+        if (--entry.refCount > 0) {
+            return;
+        }
+        if (entries.get(entry.key) != entry) {
+            // no longer cached
+            sceneEntries.remove(entry.scene);
+            return;
+        }
+        unusedBytes += entry.size;
+        Iterator<Entry> it = entries.values().iterator();
+        while (unusedBytes > MAX_UNUSED_BYTES && it.hasNext()) {
+            Entry unused = it.next();
+            if (unused.refCount == 0 && unused.accounted) {
+                it.remove();
+                sceneEntries.remove(unused.scene);
+                unusedBytes -= unused.size;
+            }
+        }
+    }
+
+    /**
+     * Drop all scenes that aren't in use. Called at the end of a build.
+     */
+    public static synchronized void clear() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.refCount == 0 && entry.accounted) {
+                it.remove();
+                sceneEntries.remove(entry.scene);
+            }
+        }
+        unusedBytes = 0;
+    }
+}
@@ -35,6 +35,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -82,6 +83,9 @@ import com.dynamo.rig.proto.Rig;
 import com.dynamo.rig.proto.Rig.AnimationInstanceDesc;
 import com.dynamo.rig.proto.Rig.AnimationSetDesc;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
 
 public class ModelUtil {
 
@@ -110,7 +114,14 @@ public class ModelUtil {
         return loadScene(bytes, path, options, dataResolver);
     }
 
+    // The scene is imported with the default options and shared with other builders reading the
+    // same file, it must not be modified. Unload it with unloadScene() when done.
+    public static Scene loadSharedScene(byte[] content, String path, ModelImporter.DataResolver dataResolver) throws IOException {
+        return ModelSceneCache.get(content, path, dataResolver);
+    }
+
     public static void unloadScene(Scene scene) {
+        ModelSceneCache.release(scene);
     }
 
     private static Vector3 toDDFVector3(ModelImporter.Vec4 v) {
@@ -537,9 +548,9 @@ public class ModelUtil {
         }
     }
 
-    private static void splitMeshes(Model model) {
+    private static Mesh[] splitMeshes(Mesh[] meshes) {
         List<Mesh> outMeshes = new ArrayList<>();
-        for (Mesh mesh : model.meshes) {
+        for (Mesh mesh : meshes) {
             if ((mesh.positions.length / 3) < MAX_SPLIT_VCOUNT) {
                 outMeshes.add(mesh);
                 continue;
@@ -550,15 +561,16 @@ public class ModelUtil {
             outMeshes.addAll(newMeshes);
         }
 
-        if (outMeshes.size() != model.meshes.length) {
-            model.meshes = outMeshes.toArray(new ModelImporter.Mesh[0]);
+        if (outMeshes.size() != meshes.length) {
+            return outMeshes.toArray(new ModelImporter.Mesh[0]);
         }
+        return meshes;
     }
 
     // Splits meshes that are have more than 65K+ vertices
     public static void splitMeshes(Scene scene) {
         for (Model model : scene.models) {
-            splitMeshes(model);
+            model.meshes = splitMeshes(model.meshes);
         }
     }
 
@@ -570,50 +582,82 @@ public class ModelUtil {
         return Arrays.asList(ArrayUtils.toObject(array));
     }
 
-    public static Rig.Mesh loadMesh(Mesh mesh) {
+    private static int computePackedFloatsSize(int fieldNumber, float[] values) {
+        if (values == null)
+            return 0;
+        int length = values.length * 4;
+        return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+    }
 
-        String name = mesh.name;
+    private static int computePackedUInt32Length(int[] values) {
+        int length = 0;
+        for (int v : values)
+            length += CodedOutputStream.computeUInt32SizeNoTag(v);
+        return length;
+    }
 
-        Rig.Mesh.Builder meshBuilder = Rig.Mesh.newBuilder();
+    private static void writePackedFloats(CodedOutputStream output, int fieldNumber, float[] values) throws IOException {
+        if (values == null)
+            return;
+        output.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(values.length * 4);
+        for (float v : values)
+            output.writeFloatNoTag(v);
+    }
+
+    // The vertex attributes are written as packed repeated fields and merged into the mesh builder.
+    // The parser adds them to the primitive lists of the message directly, while addAll*() would
+    // need every float boxed. The serialized mesh is the same either way.
+    private static void mergeVertexStreams(Rig.Mesh.Builder meshBuilder, Mesh mesh) {
+        int boneIndicesLength = mesh.bones != null ? computePackedUInt32Length(mesh.bones) : 0;
+        int size = computePackedFloatsSize(Rig.Mesh.POSITIONS_FIELD_NUMBER, mesh.positions) +
+                   computePackedFloatsSize(Rig.Mesh.NORMALS_FIELD_NUMBER, mesh.normals) +
+                   computePackedFloatsSize(Rig.Mesh.TANGENTS_FIELD_NUMBER, mesh.tangents) +
+                   computePackedFloatsSize(Rig.Mesh.COLORS_FIELD_NUMBER, mesh.colors) +
+                   computePackedFloatsSize(Rig.Mesh.WEIGHTS_FIELD_NUMBER, mesh.weights) +
+                   computePackedFloatsSize(Rig.Mesh.TEXCOORD0_FIELD_NUMBER, mesh.getTexCoords(0)) +
+                   computePackedFloatsSize(Rig.Mesh.TEXCOORD1_FIELD_NUMBER, mesh.getTexCoords(1));
+        if (mesh.bones != null)
+            size += CodedOutputStream.computeTagSize(Rig.Mesh.BONE_INDICES_FIELD_NUMBER) + CodedOutputStream.computeUInt32SizeNoTag(boneIndicesLength) + boneIndicesLength;
+
+        byte[] streams = new byte[size];
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(streams);
+            writePackedFloats(output, Rig.Mesh.POSITIONS_FIELD_NUMBER, mesh.positions);
+            writePackedFloats(output, Rig.Mesh.NORMALS_FIELD_NUMBER, mesh.normals);
+            writePackedFloats(output, Rig.Mesh.TANGENTS_FIELD_NUMBER, mesh.tangents);
+            writePackedFloats(output, Rig.Mesh.COLORS_FIELD_NUMBER, mesh.colors);
+            writePackedFloats(output, Rig.Mesh.WEIGHTS_FIELD_NUMBER, mesh.weights);
+            writePackedFloats(output, Rig.Mesh.TEXCOORD0_FIELD_NUMBER, mesh.getTexCoords(0));
+            writePackedFloats(output, Rig.Mesh.TEXCOORD1_FIELD_NUMBER, mesh.getTexCoords(1));
+            if (mesh.bones != null) {
+                output.writeTag(Rig.Mesh.BONE_INDICES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(boneIndicesLength);
+                for (int bone : mesh.bones)
+                    output.writeUInt32NoTag(bone);
+            }
+            output.checkNoSpaceLeft();
+            meshBuilder.mergeFrom(streams);
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException("Failed to read mesh vertex data", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write mesh vertex data", e);
+        }
+    }
 
-        float[] positions = mesh.positions;
-        float[] normals = mesh.normals;
-        float[] texCoords0 = mesh.getTexCoords(0);
-        float[] texCoords1 = mesh.getTexCoords(1);
+    public static Rig.Mesh loadMesh(Mesh mesh) {
+
+        Rig.Mesh.Builder meshBuilder = Rig.Mesh.newBuilder();
 
         meshBuilder.setAabbMin(toDDFVector3(mesh.aabb.min));
         meshBuilder.setAabbMax(toDDFVector3(mesh.aabb.max));
 
-        if (mesh.positions != null)
-            meshBuilder.addAllPositions(toList(mesh.positions));
-
-        if (mesh.normals != null)
-            meshBuilder.addAllNormals(toList(mesh.normals));
-
-        if (mesh.tangents != null)
-            meshBuilder.addAllTangents(toList(mesh.tangents));
-
-        if (mesh.colors != null)
-            meshBuilder.addAllColors(toList(mesh.colors));
-
-        if (mesh.weights != null) {
-            List<Float> weights_list = new ArrayList<Float>(mesh.weights.length);
-            for (int i = 0; i < mesh.weights.length; ++i) {
-                weights_list.add(mesh.weights[i]);
-            }
-            meshBuilder.addAllWeights(weights_list);
-        }
-
-        if (mesh.bones != null) {
-            meshBuilder.addAllBoneIndices(()->Arrays.stream(mesh.bones).iterator());
-        }
+        mergeVertexStreams(meshBuilder, mesh);
 
         if (mesh.getTexCoords(0) != null) {
-            meshBuilder.addAllTexcoord0(toList(mesh.getTexCoords(0)));
             meshBuilder.setNumTexcoord0Components(mesh.texCoords0NumComponents);
         }
         if (mesh.getTexCoords(1) != null) {
-            meshBuilder.addAllTexcoord1(toList(mesh.getTexCoords(1)));
             meshBuilder.setNumTexcoord0Components(mesh.texCoords1NumComponents);
         }
 
@@ -634,11 +678,11 @@ public class ModelUtil {
         return meshBuilder.build();
     }
 
-    private static Rig.Model loadModel(Node node, Model model, ArrayList<ModelImporter.Bone> skeleton) {
+    private static Rig.Model loadModel(Node node, Model model, ArrayList<ModelImporter.Bone> skeleton, Map<Model, Mesh[]> modelMeshes) {
 
         Rig.Model.Builder modelBuilder = Rig.Model.newBuilder();
 
-        for (Mesh mesh : model.meshes) {
+        for (Mesh mesh : modelMeshes.getOrDefault(model, model.meshes)) {
             modelBuilder.addMeshes(loadMesh(mesh));
         }
 
@@ -649,15 +693,15 @@ public class ModelUtil {
         return modelBuilder.build();
     }
 
-    private static void loadModelInstances(Node node, ArrayList<ModelImporter.Bone> skeleton, ArrayList<Rig.Model> models) {
+    private static void loadModelInstances(Node node, ArrayList<ModelImporter.Bone> skeleton, ArrayList<Rig.Model> models, Map<Model, Mesh[]> modelMeshes) {
 
         if (node.model != null)
         {
-            models.add(loadModel(node, node.model, skeleton));
+            models.add(loadModel(node, node.model, skeleton, modelMeshes));
         }
 
         for (Node child : node.children) {
-            loadModelInstances(child, skeleton, models);
+            loadModelInstances(child, skeleton, models, modelMeshes);
         }
     }
 
@@ -726,8 +770,21 @@ public class ModelUtil {
 
 
     public static void loadModels(Scene scene, Rig.MeshSet.Builder meshSetBuilder) {
+        loadModels(scene, meshSetBuilder, false);
+    }
+
+    // Loads the models of the scene, optionally splitting meshes with more than 65K+ vertices.
+    // Unlike splitMeshes(scene), the scene isn't modified.
+    public static void loadModels(Scene scene, Rig.MeshSet.Builder meshSetBuilder, boolean splitMeshes) {
         ArrayList<ModelImporter.Bone> skeleton = loadSkeleton(scene);
 
+        Map<Model, Mesh[]> modelMeshes = new IdentityHashMap<>();
+        if (splitMeshes) {
+            for (Model model : scene.models) {
+                modelMeshes.put(model, splitMeshes(model.meshes));
+            }
+        }
+
         meshSetBuilder.addAllMaterials(loadMaterialNames(scene));
 
         ArrayList<Rig.Model> models = new ArrayList<>();
@@ -736,7 +793,7 @@ public class ModelUtil {
             findModelNodes(root, modelNodes);
 
             for (Node modelNode : modelNodes) {
-                loadModelInstances(modelNode, skeleton, models);
+                loadModelInstances(modelNode, skeleton, models, modelMeshes);
             }
         }
         meshSetBuilder.addAllModels(models);
@@ -15,37 +15,73 @@
 package com.dynamo.bob.pipeline;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.codec.binary.Hex;
+
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.fs.IResource;
+import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
 import com.google.protobuf.TextFormat;
 
 public class ProtoUtil {
 
+    // Messages parsed during the build, keyed by message type, resource path and content digest.
+    // Collections and game objects are merged both when creating and building tasks,
+    // and sub collections once for every collection including them.
+    private static Map<String, Message> parsedMessages = new ConcurrentHashMap<>();
+
+    // The digest of a source resource is calculated once per build session,
+    // so a cache hit doesn't read the resource
+    private static String getCacheKey(IResource input, Builder builder) throws IOException {
+        return builder.getDescriptorForType().getFullName() + ":" + input.getPath() + ":" + Hex.encodeHexString(input.sha1());
+    }
+
+    /**
+     * Clear the messages parsed during the current build
+     */
+    public static void clearCache() {
+        parsedMessages.clear();
+    }
+
+    /**
+     * Merge a text format resource into a message builder. The resource is
+     * parsed once per build, later merges of the same content use the parsed
+     * message.
+     * @param input The resource
+     * @param builder The builder to merge into
+     */
     public static void merge(IResource input, Builder builder) throws IOException, CompileExceptionError {
-        byte[] content = input.getContent();
-        if (content == null) {
-            if (!input.exists()) {
-                throw new CompileExceptionError(input, 0, "Resource does not exist");
-            }
-            else {
+        if (!input.exists()) {
+            throw new CompileExceptionError(input, 0, "Resource does not exist");
+        }
+        String key = getCacheKey(input, builder);
+        Message message = parsedMessages.get(key);
+        if (message == null) {
+            byte[] content = input.getContent();
+            if (content == null) {
                 throw new CompileExceptionError(input, 0, "Resource is empty");
             }
-        }
-        try {
-            TextFormat.merge(new String(input.getContent()), builder);
-        } catch (TextFormat.ParseException e) {
-            // 1:7: String missing ending quote.
-            Pattern pattern = Pattern.compile("(\\d+):(\\d+): (.*)");
-            Matcher m = pattern.matcher(e.getMessage());
-            if (m.matches()) {
-                throw new CompileExceptionError(input, Integer.parseInt(m.group(1)), m.group(3), e);
-            } else {
-                throw new CompileExceptionError(input, 0, e.getMessage(), e);
+            Builder parsed = builder.getDefaultInstanceForType().newBuilderForType();
+            try {
+                TextFormat.merge(new String(content), parsed);
+            } catch (TextFormat.ParseException e) {
+                // 1:7: String missing ending quote.
+                Pattern pattern = Pattern.compile("(\\d+):(\\d+): (.*)");
+                Matcher m = pattern.matcher(e.getMessage());
+                if (m.matches()) {
+                    throw new CompileExceptionError(input, Integer.parseInt(m.group(1)), m.group(3), e);
+                } else {
+                    throw new CompileExceptionError(input, 0, e.getMessage(), e);
+                }
             }
+            message = parsed.buildPartial();
+            parsedMessages.put(key, message);
         }
+        builder.mergeFrom(message);
     }
 }
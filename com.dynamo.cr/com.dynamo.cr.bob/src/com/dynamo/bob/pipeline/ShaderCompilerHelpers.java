@@ -23,6 +23,8 @@ import java.io.PrintWriter;
 
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -31,8 +33,13 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Locale;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Pattern;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
@@ -48,6 +55,7 @@ import com.dynamo.bob.pipeline.ShaderUtil.Common;
 import com.dynamo.bob.pipeline.ShaderProgramBuilder;
 import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.FileUtil;
+import com.dynamo.bob.util.Exec.PipeResult;
 import com.dynamo.bob.util.Exec.Result;
 import com.dynamo.bob.util.MurmurHash;
 
@@ -184,11 +192,69 @@ public class ShaderCompilerHelpers {
         }
     }
 
-    static public SPIRVCompileResult compileGLSLToSPIRV(String shaderSource, ES2ToES3Converter.ShaderType shaderType, String resourceOutput, String targetProfile, boolean isDebug, boolean soft_fail)  throws IOException, CompileExceptionError {
+    // Compiled SPIR-V per shader variant, shared by all materials and programs in a build
+    private static Map<String, Future<SPIRVCompileResult>> spirvCache = new ConcurrentHashMap<>();
+
+    static String getSPIRVCacheKey(String shaderSource, ES2ToES3Converter.ShaderType shaderType, String targetProfile, boolean isDebug, boolean soft_fail) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA1");
+            digest.update(String.format("%s:%s:%b:%b:", shaderType, targetProfile, isDebug, soft_fail).getBytes(StandardCharsets.UTF_8));
+            digest.update(shaderSource.getBytes(StandardCharsets.UTF_8));
+            return Hex.encodeHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Clear the compiled SPIR-V kept for the current build
+     */
+    public static void clearSPIRVCache() {
+        spirvCache.clear();
+    }
+
+    /**
+     * Compile a (preprocessed) GLSL shader to SPIR-V. Identical shader variants are
+     * compiled once and the result shared, also when requested concurrently.
+     * Failed compilations are not cached.
+     */
+    static public SPIRVCompileResult compileGLSLToSPIRV(final String shaderSource, final ES2ToES3Converter.ShaderType shaderType, final String resourceOutput, final String targetProfile, final boolean isDebug, final boolean soft_fail)  throws IOException, CompileExceptionError {
+        String key = getSPIRVCacheKey(shaderSource, shaderType, targetProfile, isDebug, soft_fail);
+        FutureTask<SPIRVCompileResult> task = new FutureTask<>(() -> compileGLSLToSPIRVUncached(shaderSource, shaderType, resourceOutput, targetProfile, soft_fail));
+        Future<SPIRVCompileResult> future = spirvCache.putIfAbsent(key, task);
+        if (future == null) {
+            future = task;
+            task.run();
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            spirvCache.remove(key, future);
+            if (future != task) {
+                // Another resource failed to compile the same variant, compile it again so
+                // that the error is reported for this resource
+                return compileGLSLToSPIRVUncached(shaderSource, shaderType, resourceOutput, targetProfile, soft_fail);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof CompileExceptionError) {
+                throw (CompileExceptionError) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    // The tools are chained through stdin/stdout. Only spirv-cross needs its input as a file.
+    static private SPIRVCompileResult compileGLSLToSPIRVUncached(String shaderSource, ES2ToES3Converter.ShaderType shaderType, String resourceOutput, String targetProfile, boolean soft_fail)  throws IOException, CompileExceptionError {
         SPIRVCompileResult res = new SPIRVCompileResult();
 
-        Result result;
-        File file_out_spv;
+        PipeResult result;
 
         if (shaderType == ES2ToES3Converter.ShaderType.COMPUTE_SHADER) {
 
@@ -196,21 +262,14 @@ public class ShaderCompilerHelpers {
 
             ES2ToES3Converter.Result es3Result = ES2ToES3Converter.transform(shaderSource, shaderType, targetProfile, version, true);
 
-            File file_in_compute = File.createTempFile(FilenameUtils.getName(resourceOutput), ".cp");
-            FileUtil.deleteOnExit(file_in_compute);
-            FileUtils.writeByteArrayToFile(file_in_compute, es3Result.output.getBytes());
-
-            file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-            FileUtil.deleteOnExit(file_out_spv);
-
-            result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
+            result = Exec.execPipe(es3Result.output.getBytes(), Bob.getExe(Platform.getHostPlatform(), "glslc"),
                     "-w",
                     "-fauto-bind-uniforms",
                     "-fauto-map-locations",
                     // JG: Do we need to pass in -std flag?
                     "-fshader-stage=compute",
-                    "-o", file_out_spv.getAbsolutePath(),
-                    file_in_compute.getAbsolutePath());
+                    "-o", "-",
+                    "-");
         } else {
             int version = 140;
             if(targetProfile.equals("es")) {
@@ -243,22 +302,15 @@ public class ShaderCompilerHelpers {
             }
 
             // compile GLSL (ES3 or Desktop 140) to SPIR-V
-            File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
-            FileUtil.deleteOnExit(file_in_glsl);
-            FileUtils.writeByteArrayToFile(file_in_glsl, shaderSource.getBytes());
-
-            file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-            FileUtil.deleteOnExit(file_out_spv);
-
             String spirvShaderStage = (shaderType == ES2ToES3Converter.ShaderType.VERTEX_SHADER ? "vert" : "frag");
-            result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
+            result = Exec.execPipe(shaderSource.getBytes(), Bob.getExe(Platform.getHostPlatform(), "glslc"),
                     "-w",
                     "-fauto-bind-uniforms",
                     "-fauto-map-locations",
                     "-std=" + shaderVersionStr + shaderProfileStr,
                     "-fshader-stage=" + spirvShaderStage,
-                    "-o", file_out_spv.getAbsolutePath(),
-                    file_in_glsl.getAbsolutePath());
+                    "-o", "-",
+                    "-");
         }
 
         String result_string = getResultString(result);
@@ -269,14 +321,13 @@ public class ShaderCompilerHelpers {
             checkResult(result_string, null, resourceOutput);
         }
 
-        File file_out_spv_opt = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-        FileUtil.deleteOnExit(file_out_spv_opt);
+        byte[] spirv = result.stdOut;
 
         // Run optimization pass
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-opt"),
+        result = Exec.execPipe(spirv, Bob.getExe(Platform.getHostPlatform(), "spirv-opt"),
             "-O",
-            file_out_spv.getAbsolutePath(),
-            "-o", file_out_spv_opt.getAbsolutePath());
+            "-",
+            "-o", "-");
 
         result_string = getResultString(result);
         if (soft_fail && result_string != null) {
@@ -286,14 +337,18 @@ public class ShaderCompilerHelpers {
             checkResult(result_string, null, resourceOutput);
         }
 
-        // Generate reflection data
-        File file_out_refl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".json");
-        FileUtil.deleteOnExit(file_out_refl);
-
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
-            file_out_spv_opt.getAbsolutePath(),
-            "--output",file_out_refl.getAbsolutePath(),
-            "--reflect");
+        // Generate reflection data. spirv-cross can't read from stdin but writes the reflection to stdout
+        File file_out_spv_opt = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
+        FileUtil.deleteOnExit(file_out_spv_opt);
+        FileUtils.writeByteArrayToFile(file_out_spv_opt, result.stdOut);
+
+        try {
+            result = Exec.execPipe(null, Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
+                file_out_spv_opt.getAbsolutePath(),
+                "--reflect");
+        } finally {
+            file_out_spv_opt.delete();
+        }
 
         result_string = getResultString(result);
         if (soft_fail && result_string != null) {
@@ -303,7 +358,7 @@ public class ShaderCompilerHelpers {
             checkResult(result_string, null, resourceOutput);
         }
 
-        String result_json             = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
+        String result_json             = new String(result.stdOut, StandardCharsets.UTF_8);
         SPIRVReflector reflector       = new SPIRVReflector(result_json);
         ArrayList<String> shaderIssues = new ArrayList<String>();
 
@@ -357,7 +412,7 @@ public class ShaderCompilerHelpers {
         res.inputs         = reflector.getInputs();
         res.outputs        = reflector.getOutputs();
         res.resourceBlocks = resources;
-        res.source         = FileUtils.readFileToByteArray(file_out_spv);
+        res.source         = spirv;
 
         Collections.sort(res.inputs, new SortBindingsComparator());
         Collections.sort(res.outputs, new SortBindingsComparator());
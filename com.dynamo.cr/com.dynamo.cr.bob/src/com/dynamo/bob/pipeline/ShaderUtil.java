@@ -43,8 +43,8 @@ public class ShaderUtil {
         public static final String  glSampler2DArrayRegex                = "(.+)sampler2DArray\\s+(\\w+);";
         public static final Pattern regexUniformKeywordPattern           = Pattern.compile("((?<keyword>uniform)\\s+|(?<layout>layout\\s*\\(.*\\n*.*\\)\\s*)\\s+|(?<precision>lowp|mediump|highp)\\s+)*(?<type>\\S+)\\s+(?<identifier>\\S+)\\s*(?<any>.*)\\s*;");
         public static final Pattern regexUniformBlockBeginKeywordPattern = Pattern.compile("((?<keyword>uniform)\\s+|(?<layout>layout\\s*\\(.*\\n*.*\\)\\s*)\\s+)*(?<type>\\S+)(?<any>.*)");
-        public static String        includeDirectiveReplaceBaseStr       = "[^\\S\r\n]?\\s*\\#include\\s+(?:<%s>|\"%s\")";
-        public static String        includeDirectiveBaseStr              = "^\\s*\\#include\\s+(?:<(?<pathbrackets>[^\"<>|\b]+)>|\"(?<pathquotes>[^\"<>|\b]+)\")\\s*(?://.*)?$";
+        public static final String  includeDirectiveReplaceBaseStr       = "[^\\S\r\n]?\\s*\\#include\\s+(?:<%s>|\"%s\")";
+        public static final String  includeDirectiveBaseStr              = "^\\s*\\#include\\s+(?:<(?<pathbrackets>[^\"<>|\b]+)>|\"(?<pathquotes>[^\"<>|\b]+)\")\\s*(?://.*)?$";
         public static final Pattern includeDirectivePattern              = Pattern.compile(includeDirectiveBaseStr);
         public static final Pattern arrayArraySamplerPattern             = Pattern.compile("^\\s*uniform(?<qualifier>.*)sampler2DArray\\s+(?<uniform>\\w+);$");
         public static final Pattern regexVersionStringPattern            = Pattern.compile("^\\h*#\\h*version\\h+(?<version>\\d+)(\\h+(?<profile>\\S+))?\\h*\\n");
@@ -239,7 +239,7 @@ public class ShaderUtil {
     }
 
     public static class SPIRVReflector {
-        private static JsonNode root;
+        private JsonNode root;
 
         public SPIRVReflector(String json) throws IOException
         {
@@ -260,7 +260,7 @@ public class ShaderUtil {
             public ArrayList<Resource> uniforms = new ArrayList<Resource>();
         }
 
-        public static ArrayList<UniformBlock> getUniformBlocks()
+        public ArrayList<UniformBlock> getUniformBlocks()
         {
             ArrayList<UniformBlock> uniformBlocks = new ArrayList<UniformBlock>();
 
@@ -324,7 +324,7 @@ public class ShaderUtil {
             }
         }
 
-        public static ArrayList<Resource> getTextures() {
+        public ArrayList<Resource> getTextures() {
             ArrayList<Resource> textures = new ArrayList<Resource>();
             addTexturesFromNode(root.get("textures"),          textures);
             addTexturesFromNode(root.get("separate_images"),   textures);
@@ -333,7 +333,7 @@ public class ShaderUtil {
             return textures;
         }
 
-        public static ArrayList<Resource> getInputs() {
+        public ArrayList<Resource> getInputs() {
             ArrayList<Resource> inputs = new ArrayList<Resource>();
 
             JsonNode inputsNode = root.get("inputs");
@@ -354,7 +354,7 @@ public class ShaderUtil {
             return inputs;
         }
 
-        public static ArrayList<Resource> getOutputs() {
+        public ArrayList<Resource> getOutputs() {
             ArrayList<Resource> outputs = new ArrayList<Resource>();
 
             JsonNode outputsNode = root.get("outputs");
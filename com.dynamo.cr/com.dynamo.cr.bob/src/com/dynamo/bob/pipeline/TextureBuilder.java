@@ -74,6 +74,7 @@ public class TextureBuilder extends Builder<Void> {
         texture.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        project.setResourceReferences(task.output(0), texture);
     }
 
 }
@@ -14,19 +14,9 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferByte;
-import java.awt.image.DataBufferShort;
-import java.awt.image.DataBufferUShort;
-import java.awt.image.DataBufferInt;
-
-import java.nio.ShortBuffer;
-import java.nio.IntBuffer;
-
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
@@ -34,8 +24,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -62,8 +61,20 @@ import com.sun.jna.Pointer;
 
 public class TextureGenerator {
 
-    // specify what is maximum of threads TextureGenerator may use
-    public static int maxThreads = Project.getDefaultMaxCpuThreads();
+    // Encoder threads shared by all textures generated concurrently, i.e. by
+    // parallel build tasks and by the format alternatives of a texture.
+    // Each encode takes its share of the threads available, at least one,
+    // and returns them when done.
+    private static final Object encodeBudgetLock = new Object();
+    private static int maxThreads = Project.getDefaultMaxCpuThreads();
+    private static int availableThreads = maxThreads;
+
+    // Runs the format alternatives of a texture concurrently
+    private static final ExecutorService alternativeExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "texture-alternative");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private static HashMap<TextureFormatAlternative.CompressionLevel, Integer> compressionLevelLUT = new HashMap<TextureFormatAlternative.CompressionLevel, Integer>();
     static {
@@ -107,12 +118,46 @@ public class TextureGenerator {
         pixelFormatLUT.put(TextureFormat.TEXTURE_FORMAT_RGBA_BC7, PixelFormat.RGBA_BC7);
     }
 
-    private static BufferedImage convertImage(BufferedImage origImage, int type) {
-        BufferedImage image = new BufferedImage(origImage.getWidth(), origImage.getHeight(), type);
-        Graphics2D g2d = image.createGraphics();
-        g2d.drawImage(origImage, 0, 0, null);
-        g2d.dispose();
-        return image;
+    /**
+     * Set the max number of threads used to encode textures, in total
+     * @param maxThreads max number of encoder threads
+     */
+    public static void setMaxThreads(int maxThreads) {
+        maxThreads = Math.max(1, maxThreads);
+        synchronized (encodeBudgetLock) {
+            availableThreads += maxThreads - TextureGenerator.maxThreads;
+            TextureGenerator.maxThreads = maxThreads;
+            encodeBudgetLock.notifyAll();
+        }
+    }
+
+    public static int getMaxThreads() {
+        synchronized (encodeBudgetLock) {
+            return maxThreads;
+        }
+    }
+
+    // Take up to wanted threads from the encode budget, waiting until at least one is available
+    private static int acquireEncodeThreads(int wanted) throws IOException {
+        synchronized (encodeBudgetLock) {
+            try {
+                while (availableThreads <= 0) {
+                    encodeBudgetLock.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting to encode texture", e);
+            }
+            int threads = Math.max(1, Math.min(wanted, availableThreads));
+            availableThreads -= threads;
+            return threads;
+        }
+    }
+
+    private static void releaseEncodeThreads(int threads) {
+        synchronized (encodeBudgetLock) {
+            availableThreads += threads;
+            encodeBudgetLock.notifyAll();
+        }
     }
 
     // pickOptimalFormat will try to pick a texture format with the same number of channels as componentCount,
@@ -193,41 +238,10 @@ public class TextureGenerator {
         return targetFormat;
     }
 
-    private static ByteBuffer getByteBuffer(BufferedImage bi)
-    {
-        ByteBuffer byteBuffer;
-        DataBuffer dataBuffer = bi.getRaster().getDataBuffer();
-
-        if (dataBuffer instanceof DataBufferByte) { // This is the usual case, where data is simply wrapped
-            byte[] pixelData = ((DataBufferByte) dataBuffer).getData();
-            byteBuffer = ByteBuffer.wrap(pixelData);
-        }
-        else if (dataBuffer instanceof DataBufferUShort) {
-            short[] pixelData = ((DataBufferUShort) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 2);
-            byteBuffer.asShortBuffer().put(ShortBuffer.wrap(pixelData));
-        }
-        else if (dataBuffer instanceof DataBufferShort) {
-            short[] pixelData = ((DataBufferShort) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 2);
-            byteBuffer.asShortBuffer().put(ShortBuffer.wrap(pixelData));
-        }
-        else if (dataBuffer instanceof DataBufferInt) {
-            int[] pixelData = ((DataBufferInt) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 4);
-            byteBuffer.asIntBuffer().put(IntBuffer.wrap(pixelData));
-        }
-        else {
-            throw new IllegalArgumentException("Not implemented for data buffer type: " + dataBuffer.getClass());
-        }
-
-        return byteBuffer;
-    }
-
-    private static TextureImage.Image generateFromColorAndFormat(String name, BufferedImage image, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+    private static TextureImage.Image generateFromColorAndFormat(String name, TextureImageBuffer imageData, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis, int encodeThreads) throws TextureGeneratorException, IOException {
 
-        int width = image.getWidth();
-        int height = image.getHeight();
+        int width = imageData.getWidth();
+        int height = imageData.getHeight();
         int componentCount = colorModel.getNumComponents();
         Integer pixelFormat = PixelFormat.R8G8B8A8;
         int texcCompressionLevel;
@@ -236,9 +250,6 @@ public class TextureGenerator {
         int dataSize = width * height * 4;
 
 
-        ByteBuffer buffer_input = getByteBuffer(image);
-
-
         // convert from protobuf specified compressionlevel to texc int
         texcCompressionLevel = compressionLevelLUT.get(compressionLevel);
 
@@ -282,15 +293,15 @@ public class TextureGenerator {
             throw new TextureGeneratorException("Invalid texture format.");
         }
 
-        Pointer texture = TexcLibrary.TEXC_Create(name, width, height, PixelFormat.A8B8G8R8, ColorSpace.SRGB, texcCompressionType, buffer_input);
+        Pointer texture = TexcLibrary.TEXC_Create(name, width, height, PixelFormat.A8B8G8R8, ColorSpace.SRGB, texcCompressionType, imageData.getBuffer());
         if (texture == null) {
             throw new TextureGeneratorException("Failed to create texture");
         }
 
         try {
 
-            int newWidth  = image.getWidth();
-            int newHeight = image.getHeight();
+            int newWidth  = width;
+            int newHeight = height;
 
             // For pvrtc textures
             newWidth = TextureUtil.closestPOT(newWidth);
@@ -345,8 +356,13 @@ public class TextureGenerator {
                     throw new TextureGeneratorException("could not generate mip-maps");
                 }
             }
-            if (!TexcLibrary.TEXC_Encode(texture, pixelFormat, ColorSpace.SRGB, texcCompressionLevel, texcCompressionType, generateMipMaps, maxThreads)) {
-                throw new TextureGeneratorException("could not encode");
+            int threads = acquireEncodeThreads(encodeThreads);
+            try {
+                if (!TexcLibrary.TEXC_Encode(texture, pixelFormat, ColorSpace.SRGB, texcCompressionLevel, texcCompressionType, generateMipMaps, threads)) {
+                    throw new TextureGeneratorException("could not encode");
+                }
+            } finally {
+                releaseEncodeThreads(threads);
             }
 
             int bufferSize = TexcLibrary.TEXC_GetTotalDataSize(texture);
@@ -416,6 +432,54 @@ public class TextureGenerator {
         }
     }
 
+    // Threads to ask for when encoding one of count alternatives concurrently
+    private static int getEncodeShare(int count) {
+        return Math.max(1, getMaxThreads() / count);
+    }
+
+    // Generate alternatives, concurrently when there are several. The first one
+    // is generated on the calling thread. The images are returned in the same order.
+    private static List<TextureImage.Image> generateAlternatives(List<Callable<TextureImage.Image>> alternatives) throws TextureGeneratorException, IOException {
+        List<TextureImage.Image> images = new ArrayList<>(alternatives.size());
+        if (alternatives.isEmpty()) {
+            return images;
+        }
+        List<Future<TextureImage.Image>> futures = new ArrayList<>(alternatives.size());
+        try {
+            for (int i = 1; i < alternatives.size(); ++i) {
+                futures.add(alternativeExecutor.submit(alternatives.get(i)));
+            }
+            images.add(alternatives.get(0).call());
+            for (Future<TextureImage.Image> future : futures) {
+                images.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TextureGeneratorException) {
+                throw (TextureGeneratorException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (TextureGeneratorException | IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            // The alternatives share the image data, so wait for all of them also on failure
+            for (Future<TextureImage.Image> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // only the first error is reported
+                }
+            }
+        }
+        return images;
+    }
+
     // For convenience, some methods without the flipAxis and/or compress argument.
     // It will always try to flip on Y axis since this is the byte order that OpenGL expects for regular/most textures,
     // for those methods without this argument.
@@ -461,16 +525,18 @@ public class TextureGenerator {
     // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
     // Used by the editor
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        TimeProfiler.start("generateTexture");
         // Convert image into readable format
         // Always convert to ABGR since the texc lib demands that for resizing etc
-        TimeProfiler.start("generateTexture");
-        BufferedImage image;
-        if (origImage.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
-            image = convertImage(origImage, BufferedImage.TYPE_4BYTE_ABGR);
-        } else {
-            image = origImage;
+        // The pixel data is shared by all alternatives
+        try (TextureImageBuffer imageData = TextureImageBuffer.fromImage(origImage)) {
+            return generate(origImage, imageData, texProfile, compress, flipAxis);
+        } finally {
+            TimeProfiler.stop();
         }
+    }
 
+    private static TextureImage generate(BufferedImage origImage, TextureImageBuffer imageData, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
         // Setup texture format and settings
         ColorModel colorModel = origImage.getColorModel();
         int componentCount = colorModel.getNumComponents();
@@ -478,28 +544,41 @@ public class TextureGenerator {
 
         if (texProfile != null) {
 
-            // Generate an image for each format specified in the profile
+            // Collect the image to generate for each format specified in the profile.
+            // Identical alternatives (e.g. the same format on several platforms) are only generated once.
+            List<Callable<TextureImage.Image>> alternatives = new ArrayList<>();
+            Map<List<Object>, Integer> alternativeIndices = new HashMap<>();
+            List<Integer> order = new ArrayList<>();
             for (PlatformProfile platformProfile : texProfile.getPlatformsList()) {
                 for (int i = 0; i < platformProfile.getFormatsList().size(); ++i) {
-                    TextureImage.CompressionType compressionType = platformProfile.getFormats(i).getCompressionType();
-                    TextureFormatAlternative.CompressionLevel compressionLevel = platformProfile.getFormats(i).getCompressionLevel();
-                    TextureFormat textureFormat = platformProfile.getFormats(i).getFormat();
+                    final TextureImage.CompressionType compressionType = platformProfile.getFormats(i).getCompressionType();
+                    final TextureFormatAlternative.CompressionLevel compressionLevel = platformProfile.getFormats(i).getCompressionLevel();
 
                     // We pick a "new" format based on the input image component count and a "target" format.
                     // For example we would rather have a texture format with 3 channels if the input
                     // image has 3 channels, even if the texture profile specified a format with 4 channels.
-                    textureFormat = pickOptimalFormat(componentCount, textureFormat);
-
-                    try {
-                        TextureImage.Image raw = generateFromColorAndFormat(null, image, colorModel, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
-                        textureBuilder.addAlternatives(raw);
-                    } catch (TextureGeneratorException e) {
-                        throw e;
+                    final TextureFormat textureFormat = pickOptimalFormat(componentCount, platformProfile.getFormats(i).getFormat());
+                    final boolean mipMaps = platformProfile.getMipmaps();
+                    final int maxTextureSize = platformProfile.getMaxTextureSize();
+                    final boolean premulAlpha = platformProfile.getPremultiplyAlpha();
+
+                    List<Object> key = Arrays.asList(textureFormat, compressionLevel, compressionType, mipMaps, maxTextureSize, premulAlpha);
+                    Integer index = alternativeIndices.get(key);
+                    if (index == null) {
+                        index = alternatives.size();
+                        alternativeIndices.put(key, index);
+                        // the encode share is evaluated when generating, i.e. once all alternatives are known
+                        alternatives.add(() -> generateFromColorAndFormat(null, imageData, colorModel, textureFormat, compressionLevel, compressionType, mipMaps, maxTextureSize, compress, premulAlpha, flipAxis, getEncodeShare(alternatives.size())));
                     }
-
+                    order.add(index);
                 }
             }
 
+            List<TextureImage.Image> images = generateAlternatives(alternatives);
+            for (int index : order) {
+                textureBuilder.addAlternatives(images.get(index));
+            }
+
             textureBuilder.setCount(1);
             if (textureBuilder.getAlternativesCount() == 0) {
                 texProfile = null;
@@ -511,17 +590,14 @@ public class TextureGenerator {
 
             // Guess texture format based on number color components of input image
             TextureFormat textureFormat = pickOptimalFormat(componentCount, TextureFormat.TEXTURE_FORMAT_RGBA);
-            TextureImage.Image raw = generateFromColorAndFormat(null, image, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
+            TextureImage.Image raw = generateFromColorAndFormat(null, imageData, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis, getEncodeShare(1));
             textureBuilder.addAlternatives(raw);
             textureBuilder.setCount(1);
 
         }
 
         textureBuilder.setType(Type.TYPE_2D);
-        TextureImage textureImage = textureBuilder.build();
-        TimeProfiler.stop();
-        return textureImage;
-
+        return textureBuilder.build();
     }
 
     public static void main(String[] args) throws IOException, TextureGeneratorException {
@@ -0,0 +1,197 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pixel data of an image in the layout texc expects for PixelFormat.A8B8G8R8,
+ * i.e. the memory layout of a BufferedImage.TYPE_4BYTE_ABGR raster, in a direct
+ * buffer which can be handed to texc without further copies.
+ *
+ * The buffers are pooled and reused between textures of similar size, return
+ * them with close(). The pool is cleared at the end of each build.
+ * TYPE_4BYTE_ABGR images are copied straight from the raster. Other types
+ * are converted a strip of rows at a time, using the native blit loops, so no
+ * full size intermediate image is allocated.
+ */
+public class TextureImageBuffer implements AutoCloseable {
+
+    // Max number of bytes kept in released buffers
+    private static final long MAX_POOLED_BYTES = 256L * 1024 * 1024;
+    // Max ratio between the capacity of a reused buffer and the size needed
+    private static final int MAX_REUSE_RATIO = 2;
+    // Max size of the strip used to convert uncommon image types
+    private static final int STRIP_BYTES = 1024 * 1024;
+
+    private static final List<ByteBuffer> pool = new ArrayList<>();
+    private static long pooledBytes = 0;
+
+    private int width;
+    private int height;
+    private ByteBuffer buffer;
+
+    private TextureImageBuffer(int width, int height, ByteBuffer buffer) {
+        this.width = width;
+        this.height = height;
+        this.buffer = buffer;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the pixel data. The buffer is positioned at the first pixel
+     * and limited to the size of the image.
+     * @return pixel data
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null) {
+            release(buffer);
+            buffer = null;
+        }
+    }
+
+    // Take the smallest pooled buffer with room for size bytes, and at most
+    // MAX_REUSE_RATIO times larger, or allocate a new one
+    private static ByteBuffer acquire(int size) {
+        synchronized (pool) {
+            int best = -1;
+            for (int i = 0; i < pool.size(); ++i) {
+                int capacity = pool.get(i).capacity();
+                if (capacity >= size && capacity <= (long) size * MAX_REUSE_RATIO && (best == -1 || capacity < pool.get(best).capacity())) {
+                    best = i;
+                }
+            }
+            if (best != -1) {
+                ByteBuffer buffer = pool.remove(best);
+                pooledBytes -= buffer.capacity();
+                buffer.clear();
+                buffer.limit(size);
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private static void release(ByteBuffer buffer) {
+        synchronized (pool) {
+            if (pooledBytes + buffer.capacity() <= MAX_POOLED_BYTES) {
+                pool.add(buffer);
+                pooledBytes += buffer.capacity();
+            }
+        }
+    }
+
+    /**
+     * Clear the pool of released buffers
+     */
+    public static void clearPool() {
+        synchronized (pool) {
+            pool.clear();
+            pooledBytes = 0;
+        }
+    }
+
+    // True if the raster holds exactly the image pixels, row after row, in a single bank
+    private static boolean isPacked(Raster raster, int elementsPerPixel) {
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return false;
+        }
+        if (dataBuffer.getNumBanks() != 1 || dataBuffer.getOffset() != 0) {
+            return false;
+        }
+        int stride = raster.getWidth() * elementsPerPixel;
+        if (sampleModel instanceof ComponentSampleModel) {
+            ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+            return componentSampleModel.getPixelStride() == elementsPerPixel && componentSampleModel.getScanlineStride() == stride;
+        }
+        return false;
+    }
+
+    /**
+     * Copy (and convert) the pixels of an image. The pixels of a TYPE_4BYTE_ABGR image
+     * are copied as is, other images give the same result as drawing the image into a
+     * new TYPE_4BYTE_ABGR image.
+     * @param image image to copy
+     * @return pixel data, to be closed when no longer needed
+     */
+    public static TextureImageBuffer fromImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ByteBuffer buffer = acquire(width * height * 4);
+        Raster raster = image.getRaster();
+        int type = image.getType();
+
+        if (type == BufferedImage.TYPE_4BYTE_ABGR && isPacked(raster, 4)) {
+            buffer.put(((DataBufferByte) raster.getDataBuffer()).getData(), 0, width * height * 4);
+        } else if (type == BufferedImage.TYPE_4BYTE_ABGR) {
+            // e.g. a sub image, the samples of a row are returned in band order (RGBA)
+            byte[] samples = new byte[width * 4];
+            byte[] row = new byte[width * 4];
+            for (int y = 0; y < height; ++y) {
+                raster.getDataElements(0, y, width, 1, samples);
+                for (int i = 0; i < row.length; i += 4) {
+                    row[i + 0] = samples[i + 3];
+                    row[i + 1] = samples[i + 2];
+                    row[i + 2] = samples[i + 1];
+                    row[i + 3] = samples[i + 0];
+                }
+                buffer.put(row);
+            }
+        } else {
+            // Draw a strip of rows at a time, with the same compositing as drawing the whole image
+            int stripRows = Math.max(1, Math.min(height, STRIP_BYTES / (width * 4)));
+            BufferedImage strip = new BufferedImage(width, stripRows, BufferedImage.TYPE_4BYTE_ABGR);
+            byte[] stripData = ((DataBufferByte) strip.getRaster().getDataBuffer()).getData();
+            Graphics2D g2d = strip.createGraphics();
+            try {
+                for (int y = 0; y < height; y += stripRows) {
+                    int rows = Math.min(stripRows, height - y);
+                    Arrays.fill(stripData, (byte) 0);
+                    g2d.drawImage(image, 0, 0, width, rows, 0, y, width, y + rows, null);
+                    buffer.put(stripData, 0, rows * width * 4);
+                }
+            } finally {
+                g2d.dispose();
+            }
+        }
+
+        buffer.flip();
+        return new TextureImageBuffer(width, height, buffer);
+    }
+}
@@ -156,5 +156,7 @@ public class TileSetBuilder extends Builder<Void>  {
 
         task.output(0).setContent(textureSet.toByteArray());
         task.output(1).setContent(texture.toByteArray());
+        project.setResourceReferences(task.output(0), textureSet);
+        project.setResourceReferences(task.output(1), texture);
     }
 }
@@ -22,8 +22,15 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.Collection;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import java.io.Writer;
 import java.io.StringWriter;
@@ -44,6 +51,7 @@ import com.dynamo.bob.pipeline.graph.ResourceWalker;
 import com.dynamo.bob.pipeline.graph.ResourceWalker.IResourceVisitor;
 import com.dynamo.gamesys.proto.GameSystem.CollectionProxyDesc;
 
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Message;
 
 public class ResourceGraph implements IResourceVisitor {
@@ -57,10 +65,10 @@ public class ResourceGraph implements IResourceVisitor {
     private Set<ResourceNode> resourceNodes = new LinkedHashSet<>();
 
     // lookup between IResource and ResourceNode
-    private Map<IResource, ResourceNode> resourceToNodeLookup = new HashMap<>();
+    private Map<IResource, ResourceNode> resourceToNodeLookup = new ConcurrentHashMap<>();
 
     // lookup between resource path and ResourceNode
-    private Map<String, ResourceNode> pathToNodeLookup = new HashMap<>();
+    private Map<String, ResourceNode> pathToNodeLookup = new ConcurrentHashMap<>();
 
     // root resource to which all other resources are added
     private ResourceNode root = new ResourceNode("<AnonymousRoot>");
@@ -101,6 +109,12 @@ public class ResourceGraph implements IResourceVisitor {
         parentNode.addChild(currentNode);
     }
 
+    @Override
+    public boolean shouldVisitMessage(Descriptor descriptor) {
+        // only collection proxies are needed to find excluded resources
+        return descriptor == CollectionProxyDesc.getDescriptor();
+    }
+
     @Override
     public void visitMessage(Message message, IResource resource, IResource parentResource) throws CompileExceptionError {
         if (message instanceof CollectionProxyDesc) {
@@ -122,11 +136,133 @@ public class ResourceGraph implements IResourceVisitor {
 
     /**
      * Add a resource to the graph. This will add the resource and all sub-resources
-     * to the graph.
+     * to the graph. The sub-resources are resolved in parallel, using up to
+     * the max number of cpu threads of the project. The resulting graph and
+     * the order of the resource nodes are the same as when walking the graph
+     * depth-first on a single thread.
      * @param rootResource The resource to create graph from.
      */
     public void add(IResource rootResource) throws CompileExceptionError {
-        ResourceWalker.walk(project, rootResource, this);
+        int maxThreads = project.getMaxCpuThreads();
+        if (maxThreads <= 1) {
+            ResourceWalker.walk(project, rootResource, this);
+            return;
+        }
+        if (rootResource.getPath().equals("")) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+        try {
+            ConcurrentWalk walk = new ConcurrentWalk(executor);
+            ResourceNode rootNode = walk.getOrCreateNode(rootResource, null);
+            root.addChild(rootNode);
+            walk.await();
+            addNodesInVisitOrder(rootNode);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolves the children of all nodes reachable from a resource. Every new
+     * resource is expanded as a separate task, so independent subtrees (such
+     * as the game objects of a collection) are resolved concurrently. Only
+     * the task expanding a node adds children to it, in reference order.
+     */
+    private class ConcurrentWalk {
+        private ExecutorService executor;
+        // number of nodes created but not yet expanded
+        private AtomicInteger pending = new AtomicInteger();
+        private CountDownLatch done = new CountDownLatch(1);
+        private AtomicReference<Throwable> error = new AtomicReference<>();
+
+        ConcurrentWalk(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Get the node of a resource, creating it and scheduling its expansion
+         * if the resource hasn't been added to the graph before
+         */
+        ResourceNode getOrCreateNode(final IResource resource, final IResource parentResource) {
+            ResourceNode node = resourceToNodeLookup.get(resource);
+            if (node != null) {
+                return node;
+            }
+            final ResourceNode newNode = new ResourceNode(resource);
+            node = resourceToNodeLookup.putIfAbsent(resource, newNode);
+            if (node != null) {
+                return node;
+            }
+            pathToNodeLookup.put("/" + resource.getPath(), newNode);
+            pending.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    if (error.get() == null) {
+                        expand(newNode, resource, parentResource);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                }
+            });
+            return newNode;
+        }
+
+        void expand(ResourceNode node, IResource resource, IResource parentResource) throws CompileExceptionError {
+            for (String path : ResourceWalker.getReferences(project, resource, parentResource, ResourceGraph.this)) {
+                IResource child = project.getResource(path);
+                if (child.getPath().equals("")) {
+                    continue;
+                }
+                node.addChild(getOrCreateNode(child, resource));
+            }
+        }
+
+        void await() throws CompileExceptionError {
+            try {
+                // nothing is pending if the resource was already in the graph
+                if (pending.get() > 0) {
+                    done.await();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            Throwable e = error.get();
+            if (e instanceof CompileExceptionError) {
+                throw (CompileExceptionError) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e != null) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Add the nodes reachable from a node in depth-first pre-order, which is
+     * the order in which a single threaded walk visits them
+     */
+    private void addNodesInVisitOrder(ResourceNode node) {
+        Deque<ResourceNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            ResourceNode current = stack.pop();
+            if (!resourceNodes.add(current)) {
+                continue;
+            }
+            if (current.getResource() != null) {
+                resources.add(current.getResource().output());
+            }
+            List<ResourceNode> children = current.getChildren();
+            for (int i = children.size() - 1; i >= 0; --i) {
+                stack.push(children.get(i));
+            }
+        }
     }
 
     // used in tests
@@ -219,7 +355,7 @@ public class ResourceGraph implements IResourceVisitor {
      */
     public List<String> createExcludedResourcesList() {
         findAllResourcesReferencedFromMainCollection();
-        List<String> excludedResources = new LinkedList<>();
+        List<String> excludedResources = new ArrayList<>();
         for (ResourceNode node : resourceNodes) {
             if (node.isInMainBundle()) {
                 continue;
@@ -0,0 +1,161 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.dynamo.proto.DdfExtensions;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * The resources referenced from a compiled message. Builders record these
+ * when they produce a message so that the resource graph can be created
+ * without reading and decoding the output again.
+ *
+ * The fields to look at are cached per message type. Only fields marked
+ * as resource fields and message fields that may lead to a resource field
+ * are kept, which means that large messages such as mesh or texture data
+ * are skipped entirely.
+ */
+public class ResourceReferences {
+
+    private static final FieldDescriptor RESOURCE_OPTION = DdfExtensions.resource.getDescriptor();
+
+    // message type -> fields that are or may lead to resource fields
+    private static final Map<Descriptor, List<FieldDescriptor>> fieldCache = new ConcurrentHashMap<>();
+
+    private final Descriptor descriptor;
+    private final List<String> resources;
+
+    private ResourceReferences(Descriptor descriptor, List<String> resources) {
+        this.descriptor = descriptor;
+        this.resources = resources;
+    }
+
+    /**
+     * Collect the resources referenced from a message
+     * @param message message to collect resources from
+     * @return the resource references of the message
+     */
+    public static ResourceReferences create(Message message) {
+        List<String> resources = new ArrayList<>();
+        collect(message, resources);
+        return new ResourceReferences(message.getDescriptorForType(), Collections.unmodifiableList(resources));
+    }
+
+    /**
+     * Get the type of the message the references were collected from
+     * @return message descriptor
+     */
+    public Descriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Get the referenced resource paths, in field order, depth first
+     * @return list of resource paths
+     */
+    public List<String> getResources() {
+        return resources;
+    }
+
+    /**
+     * Get the fields of a message type that are resource fields or message
+     * fields which may contain resource fields
+     * @param descriptor message type
+     * @return list of fields in declaration order
+     */
+    public static List<FieldDescriptor> getResourceFields(Descriptor descriptor) {
+        List<FieldDescriptor> fields = fieldCache.get(descriptor);
+        if (fields == null) {
+            synchronized (fieldCache) {
+                fields = fieldCache.get(descriptor);
+                if (fields == null) {
+                    Map<Descriptor, List<FieldDescriptor>> computed = new HashMap<>();
+                    fields = computeResourceFields(descriptor, computed, new HashSet<Descriptor>());
+                    fieldCache.putAll(computed);
+                }
+            }
+        }
+        return fields;
+    }
+
+    public static boolean isResourceField(FieldDescriptor fieldDescriptor) {
+        return (Boolean) fieldDescriptor.getOptions().getField(RESOURCE_OPTION);
+    }
+
+    private static List<FieldDescriptor> computeResourceFields(Descriptor descriptor, Map<Descriptor, List<FieldDescriptor>> computed, Set<Descriptor> inProgress) {
+        List<FieldDescriptor> fields = fieldCache.get(descriptor);
+        if (fields == null) {
+            fields = computed.get(descriptor);
+        }
+        if (fields != null) {
+            return fields;
+        }
+
+        inProgress.add(descriptor);
+        fields = new ArrayList<>();
+        for (FieldDescriptor fieldDescriptor : descriptor.getFields()) {
+            if (fieldDescriptor.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+                Descriptor fieldType = fieldDescriptor.getMessageType();
+                // a recursive message type is kept since it isn't known yet whether it has resources
+                if (inProgress.contains(fieldType) || !computeResourceFields(fieldType, computed, inProgress).isEmpty()) {
+                    fields.add(fieldDescriptor);
+                }
+            } else if (fieldDescriptor.getJavaType() == FieldDescriptor.JavaType.STRING && isResourceField(fieldDescriptor)) {
+                fields.add(fieldDescriptor);
+            }
+        }
+        inProgress.remove(descriptor);
+
+        fields = Collections.unmodifiableList(fields);
+        computed.put(descriptor, fields);
+        return fields;
+    }
+
+    private static void collect(Message message, List<String> resources) {
+        for (FieldDescriptor fieldDescriptor : getResourceFields(message.getDescriptorForType())) {
+            boolean isMessage = fieldDescriptor.getJavaType() == FieldDescriptor.JavaType.MESSAGE;
+            if (fieldDescriptor.isRepeated()) {
+                int count = message.getRepeatedFieldCount(fieldDescriptor);
+                for (int i = 0; i < count; ++i) {
+                    Object value = message.getRepeatedField(fieldDescriptor, i);
+                    if (isMessage) {
+                        collect((Message) value, resources);
+                    } else {
+                        resources.add((String) value);
+                    }
+                }
+            } else if (isMessage) {
+                if (message.hasField(fieldDescriptor)) {
+                    collect((Message) message.getField(fieldDescriptor), resources);
+                }
+            } else {
+                resources.add((String) message.getField(fieldDescriptor));
+            }
+        }
+    }
+}
@@ -14,20 +14,16 @@
 
 package com.dynamo.bob.pipeline.graph;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Stack;
 
 import com.dynamo.bob.Project;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.fs.IResource;
-import com.dynamo.proto.DdfExtensions;
 import com.dynamo.bob.ProtoBuilder;
 
 import com.google.protobuf.GeneratedMessageV3;
-import com.google.protobuf.DescriptorProtos.FieldOptions;
-import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Message;
 
 
@@ -38,67 +34,72 @@ public class ResourceWalker {
         public void visitMessage(Message message, IResource resource, IResource parentResource) throws CompileExceptionError;
         public void leave(IResource resource, IResource parentResource) throws CompileExceptionError;
         public boolean shouldVisit(IResource resource, IResource parentResource);
+        /**
+         * Check if the visitor needs the decoded message of a resource of a
+         * specific type. When it doesn't and the builder of the resource
+         * recorded its resource references the output is not read again.
+         */
+        public boolean shouldVisitMessage(Descriptor descriptor);
     }
 
-    private static void visitMessage(Project project, IResource currentResource, Message node, IResourceVisitor visitor) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                visitMessage(project, currentResource, (Message) value, visitor);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        visitMessage(project, currentResource, (Message) v, visitor);
-                    } else if (isResource && v instanceof String) {
-                        visitResource(project, currentResource, project.getResource((String) v), visitor);
-                    }
-                }
-            } else if (isResource && value instanceof String) {
-                visitResource(project, currentResource, project.getResource((String) value), visitor);
-            }
-        }
-    }
-
-    private static void visitResource(Project project, IResource parentResource, IResource resource, IResourceVisitor visitor) throws CompileExceptionError {
-        if (resource.getPath().equals("") || !visitor.shouldVisit(resource, parentResource)) {
-            return;
-        }
-
-        visitor.visit(resource, parentResource);
-
+    /**
+     * Get the paths of the resources referenced from a resource. The references
+     * recorded by the builder are used unless the visitor needs the decoded
+     * message, in which case the output is decoded and passed to
+     * {@link IResourceVisitor#visitMessage}. Does not visit the referenced
+     * resources and may be called concurrently for different resources.
+     * @param project project the resource belongs to
+     * @param resource resource to get references for
+     * @param parentResource parent of the resource, passed on to the visitor
+     * @param visitor visitor to pass the decoded message to
+     * @return list of referenced resource paths, in field order
+     */
+    public static List<String> getReferences(Project project, IResource resource, IResource parentResource, IResourceVisitor visitor) throws CompileExceptionError {
         int i = resource.getPath().lastIndexOf(".");
         if (i == -1) {
-            visitor.leave(resource, parentResource);
-            return;
+            return Collections.emptyList();
         }
 
         String ext = resource.getPath().substring(i);
         if (!ProtoBuilder.supportsType(ext)) {
-            visitor.leave(resource, parentResource);
-            return;
+            return Collections.emptyList();
+        }
+
+        IResource output = resource.output();
+        ResourceReferences references = project.getResourceReferences(output);
+        if (references != null && !visitor.shouldVisitMessage(references.getDescriptor())) {
+            return references.getResources();
         }
 
+        // the output was not built in this session (up to date or restored
+        // from the resource cache) or the visitor needs the message
         GeneratedMessageV3.Builder<?> builder = ProtoBuilder.newBuilder(ext);
+        Message message;
         try {
-            final byte[] content = resource.output().getContent();
+            final byte[] content = output.getContent();
             if(content == null) {
                 throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
             }
             builder.mergeFrom(content);
-            Message message = (Message)builder.build();
-            visitor.visitMessage(message, resource, parentResource);
-            visitMessage(project, resource, message, visitor);
+            message = (Message)builder.build();
         } catch(CompileExceptionError e) {
             throw e;
         } catch(Exception e) {
             throw new RuntimeException(e);
         }
+        visitor.visitMessage(message, resource, parentResource);
+        return ResourceReferences.create(message).getResources();
+    }
+
+    private static void visitResource(Project project, IResource parentResource, IResource resource, IResourceVisitor visitor) throws CompileExceptionError {
+        if (resource.getPath().equals("") || !visitor.shouldVisit(resource, parentResource)) {
+            return;
+        }
+
+        visitor.visit(resource, parentResource);
+        for (String path : getReferences(project, resource, parentResource, visitor)) {
+            visitResource(project, resource, project.getResource(path), visitor);
+        }
         visitor.leave(resource, parentResource);
     }
 
@@ -106,4 +107,4 @@ public class ResourceWalker {
         visitResource(project, null, rootResource, visitor);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+-- Compiles Lua source to bytecode for bob, see LuaJITWorkerPool.java
+--
+-- Request:  u32 chunk name length, chunk name, u32 source length, source
+-- Response: u8 status (0 = ok, 1 = compile error), u32 payload length, payload
+--
+-- All integers are big endian. The bytecode is the same as produced by
+-- luajit -b -g -F <chunk name>. The worker exits when stdin is closed.
+
+if jit.os == "Windows" then
+    -- stdin and stdout must not translate line endings
+    local ffi = require("ffi")
+    ffi.cdef[[int _setmode(int fd, int mode);]]
+    ffi.C._setmode(0, 0x8000)
+    ffi.C._setmode(1, 0x8000)
+end
+
+local stdin = io.stdin
+local stdout = io.stdout
+
+local function read_u32()
+    local s = stdin:read(4)
+    if s == nil or #s < 4 then
+        return nil
+    end
+    local b1, b2, b3, b4 = s:byte(1, 4)
+    return ((b1 * 256 + b2) * 256 + b3) * 256 + b4
+end
+
+local function read_string()
+    local n = read_u32()
+    if n == nil then
+        return nil
+    end
+    if n == 0 then
+        return ""
+    end
+    local s = stdin:read(n)
+    if s == nil or #s < n then
+        return nil
+    end
+    return s
+end
+
+local function write_response(status, payload)
+    local n = #payload
+    stdout:write(string.char(status,
+        math.floor(n / 16777216) % 256,
+        math.floor(n / 65536) % 256,
+        math.floor(n / 256) % 256,
+        n % 256))
+    stdout:write(payload)
+    stdout:flush()
+end
+
+while true do
+    local name = read_string()
+    if name == nil then
+        break
+    end
+    local source = read_string()
+    if source == nil then
+        break
+    end
+    local f, err = loadstring(source, "@" .. name)
+    if f then
+        write_response(0, string.dump(f))
+    else
+        write_response(1, "luajit: " .. tostring(err) .. "\n")
+    end
+end
@@ -19,6 +19,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -171,4 +172,73 @@ public class Exec {
         return Exec.execResultWithEnvironment(env, array);
     }
 
+    public static class PipeResult extends Result {
+        public PipeResult(int ret, byte[] stdOut, byte[] stdErr) {
+            super(ret, stdErr);
+            this.stdOut = stdOut;
+        }
+        public byte[] stdOut;
+    }
+
+    private static void readFully(InputStream is, ByteArrayOutputStream out) throws IOException {
+        byte[] buf = new byte[16 * 1024];
+        int n = is.read(buf);
+        while (n > 0) {
+            out.write(buf, 0, n);
+            n = is.read(buf);
+        }
+    }
+
+    /**
+     * Exec command with input written to stdin. Stdout and stderr are kept apart
+     * so that the output of one tool can be piped to the next without temporary files.
+     * @param input data written to stdin of the process (may be null)
+     * @param args arguments
+     * @return instance with return code, stdout and stderr (in stdOutErr)
+     * @throws IOException
+     */
+    public static PipeResult execPipe(final byte[] input, String... args) throws IOException {
+        if (getVerbosity() >= 2) {
+            logger.info("CMD: " + String.join(" ", args));
+        }
+        ProcessBuilder pb = new ProcessBuilder(args);
+        addJavaBinPath(pb);
+        final Process p = pb.start();
+
+        // stdin and stderr are serviced on separate threads so that
+        // the process never blocks on a full pipe
+        final ByteArrayOutputStream err = new ByteArrayOutputStream(1024);
+        Thread errReader = new Thread(() -> {
+            try {
+                readFully(p.getErrorStream(), err);
+            } catch (IOException e) {
+                // the process has terminated
+            }
+        });
+        Thread inWriter = new Thread(() -> {
+            try (OutputStream os = p.getOutputStream()) {
+                if (input != null) {
+                    os.write(input);
+                }
+            } catch (IOException e) {
+                // the process exited without reading all input, reported through the return code
+            }
+        });
+        errReader.start();
+        inWriter.start();
+
+        int ret = 127;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        try {
+            readFully(p.getInputStream(), out);
+            ret = p.waitFor();
+            inWriter.join();
+            errReader.join();
+        } catch (InterruptedException e) {
+            logger.severe("Unexpected interruption", e);
+        }
+
+        return new PipeResult(ret, out.toByteArray(), err.toByteArray());
+    }
+
 }
@@ -60,6 +60,8 @@ public class TimeProfiler {
 
         public ProfilingScope parent;
         public ArrayList<ProfilingScope> children;
+        // first scope started on a thread other than the one which initialized the profiler
+        public boolean threadRoot;
     }
 
     /**
@@ -76,10 +78,17 @@ public class TimeProfiler {
     private static long buildTime;
 
     private static ProfilingScope rootScope;
-    private static ProfilingScope currentScope;
     private static List<File> reportFiles;
     private static Boolean fromEditor;
 
+    // Each thread has its own stack of scopes. The thread which initialized the
+    // profiler starts at the root scope. Scopes started on other threads (e.g.
+    // tasks built in parallel) are added to the current scope of that thread.
+    private static volatile ThreadLocal<ProfilingScope> currentScope = new ThreadLocal<ProfilingScope>();
+    private static volatile ProfilingScope ownerScope;
+    private static Thread ownerThread;
+    private static final Object childrenLock = new Object();
+
     private static long time() {
         return System.currentTimeMillis();
     }
@@ -204,12 +213,14 @@ public class TimeProfiler {
         long reportStartTime = time();
 
         //Close all unclosed scopes
-        while(currentScope != _rootScope) {
-            unsafeAddData("forceFinishedScope", true);
-            unsafeAddData("color", "#FF0000");
-            unsafeStop();
+        ProfilingScope scope = ownerScope;
+        while(scope != _rootScope) {
+            unsafeAddData(scope, "forceFinishedScope", true);
+            unsafeAddData(scope, "color", "#FF0000");
+            scope.endTime = time();
+            scope = scope.parent;
         };
-        unsafeStop();
+        _rootScope.endTime = time();
 
         try {
             String jsonReport = generateJSON(_rootScope);
@@ -245,6 +256,8 @@ public class TimeProfiler {
         }
         TimeProfiler.reportFiles = reportFiles;
         TimeProfiler.fromEditor = fromEditor;
+        ownerThread = Thread.currentThread();
+        currentScope = new ThreadLocal<ProfilingScope>();
         marks = new ArrayList();
         long startTime = time();
         if (!fromEditor) {
@@ -254,8 +267,8 @@ public class TimeProfiler {
         buildTime = startTime;
         rootScope = new ProfilingScope();
         rootScope.startTime = startTime;
-        currentScope = rootScope;
-        unsafeAddData("name", "Total time");
+        setCurrentScope(rootScope);
+        unsafeAddData(rootScope, "name", "Total time");
 
         if (!fromEditor) {
             ProfilingScope initScope = new ProfilingScope();
@@ -276,18 +289,31 @@ public class TimeProfiler {
         }));
     }
 
+    private static void setCurrentScope(ProfilingScope scope) {
+        currentScope.set(scope);
+        if (Thread.currentThread() == ownerThread) {
+            ownerScope = scope;
+        }
+    }
+
     public static void start() {
         if (rootScope == null) {
             return;
         }
-        if (currentScope.children == null) {
-            currentScope.children = new ArrayList<ProfilingScope>();
-        }
         ProfilingScope scope = new ProfilingScope();
         scope.startTime = time();
-        scope.parent = currentScope;
-        currentScope.children.add(scope);
-        currentScope = scope;
+        scope.parent = currentScope.get();
+        if (scope.parent == null) {
+            scope.parent = ownerScope;
+            scope.threadRoot = true;
+        }
+        synchronized (childrenLock) {
+            if (scope.parent.children == null) {
+                scope.parent.children = new ArrayList<ProfilingScope>();
+            }
+            scope.parent.children.add(scope);
+        }
+        setCurrentScope(scope);
     }
 
     public static void start(String scopeName) {
@@ -302,19 +328,19 @@ public class TimeProfiler {
         start(String.format(fmt, args));
     }
 
-    private static void unsafeStop() {
-        currentScope.endTime = time();
-        currentScope = currentScope.parent;
-    }
-
     public static void stop() {
         if (rootScope == null) {
             return;
         }
-        unsafeStop();
+        ProfilingScope scope = currentScope.get();
+        if (scope == null) {
+            return;
+        }
+        scope.endTime = time();
+        setCurrentScope(scope.threadRoot ? null : scope.parent);
     }
 
-    public static void addMark(String shortName, String fullName, String color) {
+    public static synchronized void addMark(String shortName, String fullName, String color) {
         if (rootScope == null) {
             return;
         }
@@ -334,46 +360,49 @@ public class TimeProfiler {
         addMark(shortName, shortName, "#EADDCA");
     }
 
-    private static void unsafeAddData(String fieldName, String data) {
-        if (currentScope.additionalStringData == null) {
-            currentScope.additionalStringData = new HashMap<String, String>();
+    private static void unsafeAddData(ProfilingScope scope, String fieldName, String data) {
+        if (scope.additionalStringData == null) {
+            scope.additionalStringData = new HashMap<String, String>();
         }
-        currentScope.additionalStringData.put(fieldName, data);
+        scope.additionalStringData.put(fieldName, data);
     }
 
-    private static void unsafeAddData(String fieldName, Float data) {
-        if (currentScope.additionalNumberData == null) {
-            currentScope.additionalNumberData = new HashMap<String, Float>();
+    private static void unsafeAddData(ProfilingScope scope, String fieldName, Float data) {
+        if (scope.additionalNumberData == null) {
+            scope.additionalNumberData = new HashMap<String, Float>();
         }
-        currentScope.additionalNumberData.put(fieldName, data);
+        scope.additionalNumberData.put(fieldName, data);
     }
 
-    private static void unsafeAddData(String fieldName, Boolean data) {
-        if (currentScope.additionalBooleanData == null) {
-            currentScope.additionalBooleanData = new HashMap<String, Boolean>();
+    private static void unsafeAddData(ProfilingScope scope, String fieldName, Boolean data) {
+        if (scope.additionalBooleanData == null) {
+            scope.additionalBooleanData = new HashMap<String, Boolean>();
         }
-        currentScope.additionalBooleanData.put(fieldName, data);
+        scope.additionalBooleanData.put(fieldName, data);
     }
 
     public static void addData(String fieldName, String data) {
-        if (rootScope == null) {
+        ProfilingScope scope = currentScope.get();
+        if (rootScope == null || scope == null) {
             return;
         }
-        unsafeAddData(fieldName, data);
+        unsafeAddData(scope, fieldName, data);
     }
 
     public static void addData(String fieldName, Float data) {
-        if (rootScope == null) {
+        ProfilingScope scope = currentScope.get();
+        if (rootScope == null || scope == null) {
             return;
         }
-        unsafeAddData(fieldName, data);
+        unsafeAddData(scope, fieldName, data);
     }
 
     public static void addData(String fieldName, Boolean data) {
-        if (rootScope == null) {
+        ProfilingScope scope = currentScope.get();
+        if (rootScope == null || scope == null) {
             return;
         }
-        unsafeAddData(fieldName, data);
+        unsafeAddData(scope, fieldName, data);
     }
 
     public static void addData(String fieldName, Integer data) {